@@ -0,0 +1,139 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures capturing the output of a REST API at several payload sizes, for 
+ * each way it can be written:  through <code>getOutputStream</code> or 
+ * <code>getWriter</code> (buffered in the {@link RestResponse}), and 
+ * streamed to a caller-supplied <code>OutputStream</code>.  The REST API 
+ * writes in 8 KiB pieces, as a servlet copying from a buffer would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseCaptureBenchmark {
+	
+	private static final int WRITE_SIZE = 8192;
+	private static final String URI = "/uPortal/api/layout.json";
+	
+	@Param({ "0", "1024", "65536", "1048576" })
+	public int payloadSize;
+	
+	private final HttpServletRequest req = ServletStubs.request();
+	private final HttpServletResponse res = ServletStubs.response();
+	private final Map<String, String[]> params = Collections.emptyMap();
+	private SimpleCrossContextRestApiInvoker streamInvoker;
+	private SimpleCrossContextRestApiInvoker writerInvoker;
+	
+	@Setup
+	public void setup() {
+		final byte[] bytes = new byte[payloadSize];
+		Arrays.fill(bytes, (byte) 'x');
+		final String chars = new String(bytes);
+		streamInvoker = ServletStubs.invoker(new ServletStubs.RestApi() {
+			@Override
+			public void service(HttpServletRequest req, HttpServletResponse res) throws IOException {
+				res.setContentType("application/json;charset=UTF-8");
+				final OutputStream out = res.getOutputStream();
+				for (int off = 0; off < bytes.length; off += WRITE_SIZE) {
+					out.write(bytes, off, Math.min(WRITE_SIZE, bytes.length - off));
+				}
+			}
+		});
+		writerInvoker = ServletStubs.invoker(new ServletStubs.RestApi() {
+			@Override
+			public void service(HttpServletRequest req, HttpServletResponse res) throws IOException {
+				res.setContentType("application/json;charset=UTF-8");
+				final PrintWriter out = res.getWriter();
+				for (int off = 0; off < chars.length(); off += WRITE_SIZE) {
+					out.write(chars, off, Math.min(WRITE_SIZE, chars.length() - off));
+				}
+			}
+		});
+	}
+	
+	@Benchmark
+	public byte[] outputStream() {
+		return streamInvoker.invoke(req, res, URI, params).getStreamOutput();
+	}
+	
+	@Benchmark
+	public String writer() {
+		return writerInvoker.invoke(req, res, URI, params).getWriterOutput();
+	}
+	
+	@Benchmark
+	public RestResponse streamed(Blackhole bh) {
+		return streamInvoker.invoke(req, res, URI, params, new BlackholeOutputStream(bh));
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	private static final class BlackholeOutputStream extends OutputStream {
+		
+		private final Blackhole bh;
+		
+		public BlackholeOutputStream(Blackhole bh) {
+			this.bh = bh;
+		}
+
+		@Override
+		public void write(int b) {
+			bh.consume(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bh.consume(b);
+			bh.consume(len);
+		}
+		
+	}
+
+}
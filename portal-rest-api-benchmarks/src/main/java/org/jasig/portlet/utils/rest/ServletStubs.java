@@ -0,0 +1,158 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal servlet objects for driving a {@link SimpleCrossContextRestApiInvoker} 
+ * outside a container.  Every context dispatches to the same 
+ * {@link RestApi}, and every other method returns <code>null</code>, 
+ * <code>false</code> or zero.
+ */
+final class ServletStubs {
+	
+	/**
+	 * Stands in for the servlet behind the REST API.
+	 */
+	interface RestApi {
+		void service(HttpServletRequest req, HttpServletResponse res) throws IOException;
+	}
+	
+	private ServletStubs() {}
+	
+	public static HttpServletRequest request() {
+		return stub(HttpServletRequest.class);
+	}
+	
+	public static HttpServletResponse response() {
+		return stub(HttpServletResponse.class);
+	}
+	
+	/**
+	 * @return An invoker whose calls (to any context) are handled by the 
+	 * specified {@link RestApi}
+	 */
+	public static SimpleCrossContextRestApiInvoker invoker(RestApi api) {
+		final RequestDispatcher dispatcher = new RequestDispatcherImpl(api);
+		final ServletContext foreign = (ServletContext) Proxy.newProxyInstance(
+				ServletStubs.class.getClassLoader(), new Class<?>[] { ServletContext.class }, 
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return "getRequestDispatcher".equals(method.getName())
+								? dispatcher
+								: defaultValue(method.getReturnType());
+					}
+				});
+		final ServletContext local = (ServletContext) Proxy.newProxyInstance(
+				ServletStubs.class.getClassLoader(), new Class<?>[] { ServletContext.class }, 
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return "getContext".equals(method.getName())
+								? foreign
+								: defaultValue(method.getReturnType());
+					}
+				});
+		final SimpleCrossContextRestApiInvoker rslt = new SimpleCrossContextRestApiInvoker();
+		rslt.setServletContext(local);
+		return rslt;
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private static <T> T stub(Class<T> type) {
+		final Object rslt = Proxy.newProxyInstance(
+				ServletStubs.class.getClassLoader(), new Class<?>[] { type }, 
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return defaultValue(method.getReturnType());
+					}
+				});
+		return type.cast(rslt);
+	}
+	
+	private static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive() || type == void.class) {
+			return null;
+		}
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		if (type == char.class) {
+			return '\0';
+		}
+		if (type == float.class) {
+			return 0.0f;
+		}
+		if (type == double.class) {
+			return 0.0;
+		}
+		if (type == byte.class) {
+			return (byte) 0;
+		}
+		if (type == short.class) {
+			return (short) 0;
+		}
+		return 0;
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	private static final class RequestDispatcherImpl implements RequestDispatcher {
+		
+		private final RestApi api;
+		
+		public RequestDispatcherImpl(RestApi api) {
+			this.api = api;
+		}
+
+		@Override
+		public void forward(ServletRequest req, ServletResponse res) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void include(ServletRequest req, ServletResponse res) throws ServletException, IOException {
+			api.service((HttpServletRequest) req, (HttpServletResponse) res);
+		}
+		
+	}
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures turning the <code>uri</code> and <code>params</code> passed to 
+ * {@link SimpleCrossContextRestApiInvoker} into the context name and URI to 
+ * dispatch to.  <code>expand</code> covers the template alone;  
+ * <code>invoke</code> covers the whole call to a REST API that writes 
+ * nothing, i.e. parsing plus the fixed cost of dispatching and capturing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UriTemplateBenchmark {
+	
+	/**
+	 * Shapes of URI:  no tokens, path tokens, tokens in the query string, and 
+	 * a query string token with several values.
+	 */
+	@Param({ "plain", "pathTokens", "queryString", "multiValued" })
+	public String shape;
+	
+	private final UriTemplate.Cache cache = new UriTemplate.Cache();
+	private final HttpServletRequest req = ServletStubs.request();
+	private final HttpServletResponse res = ServletStubs.response();
+	private SimpleCrossContextRestApiInvoker invoker;
+	private String uri;
+	private Map<String, String[]> params;
+	
+	@Setup
+	public void setup() {
+		params = new HashMap<String, String[]>();
+		if ("plain".equals(shape)) {
+			uri = "/uPortal/api/layout.json";
+			params = Collections.emptyMap();
+		} else if ("pathTokens".equals(shape)) {
+			uri = "/uPortal/api/portlet/{fname}/prefs/{name}.json";
+			params.put("fname", new String[] { "weather" });
+			params.put("name", new String[] { "location unit" });
+		} else if ("queryString".equals(shape)) {
+			uri = "/uPortal/api/search?q={q}&type={type}&page={page}";
+			params.put("q", new String[] { "café & bar" });
+			params.put("type", new String[] { "portlet" });
+			params.put("page", new String[] { "2" });
+		} else if ("multiValued".equals(shape)) {
+			uri = "/uPortal/api/groups/{group}/members?attr={attr}";
+			params.put("group", new String[] { "local.0" });
+			params.put("attr", new String[] { "displayName", "mail", "uid", "telephoneNumber", "title" });
+		} else {
+			throw new IllegalArgumentException("Unknown shape:  " + shape);
+		}
+		invoker = ServletStubs.invoker(new ServletStubs.RestApi() {
+			@Override
+			public void service(HttpServletRequest req, HttpServletResponse res) throws IOException {
+				// Writes nothing
+			}
+		});
+	}
+	
+	@Benchmark
+	public String expand() throws UnsupportedEncodingException {
+		return cache.get(uri).expand(params);
+	}
+	
+	@Benchmark
+	public RestResponse invoke() {
+		return invoker.invoke(req, res, uri, params);
+	}
+
+}
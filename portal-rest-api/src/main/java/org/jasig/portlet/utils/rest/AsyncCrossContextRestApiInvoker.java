@@ -0,0 +1,242 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ParallelCrossContextRestApiInvoker} that adds {@link #invokeAsync}, 
+ * which frees the container thread while a call runs.  Requires a Servlet 3 
+ * container;  kept apart so that {@link ParallelCrossContextRestApiInvoker} 
+ * still loads on older ones.
+ * 
+ * <p>Asynchronous calls get the same isolated views of the request and 
+ * response as the calls of a batch;  those on one request serialize session 
+ * access on the request.  If the asynchronous cycle completes, times out or 
+ * fails while a call is still running, the call is interrupted and the 
+ * container thread waits (up to the cancellation timeout) for it to stop 
+ * using the request and response before they are recycled.
+ */
+public class AsyncCrossContextRestApiInvoker extends ParallelCrossContextRestApiInvoker {
+	
+	private final Logger log = LoggerFactory.getLogger(getClass());
+	private long asyncTimeout = -1L;
+	
+	public AsyncCrossContextRestApiInvoker() {
+		super();
+	}
+
+	public AsyncCrossContextRestApiInvoker(CrossContextRestApiInvoker enclosed) {
+		super(enclosed);
+	}
+
+	/**
+	 * Sets the timeout, in milliseconds, of the <code>AsyncContext</code> 
+	 * started by {@link #invokeAsync}.  Default is the container's timeout.
+	 */
+	public void setAsyncTimeout(long asyncTimeout) {
+		this.asyncTimeout = asyncTimeout;
+	}
+	
+	/**
+	 * Invokes the specified REST API without holding the container thread, 
+	 * where the request supports Servlet 3 asynchronous processing.  The 
+	 * request is put into asynchronous mode (unless it is already) and the 
+	 * call runs on the thread pool, so the servlet may return as soon as it 
+	 * has arranged to handle the result.  It is then the caller's 
+	 * responsibility to finish the request with <code>AsyncContext.complete</code> 
+	 * or <code>dispatch</code> once it has used the result, e.g. 
+	 * 
+	 * <pre>
+	 * invoker.invokeAsync(req, res, uri, params).whenComplete(...write res, then req.getAsyncContext().complete()...);
+	 * </pre>
+	 * 
+	 * <p>If the request doesn't support asynchronous processing (e.g. a filter 
+	 * or servlet in the chain isn't marked <code>async-supported</code>) the 
+	 * call is made on the calling thread and the future returned is already 
+	 * complete.
+	 * 
+	 * <p>If the <code>AsyncContext</code> times out first, the future 
+	 * completes exceptionally with a <code>TimeoutException</code> and the 
+	 * call is cancelled.  If the <code>ExecutorService</code> has no room for 
+	 * the call, the future completes exceptionally with a 
+	 * <code>RejectedExecutionException</code>.
+	 * 
+	 * @param req HTTP Request
+	 * @param res HTTP Response
+	 * @param uri URI of the REST API, as for {@link #invoke(HttpServletRequest, HttpServletResponse, String, Map)}
+	 * @param params Parameters for the URI
+	 * @return The result of the call;  it completes exceptionally if the 
+	 * call fails
+	 */
+	public CompletableFuture<RestResponse> invokeAsync(final HttpServletRequest req, final HttpServletResponse res, 
+						final String uri, final Map<String, String[]> params) {
+		
+		// Assertions.
+		if (req == null) {
+			final String msg = "Argument 'req' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		if (res == null) {
+			final String msg = "Argument 'res' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		
+		final CompletableFuture<RestResponse> rslt = new CompletableFuture<RestResponse>();
+		
+		if (!req.isAsyncSupported()) {
+			log.debug("Asynchronous processing is not supported for this request;  invoking {} synchronously", uri);
+			try {
+				rslt.complete(getEnclosed().invoke(req, res, uri, params));
+			} catch (RuntimeException e) {
+				rslt.completeExceptionally(e);
+			}
+			return rslt;
+		}
+		
+		final AsyncContext asyncContext;
+		if (req.isAsyncStarted()) {
+			asyncContext = req.getAsyncContext();
+		} else {
+			asyncContext = req.startAsync(req, res);
+			if (asyncTimeout >= 0L) {
+				asyncContext.setTimeout(asyncTimeout);
+			}
+		}
+		final CallGuard guard = new CallGuard();
+		asyncContext.addListener(new FutureAsyncListener(rslt, uri, guard));
+		
+		log.debug("Invoking REST API {} asynchronously", uri);
+		
+		try {
+			getExecutorService().execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!guard.enter()) {
+						// The request ended before the call started;  the listener 
+						// has failed the future
+						return;
+					}
+					RestResponse response = null;
+					Throwable failure = null;
+					try {
+						response = getEnclosed().invoke(IsolatedViews.request(req, req, guard), 
+								IsolatedViews.response(res, guard), uri, params);
+					} catch (Throwable t) {
+						failure = t;
+					} finally {
+						guard.exit();
+					}
+					// Completed outside the guard, as the caller's callbacks run here
+					if (failure == null) {
+						rslt.complete(response);
+					} else {
+						rslt.completeExceptionally(failure);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.warn("Not invoking {};  the executor rejected it", uri);
+			rslt.completeExceptionally(e);
+		}
+		
+		return rslt;
+		
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	/**
+	 * Fails the future of an asynchronous call if the request times out or 
+	 * fails before the call completes, and stops the call from using the 
+	 * request and response once the asynchronous cycle is over.
+	 */
+	private final class FutureAsyncListener implements AsyncListener {
+		
+		private final CompletableFuture<RestResponse> future;
+		private final String uri;
+		private final CallGuard guard;
+		
+		public FutureAsyncListener(CompletableFuture<RestResponse> future, String uri, CallGuard guard) {
+			this.future = future;
+			this.uri = uri;
+			this.guard = guard;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			// Normally the call finished long ago, but the caller may have 
+			// completed the request without waiting for it
+			release();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			final String msg = "The request timed out before the REST API completed:  " + uri;
+			future.completeExceptionally(new TimeoutException(msg));
+			release();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			future.completeExceptionally(event.getThrowable() != null 
+					? event.getThrowable() 
+					: new IllegalStateException("The request failed before the REST API completed:  " + uri));
+			release();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// Nothing to do
+		}
+		
+		/**
+		 * Cancels the call, if it is still running, and waits for it to stop 
+		 * before the container recycles the request and response.
+		 */
+		private void release() {
+			guard.cancel();
+			try {
+				if (!guard.close(getCancellationTimeout(), TimeUnit.MILLISECONDS)) {
+					log.warn("REST API {} ignored cancellation for {}ms;  its access to the " +
+							"request and response has been revoked", uri, getCancellationTimeout());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,407 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CrossContextRestApiInvoker} decorator that keeps the results of REST 
+ * API calls for a while, so that repeated calls for rarely-changing data skip 
+ * the include entirely.  Results are cached by the URI (as passed, which 
+ * includes the context name) and parameters, plus the values of any 
+ * user-scoped keys:  the remote user (by default), and any request or session 
+ * attributes specified.  When all the user-scoped values are 
+ * <code>null</code> (e.g. an anonymous request) the result is cached as if 
+ * there were no user-scoped keys.
+ * 
+ * <p>Results are kept for the <code>max-age</code> given by the REST API's 
+ * <code>Cache-Control</code> header or, failing that, the time to live set on 
+ * this invoker.  Only successful (2xx) results are kept;  results marked 
+ * <code>no-store</code> never are, and results marked <code>private</code> 
+ * only when there is at least one user-scoped key.  When an expired result 
+ * has an <code>ETag</code>, the REST API is invoked with 
+ * <code>If-None-Match</code>;  if it responds 304 (Not Modified) or with the 
+ * same <code>ETag</code>, the cached result is kept for another period.  The 
+ * least recently used results are discarded when the cache is full.
+ * 
+ * <p>Streamed invocations are passed through without caching.
+ */
+public class CachingCrossContextRestApiInvoker implements CrossContextRestApiInvoker {
+	
+	/**
+	 * Default maximum number of results to keep.
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	
+	/**
+	 * Default number of milliseconds results are kept when the REST API 
+	 * doesn't specify.
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(1);
+	
+	private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+	private static final String NO_STORE_DIRECTIVE = "no-store";
+	private static final String NO_CACHE_DIRECTIVE = "no-cache";
+	private static final String PRIVATE_DIRECTIVE = "private";
+	private static final String MAX_AGE_DIRECTIVE = "max-age=";
+	
+	private final Logger log = LoggerFactory.getLogger(getClass());
+	private final CrossContextRestApiInvoker enclosed;
+	private final Map<CacheKey, CacheEntry> cache;
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+	private long timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIME_TO_LIVE);
+	private boolean remoteUserScoped = true;
+	private List<String> requestAttributeKeys = Collections.emptyList();
+	private List<String> sessionAttributeKeys = Collections.emptyList();
+	
+	public CachingCrossContextRestApiInvoker() {
+		this(new SimpleCrossContextRestApiInvoker());
+	}
+
+	public CachingCrossContextRestApiInvoker(CrossContextRestApiInvoker enclosed) {
+		this.enclosed = enclosed;
+		this.cache = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * Sets the maximum number of results to keep.  Default is 
+	 * {@link #DEFAULT_MAX_ENTRIES}.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Sets the number of milliseconds results are kept when the REST API 
+	 * doesn't specify a <code>max-age</code>.  Default is 
+	 * {@link #DEFAULT_TIME_TO_LIVE}.
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+	}
+
+	/**
+	 * Sets whether results are cached separately for each remote user.  
+	 * Default is <code>true</code>.
+	 */
+	public void setRemoteUserScoped(boolean remoteUserScoped) {
+		this.remoteUserScoped = remoteUserScoped;
+	}
+
+	/**
+	 * Sets the names of request attributes whose values select between 
+	 * separately-cached results.
+	 */
+	public void setRequestAttributeKeys(List<String> requestAttributeKeys) {
+		this.requestAttributeKeys = new ArrayList<String>(requestAttributeKeys);
+	}
+
+	/**
+	 * Sets the names of session attributes whose values select between 
+	 * separately-cached results.  A session is never created to read them.
+	 */
+	public void setSessionAttributeKeys(List<String> sessionAttributeKeys) {
+		this.sessionAttributeKeys = new ArrayList<String>(sessionAttributeKeys);
+	}
+	
+	/**
+	 * Discards all cached results.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri) {
+		final Map<String, String[]> params = Collections.emptyMap();
+		return invoke(req, res, uri, params);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params) {
+		
+		// Assertions.
+		if (req == null) {
+			final String msg = "Argument 'req' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		if (uri == null) {
+			final String msg = "Argument 'uri' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		if (params == null) {
+			final String msg = "Argument 'params' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		
+		// Keyed by the template and parameters, so only the enclosed invoker expands the URI
+		final CacheKey key = new CacheKey(uri, params, getUserScope(req));
+		
+		final long now = System.nanoTime();
+		final CacheEntry cached;
+		synchronized (cache) {
+			cached = cache.get(key);
+		}
+		if (cached != null && now - cached.expires < 0) {
+			log.debug("Using cached response for {}", key);
+			return cached.response;
+		}
+		
+		RestResponse rslt;
+		if (cached != null && cached.response.getETag() != null) {
+			// Revalidate
+			final HttpServletRequest conditional = new ConditionalHttpServletRequestWrapper(
+					req, cached.response.getETag());
+			rslt = enclosed.invoke(conditional, res, uri, params);
+			if (rslt.isNotModified() || cached.response.getETag().equals(rslt.getETag())) {
+				log.debug("Cached response for {} is still valid", key);
+				rslt = cached.response;
+			}
+		} else {
+			rslt = enclosed.invoke(req, res, uri, params);
+		}
+		
+		store(key, rslt, now);
+		return rslt;
+		
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, OutputStream out) {
+		return enclosed.invoke(req, res, uri, params, out);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, Writer out) {
+		return enclosed.invoke(req, res, uri, params, out);
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private List<Object> getUserScope(HttpServletRequest req) {
+		if (!remoteUserScoped && requestAttributeKeys.isEmpty() && sessionAttributeKeys.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final List<Object> rslt = new ArrayList<Object>(
+				1 + requestAttributeKeys.size() + sessionAttributeKeys.size());
+		boolean scoped = false;
+		if (remoteUserScoped) {
+			scoped |= add(rslt, req.getRemoteUser());
+		}
+		for (String name : requestAttributeKeys) {
+			scoped |= add(rslt, req.getAttribute(name));
+		}
+		if (!sessionAttributeKeys.isEmpty()) {
+			final HttpSession session = req.getSession(false);
+			for (String name : sessionAttributeKeys) {
+				scoped |= add(rslt, session != null ? session.getAttribute(name) : null);
+			}
+		}
+		// Without any value (e.g. anonymous) the request isn't scoped to anyone, 
+		// so it mustn't see (or store) private results
+		return scoped ? rslt : Collections.emptyList();
+	}
+	
+	/**
+	 * @return <code>true</code> if the value isn't <code>null</code>
+	 */
+	private boolean add(List<Object> userScope, Object value) {
+		userScope.add(value);
+		return value != null;
+	}
+	
+	private void store(CacheKey key, RestResponse response, long now) {
+		
+		long timeToLive = timeToLiveNanos;
+		boolean store = response.isSuccessful();
+		boolean noCache = false;
+		final String cacheControl = response.getCacheControl();
+		if (cacheControl != null) {
+			for (String directive : cacheControl.toLowerCase().split(",")) {
+				directive = directive.trim();
+				if (directive.equals(NO_STORE_DIRECTIVE) 
+						|| (directive.equals(PRIVATE_DIRECTIVE) && key.userScope.isEmpty())) {
+					store = false;
+				} else if (directive.equals(NO_CACHE_DIRECTIVE)) {
+					noCache = true;
+				} else if (directive.startsWith(MAX_AGE_DIRECTIVE)) {
+					try {
+						final long maxAge = Long.parseLong(directive.substring(MAX_AGE_DIRECTIVE.length()).trim());
+						timeToLive = TimeUnit.SECONDS.toNanos(maxAge);
+					} catch (NumberFormatException e) {
+						log.debug("Ignoring invalid Cache-Control directive '{}' for {}", directive, key);
+					}
+				}
+			}
+		}
+		if (noCache) {
+			// May be kept, but must be revalidated before each use
+			timeToLive = 0L;
+		}
+		
+		// An entry that expires immediately is still useful for revalidation
+		if (store && (timeToLive > 0L || response.getETag() != null)) {
+			synchronized (cache) {
+				cache.put(key, new CacheEntry(response, now + timeToLive));
+			}
+		} else {
+			log.debug("Not caching the response for {} (Cache-Control: {})", key, cacheControl);
+			synchronized (cache) {
+				cache.remove(key);
+			}
+		}
+		
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	private static final class CacheKey {
+		
+		private final String uri;
+		private final Map<String, List<String>> params;
+		private final List<Object> userScope;
+		private final int hashCode;
+		
+		public CacheKey(String uri, Map<String, String[]> params, List<Object> userScope) {
+			this.uri = uri;
+			// Copied, as the caller may reuse the Map or its arrays
+			if (params.isEmpty()) {
+				this.params = Collections.emptyMap();
+			} else {
+				this.params = new HashMap<String, List<String>>(params.size() * 2);
+				for (Map.Entry<String, String[]> y : params.entrySet()) {
+					this.params.put(y.getKey(), Arrays.asList(y.getValue().clone()));
+				}
+			}
+			this.userScope = userScope;
+			this.hashCode = 31 * (31 * uri.hashCode() + this.params.hashCode()) + userScope.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			final CacheKey other = (CacheKey) obj;
+			return hashCode == other.hashCode && uri.equals(other.uri) 
+					&& params.equals(other.params) && userScope.equals(other.userScope);
+		}
+
+		@Override
+		public String toString() {
+			return params.isEmpty() ? uri : uri + " " + params;
+		}
+		
+	}
+	
+	private static final class CacheEntry {
+		
+		private final RestResponse response;
+		private final long expires;  // System.nanoTime()
+		
+		public CacheEntry(RestResponse response, long expires) {
+			this.response = response;
+			this.expires = expires;
+		}
+		
+	}
+	
+	/**
+	 * Adds an <code>If-None-Match</code> header to the request.
+	 */
+	private static final class ConditionalHttpServletRequestWrapper extends HttpServletRequestWrapper {
+		
+		private final String eTag;
+
+		public ConditionalHttpServletRequestWrapper(HttpServletRequest req, String eTag) {
+			super(req);
+			this.eTag = eTag;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return IF_NONE_MATCH_HEADER.equalsIgnoreCase(name) ? eTag : super.getHeader(name);
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public Enumeration getHeaders(String name) {
+			return IF_NONE_MATCH_HEADER.equalsIgnoreCase(name) 
+					? Collections.enumeration(Collections.singletonList(eTag))
+					: super.getHeaders(name);
+		}
+
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public Enumeration getHeaderNames() {
+			final List<String> rslt = new ArrayList<String>();
+			for (Enumeration<?> names = super.getHeaderNames(); names.hasMoreElements();) {
+				final String name = (String) names.nextElement();
+				if (!IF_NONE_MATCH_HEADER.equalsIgnoreCase(name)) {
+					rslt.add(name);
+				}
+			}
+			rslt.add(IF_NONE_MATCH_HEADER);
+			return Collections.enumeration(rslt);
+		}
+		
+	}
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the calls that are using a request and response on other threads, 
+ * so the thread that owns them can wait for those calls before letting the 
+ * request and response go.  Once the guard is closed no further calls may 
+ * start.  Calls still running when the wait ends are revoked:  their next use 
+ * of the (isolated view of the) request or response throws an 
+ * <code>IllegalStateException</code>.  A use already in progress at that 
+ * moment isn't interrupted.
+ */
+final class CallGuard {
+	
+	private final Set<Thread> running = new HashSet<Thread>();
+	private boolean closed = false;
+	private volatile boolean revoked = false;
+	
+	/**
+	 * @return <code>false</code> if the call may no longer start
+	 */
+	public synchronized boolean enter() {
+		if (closed) {
+			return false;
+		}
+		running.add(Thread.currentThread());
+		return true;
+	}
+	
+	public synchronized void exit() {
+		running.remove(Thread.currentThread());
+		if (running.isEmpty()) {
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Prevents further calls from starting and interrupts running ones.
+	 */
+	public synchronized void cancel() {
+		closed = true;
+		for (Thread thread : running) {
+			thread.interrupt();
+		}
+	}
+	
+	/**
+	 * Prevents further calls from starting and waits (up to the timeout) for 
+	 * running ones to finish, revoking those that don't.
+	 * 
+	 * @return <code>true</code> if no call is running
+	 * @throws InterruptedException If interrupted while waiting;  running 
+	 * calls are revoked first
+	 */
+	public synchronized boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+		closed = true;
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			for (long remaining = deadline - System.nanoTime(); !running.isEmpty() && remaining > 0L; 
+					remaining = deadline - System.nanoTime()) {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		} finally {
+			if (!running.isEmpty()) {
+				revoked = true;
+			}
+		}
+		return !revoked;
+	}
+	
+	/**
+	 * @throws IllegalStateException If the calls have been revoked
+	 */
+	public void checkNotRevoked() {
+		if (revoked) {
+			final String msg = "The request has been released;  the REST API " +
+					"ran past its timeout and may no longer use it";
+			throw new IllegalStateException(msg);
+		}
+	}
+
+}
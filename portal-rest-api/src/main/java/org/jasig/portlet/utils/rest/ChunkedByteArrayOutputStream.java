@@ -0,0 +1,168 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * In-memory <code>OutputStream</code> that collects its content in a list of 
+ * chunks instead of a single array that must be grown (and copied) as it 
+ * fills.  Chunks come in size classes -- each one twice as large as the one 
+ * before it, up to a maximum -- and are borrowed from (and returned to) a 
+ * small shared pool so that capturing large REST responses doesn't churn 
+ * through garbage.  Call {@link #release()} when finished with the content;  
+ * the stream may not be used afterwards.
+ * 
+ * <p>Not thread safe;  the pool is.
+ */
+final class ChunkedByteArrayOutputStream extends OutputStream {
+	
+	private static final int MIN_CHUNK_SHIFT = 10;  // 1 KiB
+	private static final int MAX_CHUNK_SHIFT = 16;  // 64 KiB
+	private static final int POOLED_CHUNKS_PER_SIZE_CLASS = 16;
+	
+	private static final List<BlockingQueue<byte[]>> POOL;
+	static {
+		final int sizeClasses = MAX_CHUNK_SHIFT - MIN_CHUNK_SHIFT + 1;
+		final List<BlockingQueue<byte[]>> pool = new ArrayList<BlockingQueue<byte[]>>(sizeClasses);
+		for (int i = 0; i < sizeClasses; i++) {
+			pool.add(new ArrayBlockingQueue<byte[]>(POOLED_CHUNKS_PER_SIZE_CLASS));
+		}
+		POOL = pool;
+	}
+	
+	private final List<byte[]> chunks = new ArrayList<byte[]>();
+	private byte[] current = null;
+	private int currentPos = 0;
+	private int completedSize = 0;  // Bytes in all chunks before current
+	private boolean released = false;
+
+	@Override
+	public void write(int b) {
+		if (current == null || currentPos == current.length) {
+			nextChunk();
+		}
+		current[currentPos++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			if (current == null || currentPos == current.length) {
+				nextChunk();
+			}
+			final int n = Math.min(len, current.length - currentPos);
+			System.arraycopy(b, off, current, currentPos, n);
+			currentPos += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * @return The number of bytes written so far
+	 */
+	public int size() {
+		return completedSize + currentPos;
+	}
+	
+	/**
+	 * @return A newly-allocated array holding exactly the content written so far
+	 */
+	public byte[] toByteArray() {
+		assertNotReleased();
+		final byte[] rslt = new byte[size()];
+		int pos = 0;
+		for (byte[] chunk : chunks) {
+			final int n = chunk == current ? currentPos : chunk.length;
+			System.arraycopy(chunk, 0, rslt, pos, n);
+			pos += n;
+		}
+		return rslt;
+	}
+	
+	/**
+	 * Decodes the content using the platform default charset, like 
+	 * <code>ByteArrayOutputStream.toString()</code>.
+	 */
+	@Override
+	public String toString() {
+		return new String(toByteArray());
+	}
+	
+	/**
+	 * Returns the chunks held by this stream to the pool.  Safe to call more 
+	 * than once.
+	 */
+	public void release() {
+		if (released) {
+			return;
+		}
+		released = true;
+		for (byte[] chunk : chunks) {
+			final int sizeClass = Integer.numberOfTrailingZeros(chunk.length) - MIN_CHUNK_SHIFT;
+			// If the pool for this size is already full, let the GC have it
+			POOL.get(sizeClass).offer(chunk);
+		}
+		chunks.clear();
+		current = null;
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	/**
+	 * @return The number of chunks of the specified size waiting in the pool
+	 */
+	static int getPooledChunkCount(int chunkSize) {
+		return POOL.get(Integer.numberOfTrailingZeros(chunkSize) - MIN_CHUNK_SHIFT).size();
+	}
+	
+	private void nextChunk() {
+		assertNotReleased();
+		if (current != null) {
+			completedSize += current.length;
+		}
+		// Start small (most responses are) and double up to the max
+		final int shift = Math.min(MIN_CHUNK_SHIFT + chunks.size(), MAX_CHUNK_SHIFT);
+		byte[] chunk = POOL.get(shift - MIN_CHUNK_SHIFT).poll();
+		if (chunk == null) {
+			chunk = new byte[1 << shift];
+		}
+		chunks.add(chunk);
+		current = chunk;
+		currentPos = 0;
+	}
+	
+	private void assertNotReleased() {
+		if (released) {
+			final String msg = "This stream has been released";
+			throw new IllegalStateException(msg);
+		}
+	}
+
+}
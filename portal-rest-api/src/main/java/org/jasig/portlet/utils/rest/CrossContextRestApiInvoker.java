@@ -18,6 +18,9 @@
  */
 package org.jasig.portlet.utils.rest;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -68,4 +71,83 @@ public interface CrossContextRestApiInvoker {
 	RestResponse invoke(HttpServletRequest req, HttpServletResponse res, 
 						String uri, Map<String, String[]> params);
 
+	/**
+	 * Invokes the specified REST API using a cross-context RequestDispatcher, 
+	 * sending the body of the response straight through to the specified 
+	 * <code>OutputStream</code> instead of buffering it.  The <code>uri</code> 
+	 * and <code>params</code> are handled exactly as they are by 
+	 * {@link #invoke(HttpServletRequest, HttpServletResponse, String, Map)}.  
+	 * Anything the REST API writes to <code>HttpServletResponse.getWriter</code> 
+	 * is encoded using the character encoding of the response.
+	 * <p>
+	 * The default implementation buffers the body with 
+	 * {@link #invoke(HttpServletRequest, HttpServletResponse, String, Map)} 
+	 * and then copies it to <code>out</code>;  implementations that can send 
+	 * the body straight through should override it.
+	 * 
+	 * @param req HTTP Request
+	 * @param res HTTP Response
+	 * @param uri REST API URI to invoke using the form /contextName/resource/{param1}?{param2}
+	 * @param params Map of parameters to inject into the URI
+	 * @param out Destination for the body of the response;  it will be flushed 
+	 * but not closed
+	 * @return Results of REST call, without the body (it was written to 
+	 * <code>out</code>)
+	 */
+	default RestResponse invoke(HttpServletRequest req, HttpServletResponse res, 
+						String uri, Map<String, String[]> params, OutputStream out) {
+		if (out == null) {
+			final String msg = "Argument 'out' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		final RestResponse rslt = invoke(req, res, uri, params);
+		try {
+			rslt.writeBody(out);
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return rslt.withoutBody();
+	}
+
+	/**
+	 * Invokes the specified REST API using a cross-context RequestDispatcher, 
+	 * sending the body of the response straight through to the specified 
+	 * <code>Writer</code> instead of buffering it, e.g. to include it in the 
+	 * output of a JSP.  The <code>uri</code> and <code>params</code> are 
+	 * handled exactly as they are by 
+	 * {@link #invoke(HttpServletRequest, HttpServletResponse, String, Map)}.  
+	 * Anything the REST API writes to <code>HttpServletResponse.getOutputStream</code> 
+	 * is decoded using the character encoding of the response.
+	 * <p>
+	 * The default implementation buffers the body with 
+	 * {@link #invoke(HttpServletRequest, HttpServletResponse, String, Map)} 
+	 * and then copies it to <code>out</code>;  implementations that can send 
+	 * the body straight through should override it.
+	 * 
+	 * @param req HTTP Request
+	 * @param res HTTP Response
+	 * @param uri REST API URI to invoke using the form /contextName/resource/{param1}?{param2}
+	 * @param params Map of parameters to inject into the URI
+	 * @param out Destination for the body of the response;  it will be flushed 
+	 * but not closed
+	 * @return Results of REST call, without the body (it was written to 
+	 * <code>out</code>)
+	 */
+	default RestResponse invoke(HttpServletRequest req, HttpServletResponse res, 
+						String uri, Map<String, String[]> params, Writer out) {
+		if (out == null) {
+			final String msg = "Argument 'out' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		final RestResponse rslt = invoke(req, res, uri, params);
+		try {
+			rslt.writeBody(out);
+			out.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return rslt.withoutBody();
+	}
+
 }
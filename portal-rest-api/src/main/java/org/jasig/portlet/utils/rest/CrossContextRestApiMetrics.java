@@ -0,0 +1,55 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+/**
+ * Receives measurements of the REST API calls made by a 
+ * {@link SimpleCrossContextRestApiInvoker}.  Calls are identified by the 
+ * context name and the URI template (the <code>uri</code> argument, before 
+ * parameters are applied).  Implementations must be thread safe, and should be 
+ * quick;  they are called on the request thread.
+ * 
+ * @see JmxCrossContextRestApiMetrics
+ */
+public interface CrossContextRestApiMetrics {
+	
+	/**
+	 * Called just before the REST API is invoked.
+	 * 
+	 * @param contextName Context of the REST API, including the leading '/'
+	 * @param uriTemplate URI of the REST API before applying parameters
+	 */
+	void invocationStarted(String contextName, String uriTemplate);
+	
+	/**
+	 * Called once the REST API has been invoked, successfully or not.
+	 * 
+	 * @param contextName Context of the REST API, including the leading '/'
+	 * @param uriTemplate URI of the REST API before applying parameters
+	 * @param durationNanos Time taken by the call, in nanoseconds
+	 * @param payloadSize Size of the body of the response in bytes;  text 
+	 * written to <code>getWriter</code> is counted in the character encoding 
+	 * of the response
+	 * @param error <code>true</code> if the call failed with an exception or 
+	 * an HTTP error status
+	 */
+	void invocationCompleted(String contextName, String uriTemplate, long durationNanos, 
+						long payloadSize, boolean error);
+
+}
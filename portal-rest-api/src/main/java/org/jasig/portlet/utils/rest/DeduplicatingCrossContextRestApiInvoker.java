@@ -0,0 +1,181 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CrossContextRestApiInvoker} decorator that makes each distinct REST 
+ * API call at most once per <code>HttpServletRequest</code>.  Calls are 
+ * identified by their URI (with parameters applied, which includes the 
+ * context name).  The first call does the include;  duplicates made while it 
+ * is in flight wait for it, and duplicates made afterwards get its result 
+ * immediately.  All of them receive the same {@link RestResponse} object.  A 
+ * call that fails is not remembered, so a later duplicate tries again.
+ * 
+ * <p>The results are kept in a request attribute, which is shared with the 
+ * calls of a batch made by {@link ParallelCrossContextRestApiInvoker} when 
+ * this invoker is the enclosed one.
+ * 
+ * <p>Streamed invocations are passed through without deduplication.
+ */
+public class DeduplicatingCrossContextRestApiInvoker implements CrossContextRestApiInvoker {
+	
+	private static final String RESULTS_ATTRIBUTE = ParallelCrossContextRestApiInvoker.SHARED_ATTRIBUTE_PREFIX 
+			+ DeduplicatingCrossContextRestApiInvoker.class.getName() + ".RESULTS";
+	
+	private final Logger log = LoggerFactory.getLogger(getClass());
+	private final CrossContextRestApiInvoker enclosed;
+	private final UriTemplate.Cache uriTemplates = new UriTemplate.Cache();
+	private final String resultsAttribute = RESULTS_ATTRIBUTE + "." + System.identityHashCode(this);
+	
+	public DeduplicatingCrossContextRestApiInvoker() {
+		this(new SimpleCrossContextRestApiInvoker());
+	}
+
+	public DeduplicatingCrossContextRestApiInvoker(CrossContextRestApiInvoker enclosed) {
+		this.enclosed = enclosed;
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri) {
+		final Map<String, String[]> params = Collections.emptyMap();
+		return invoke(req, res, uri, params);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params) {
+		
+		// Assertions.
+		if (req == null) {
+			final String msg = "Argument 'req' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		if (uri == null) {
+			final String msg = "Argument 'uri' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		if (params == null) {
+			final String msg = "Argument 'params' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		
+		final String key;
+		try {
+			key = uriTemplates.get(uri).expand(params);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		
+		final ConcurrentMap<String, CompletableFuture<RestResponse>> results = getResults(req);
+		final CompletableFuture<RestResponse> created = new CompletableFuture<RestResponse>();
+		final CompletableFuture<RestResponse> existing = results.putIfAbsent(key, created);
+		if (existing != null) {
+			log.debug("Sharing the response of an identical call for {}", key);
+			return await(existing, key);
+		}
+		
+		try {
+			final RestResponse rslt = enclosed.invoke(req, res, uri, params);
+			created.complete(rslt);
+			return rslt;
+		} catch (RuntimeException e) {
+			fail(results, key, created, e);
+			throw e;
+		} catch (Error e) {
+			fail(results, key, created, e);
+			throw e;
+		}
+		
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, OutputStream out) {
+		return enclosed.invoke(req, res, uri, params, out);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, Writer out) {
+		return enclosed.invoke(req, res, uri, params, out);
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	@SuppressWarnings("unchecked")
+	private ConcurrentMap<String, CompletableFuture<RestResponse>> getResults(HttpServletRequest req) {
+		ConcurrentMap<String, CompletableFuture<RestResponse>> rslt = 
+				(ConcurrentMap<String, CompletableFuture<RestResponse>>) req.getAttribute(resultsAttribute);
+		if (rslt == null) {
+			// Calls of a batch may get here at the same time
+			synchronized (this) {
+				rslt = (ConcurrentMap<String, CompletableFuture<RestResponse>>) req.getAttribute(resultsAttribute);
+				if (rslt == null) {
+					rslt = new ConcurrentHashMap<String, CompletableFuture<RestResponse>>();
+					req.setAttribute(resultsAttribute, rslt);
+				}
+			}
+		}
+		return rslt;
+	}
+	
+	private void fail(ConcurrentMap<String, CompletableFuture<RestResponse>> results, String key, 
+						CompletableFuture<RestResponse> future, Throwable cause) {
+		// Let later duplicates try again;  those already waiting get the failure
+		results.remove(key, future);
+		future.completeExceptionally(cause);
+	}
+	
+	private RestResponse await(CompletableFuture<RestResponse> future, String key) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			final String msg = "Interrupted while waiting for an identical call to " + key;
+			throw new IllegalStateException(msg, e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+}
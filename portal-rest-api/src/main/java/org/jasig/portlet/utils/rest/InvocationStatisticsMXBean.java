@@ -0,0 +1,57 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+/**
+ * Statistics for the REST API calls to one context, or one URI template 
+ * within a context, exposed by {@link JmxCrossContextRestApiMetrics}.
+ */
+public interface InvocationStatisticsMXBean {
+	
+	String getContextName();
+	
+	/**
+	 * @return The URI template, or <code>null</code> for the statistics of the 
+	 * context as a whole
+	 */
+	String getUriTemplate();
+	
+	long getInvocationCount();
+	
+	long getErrorCount();
+	
+	long getInFlightCount();
+	
+	long getTotalPayloadSize();
+	
+	long getMaxPayloadSize();
+	
+	double getMeanLatencyMillis();
+	
+	double getMaxLatencyMillis();
+	
+	double get50thPercentileLatencyMillis();
+	
+	double get95thPercentileLatencyMillis();
+	
+	double get99thPercentileLatencyMillis();
+	
+	void reset();
+
+}
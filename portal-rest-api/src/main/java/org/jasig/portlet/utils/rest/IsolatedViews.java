@@ -0,0 +1,238 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Creates the views of a request and response given to a call running on 
+ * another thread.  The views are opaque -- not 
+ * <code>ServletRequestWrapper</code> or <code>ServletResponseWrapper</code> 
+ * objects -- so the container can't splice its include wrappers into a chain 
+ * shared with other calls.  The request view keeps request attributes set by 
+ * the REST API to itself (many frameworks set and restore attributes around 
+ * an include), except those whose names begin with 
+ * {@link ParallelCrossContextRestApiInvoker#SHARED_ATTRIBUTE_PREFIX}, and 
+ * serializes all access to the <code>HttpSession</code> on a lock shared by 
+ * the calls.  Both views stop working once their {@link CallGuard} revokes 
+ * them.
+ */
+final class IsolatedViews {
+	
+	private static final ClassLoader CLASS_LOADER = IsolatedViews.class.getClassLoader();
+	
+	private IsolatedViews() {
+		// Static methods only
+	}
+	
+	/**
+	 * @param req The request to isolate
+	 * @param sessionLock Lock held for every use of the session
+	 * @param guard Guard of the call
+	 * @return A view of the request to be used by one call only
+	 */
+	public static HttpServletRequest request(HttpServletRequest req, Object sessionLock, CallGuard guard) {
+		return (HttpServletRequest) Proxy.newProxyInstance(CLASS_LOADER, 
+				new Class<?>[] { HttpServletRequest.class }, 
+				new IsolatedRequestHandler(req, sessionLock, guard));
+	}
+	
+	/**
+	 * @param res The response to isolate
+	 * @param guard Guard of the call
+	 * @return A view of the response to be used by one call only
+	 */
+	public static HttpServletResponse response(HttpServletResponse res, CallGuard guard) {
+		return (HttpServletResponse) Proxy.newProxyInstance(CLASS_LOADER, 
+				new Class<?>[] { HttpServletResponse.class }, 
+				new IsolatedHandler(res, guard));
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	/**
+	 * Passes method calls through to the enclosed object, without being 
+	 * recognizable as a wrapper.
+	 */
+	private static class IsolatedHandler implements InvocationHandler {
+		
+		private final Object enclosed;
+		private final CallGuard guard;
+		
+		public IsolatedHandler(Object enclosed, CallGuard guard) {
+			this.enclosed = enclosed;
+			this.guard = guard;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				// equals, hashCode & toString apply to the proxy itself
+				final String name = method.getName();
+				if ("equals".equals(name)) {
+					return proxy == args[0];
+				} else if ("hashCode".equals(name)) {
+					return System.identityHashCode(proxy);
+				}
+				return getClass().getSimpleName() + "[" + enclosed + "]";
+			}
+			if (guard != null) {
+				guard.checkNotRevoked();
+			}
+			try {
+				return method.invoke(enclosed, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+		
+	}
+	
+	/**
+	 * Gives one call its own view of the request attributes and a session 
+	 * view that locks every use of the session.  Used only by the thread 
+	 * running that call.
+	 */
+	private static final class IsolatedRequestHandler extends IsolatedHandler {
+		
+		private static final Object REMOVED = new Object();
+		
+		private final HttpServletRequest req;
+		private final Map<String, Object> attributes = new HashMap<String, Object>();
+		private final Object sessionLock;
+		private HttpSession session = null;
+		private HttpSession sessionView = null;
+		
+		public IsolatedRequestHandler(HttpServletRequest req, Object sessionLock, CallGuard guard) {
+			super(req, guard);
+			this.req = req;
+			this.sessionLock = sessionLock;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			final String name = method.getName();
+			if (isSharedAttribute(name, args)) {
+				return super.invoke(proxy, method, args);
+			} else if ("getAttribute".equals(name)) {
+				return getAttribute((String) args[0]);
+			} else if ("getAttributeNames".equals(name)) {
+				return getAttributeNames();
+			} else if ("setAttribute".equals(name)) {
+				setAttribute((String) args[0], args[1]);
+				return null;
+			} else if ("removeAttribute".equals(name)) {
+				attributes.put((String) args[0], REMOVED);
+				return null;
+			} else if ("getSession".equals(name)) {
+				final HttpSession rslt;
+				synchronized (sessionLock) {
+					rslt = (HttpSession) super.invoke(proxy, method, args);
+				}
+				return getSessionView(rslt);
+			}
+			return super.invoke(proxy, method, args);
+		}
+
+		private boolean isSharedAttribute(String methodName, Object[] args) {
+			return ("getAttribute".equals(methodName) || "setAttribute".equals(methodName) 
+						|| "removeAttribute".equals(methodName))
+					&& args[0] instanceof String 
+					&& ((String) args[0]).startsWith(ParallelCrossContextRestApiInvoker.SHARED_ATTRIBUTE_PREFIX);
+		}
+
+		private Object getAttribute(String name) {
+			final Object rslt = attributes.get(name);
+			if (rslt == null) {
+				return attributes.containsKey(name) ? null : req.getAttribute(name);
+			}
+			return rslt != REMOVED ? rslt : null;
+		}
+
+		private Enumeration<?> getAttributeNames() {
+			final Set<String> rslt = new LinkedHashSet<String>();
+			for (Enumeration<?> names = req.getAttributeNames(); names.hasMoreElements();) {
+				rslt.add((String) names.nextElement());
+			}
+			for (Map.Entry<String, Object> y : attributes.entrySet()) {
+				if (y.getValue() != REMOVED) {
+					rslt.add(y.getKey());
+				} else {
+					rslt.remove(y.getKey());
+				}
+			}
+			return Collections.enumeration(rslt);
+		}
+
+		private void setAttribute(String name, Object o) {
+			attributes.put(name, o != null ? o : REMOVED);
+		}
+		
+		private HttpSession getSessionView(HttpSession rslt) {
+			if (rslt == null) {
+				return null;
+			}
+			if (rslt != session) {
+				session = rslt;
+				sessionView = (HttpSession) Proxy.newProxyInstance(CLASS_LOADER, 
+						new Class<?>[] { HttpSession.class }, 
+						new SynchronizedHandler(rslt, sessionLock));
+			}
+			return sessionView;
+		}
+		
+	}
+	
+	/**
+	 * Holds a lock for every method call on the enclosed object.
+	 */
+	private static final class SynchronizedHandler extends IsolatedHandler {
+		
+		private final Object lock;
+		
+		public SynchronizedHandler(Object enclosed, Object lock) {
+			super(enclosed, null);
+			this.lock = lock;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			synchronized (lock) {
+				return super.invoke(proxy, method, args);
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,321 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CrossContextRestApiMetrics} that keeps latency histograms, payload 
+ * sizes, error counts and in-flight counts for each context and each URI 
+ * template, and exposes them as {@link InvocationStatisticsMXBean} objects.  
+ * They are registered (when first used) under names like 
+ * <code>org.jasig.portlet.utils.rest:type=CrossContextRestApi,context="/ctx",template="/ctx/api/{id}"</code>;  
+ * the statistics for the context as a whole have no <code>template</code> key.
+ * 
+ * <p>The number of templates tracked is limited (URIs built on the fly 
+ * instead of using parameters would otherwise create a bean per call);  
+ * calls with templates beyond the limit are counted only for their context.  
+ * Call {@link #destroy()} to unregister the beans.
+ */
+public class JmxCrossContextRestApiMetrics implements CrossContextRestApiMetrics {
+	
+	public static final String DEFAULT_BASE_OBJECT_NAME = "org.jasig.portlet.utils.rest:type=CrossContextRestApi";
+	
+	/**
+	 * Default maximum number of URI templates to track.
+	 */
+	public static final int DEFAULT_MAX_TEMPLATES = 500;
+	
+	private final Logger log = LoggerFactory.getLogger(getClass());
+	private final ConcurrentMap<String, InvocationStatistics> contexts = new ConcurrentHashMap<String, InvocationStatistics>();
+	private final ConcurrentMap<TemplateKey, InvocationStatistics> templates = new ConcurrentHashMap<TemplateKey, InvocationStatistics>();
+	private MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+	private String baseObjectName = DEFAULT_BASE_OBJECT_NAME;
+	private int maxTemplates = DEFAULT_MAX_TEMPLATES;
+	
+	public void setmBeanServer(MBeanServer mBeanServer) {
+		this.mBeanServer = mBeanServer;
+	}
+
+	public void setBaseObjectName(String baseObjectName) {
+		this.baseObjectName = baseObjectName;
+	}
+
+	public void setMaxTemplates(int maxTemplates) {
+		this.maxTemplates = maxTemplates;
+	}
+
+	@Override
+	public void invocationStarted(String contextName, String uriTemplate) {
+		getContextStatistics(contextName).started();
+		final InvocationStatistics stats = getTemplateStatistics(contextName, uriTemplate);
+		if (stats != null) {
+			stats.started();
+		}
+	}
+
+	@Override
+	public void invocationCompleted(String contextName, String uriTemplate, long durationNanos, 
+						long payloadSize, boolean error) {
+		getContextStatistics(contextName).completed(durationNanos, payloadSize, error);
+		final InvocationStatistics stats = getTemplateStatistics(contextName, uriTemplate);
+		if (stats != null) {
+			stats.completed(durationNanos, payloadSize, error);
+		}
+	}
+	
+	/**
+	 * Unregisters all beans registered by this object.
+	 */
+	public void destroy() {
+		for (InvocationStatistics stats : contexts.values()) {
+			unregister(stats);
+		}
+		for (InvocationStatistics stats : templates.values()) {
+			unregister(stats);
+		}
+		contexts.clear();
+		templates.clear();
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private InvocationStatistics getContextStatistics(String contextName) {
+		InvocationStatistics rslt = contexts.get(contextName);
+		if (rslt == null) {
+			final InvocationStatistics created = new InvocationStatistics(contextName, null);
+			rslt = contexts.putIfAbsent(contextName, created);
+			if (rslt == null) {
+				rslt = created;
+				register(rslt);
+			}
+		}
+		return rslt;
+	}
+	
+	private InvocationStatistics getTemplateStatistics(String contextName, String uriTemplate) {
+		final TemplateKey key = new TemplateKey(contextName, uriTemplate);
+		InvocationStatistics rslt = templates.get(key);
+		if (rslt == null) {
+			if (templates.size() >= maxTemplates) {
+				return null;
+			}
+			final InvocationStatistics created = new InvocationStatistics(contextName, uriTemplate);
+			rslt = templates.putIfAbsent(key, created);
+			if (rslt == null) {
+				rslt = created;
+				register(rslt);
+			}
+		}
+		return rslt;
+	}
+	
+	private void register(InvocationStatistics stats) {
+		try {
+			final StringBuilder name = new StringBuilder(baseObjectName)
+					.append(",context=").append(ObjectName.quote(stats.getContextName()));
+			if (stats.getUriTemplate() != null) {
+				name.append(",template=").append(ObjectName.quote(stats.getUriTemplate()));
+			}
+			stats.objectName = mBeanServer.registerMBean(stats, ObjectName.getInstance(name.toString())).getObjectName();
+		}
+		catch (Exception e) {
+			log.warn("Failed to register REST API statistics with MBeanServer for: {} {}", 
+					stats.getContextName(), stats.getUriTemplate(), e);
+		}
+	}
+	
+	private void unregister(InvocationStatistics stats) {
+		final ObjectName name = stats.objectName;
+		if (name == null) {
+			return;
+		}
+		try {
+			mBeanServer.unregisterMBean(name);
+		}
+		catch (Exception e) {
+			log.warn("Failed to unregister REST API statistics with MBeanServer for: {}", name, e);
+		}
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	private static final class TemplateKey {
+		
+		private final String contextName;
+		private final String uriTemplate;
+		
+		public TemplateKey(String contextName, String uriTemplate) {
+			this.contextName = contextName;
+			this.uriTemplate = uriTemplate;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * contextName.hashCode() + uriTemplate.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TemplateKey)) {
+				return false;
+			}
+			final TemplateKey other = (TemplateKey) obj;
+			return contextName.equals(other.contextName) && uriTemplate.equals(other.uriTemplate);
+		}
+		
+	}
+	
+	private static final class InvocationStatistics implements InvocationStatisticsMXBean {
+		
+		private final String contextName;
+		private final String uriTemplate;
+		private final AtomicLong invocations = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong inFlight = new AtomicLong();
+		private final AtomicLong totalPayloadSize = new AtomicLong();
+		private final AtomicLong maxPayloadSize = new AtomicLong();
+		private final AtomicLong totalDurationNanos = new AtomicLong();
+		private final AtomicLong maxDurationNanos = new AtomicLong();
+		private final LatencyHistogram latencies = new LatencyHistogram();
+		private volatile ObjectName objectName = null;
+		
+		public InvocationStatistics(String contextName, String uriTemplate) {
+			this.contextName = contextName;
+			this.uriTemplate = uriTemplate;
+		}
+		
+		public void started() {
+			inFlight.incrementAndGet();
+		}
+		
+		public void completed(long durationNanos, long payloadSize, boolean error) {
+			inFlight.decrementAndGet();
+			invocations.incrementAndGet();
+			if (error) {
+				errors.incrementAndGet();
+			}
+			totalPayloadSize.addAndGet(payloadSize);
+			updateMax(maxPayloadSize, payloadSize);
+			totalDurationNanos.addAndGet(durationNanos);
+			updateMax(maxDurationNanos, durationNanos);
+			latencies.record(durationNanos);
+		}
+
+		@Override
+		public String getContextName() {
+			return contextName;
+		}
+
+		@Override
+		public String getUriTemplate() {
+			return uriTemplate;
+		}
+
+		@Override
+		public long getInvocationCount() {
+			return invocations.get();
+		}
+
+		@Override
+		public long getErrorCount() {
+			return errors.get();
+		}
+
+		@Override
+		public long getInFlightCount() {
+			return inFlight.get();
+		}
+
+		@Override
+		public long getTotalPayloadSize() {
+			return totalPayloadSize.get();
+		}
+
+		@Override
+		public long getMaxPayloadSize() {
+			return maxPayloadSize.get();
+		}
+
+		@Override
+		public double getMeanLatencyMillis() {
+			final long count = invocations.get();
+			return count != 0L ? toMillis(totalDurationNanos.get()) / count : 0.0;
+		}
+
+		@Override
+		public double getMaxLatencyMillis() {
+			return toMillis(maxDurationNanos.get());
+		}
+
+		@Override
+		public double get50thPercentileLatencyMillis() {
+			return latencies.getPercentileMillis(50.0);
+		}
+
+		@Override
+		public double get95thPercentileLatencyMillis() {
+			return latencies.getPercentileMillis(95.0);
+		}
+
+		@Override
+		public double get99thPercentileLatencyMillis() {
+			return latencies.getPercentileMillis(99.0);
+		}
+
+		@Override
+		public void reset() {
+			// In-flight calls are still in flight
+			invocations.set(0L);
+			errors.set(0L);
+			totalPayloadSize.set(0L);
+			maxPayloadSize.set(0L);
+			totalDurationNanos.set(0L);
+			maxDurationNanos.set(0L);
+			latencies.reset();
+		}
+		
+		private static void updateMax(AtomicLong max, long value) {
+			long current = max.get();
+			while (value > current && !max.compareAndSet(current, value)) {
+				current = max.get();
+			}
+		}
+		
+		private static double toMillis(long nanos) {
+			return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		}
+		
+	}
+
+}
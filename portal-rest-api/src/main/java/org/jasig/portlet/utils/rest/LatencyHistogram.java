@@ -0,0 +1,75 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, with buckets whose bounds are powers of 
+ * two microseconds.  Percentiles are reported as the upper bound of the 
+ * bucket they fall in, so they are accurate to within a factor of two -- 
+ * plenty to tell a 5 ms call from a 500 ms one.
+ */
+final class LatencyHistogram {
+	
+	private static final int BUCKETS = 40;  // 2^39 microseconds is about six days
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	
+	public void record(long durationNanos) {
+		final long micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+		// Bucket i holds durations below 2^i microseconds (and at least 2^(i-1))
+		final int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+		counts.incrementAndGet(bucket);
+	}
+	
+	/**
+	 * @param percentile Between 0 and 100
+	 * @return The duration, in milliseconds, below which the specified 
+	 * percentage of recorded durations fall;  0 if there are none
+	 */
+	public double getPercentileMillis(double percentile) {
+		final long[] snapshot = new long[BUCKETS];
+		long total = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0L) {
+			return 0.0;
+		}
+		final long threshold = (long) Math.ceil(total * percentile / 100.0);
+		long cumulative = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += snapshot[i];
+			if (cumulative >= threshold && cumulative != 0L) {
+				return (1L << i) / 1000.0;
+			}
+		}
+		return (1L << (BUCKETS - 1)) / 1000.0;
+	}
+	
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0L);
+		}
+	}
+
+}
@@ -0,0 +1,381 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CrossContextRestApiInvoker} that adds {@link #invokeAll}, which runs 
+ * a batch of REST API calls concurrently so that the time taken is that of the 
+ * slowest call instead of the sum of them all.  Individual calls are passed 
+ * through to the enclosed invoker as-is.  Batches only need Servlet 3.0 APIs 
+ * that work without asynchronous support;  
+ * {@link AsyncCrossContextRestApiInvoker} adds asynchronous calls.
+ * 
+ * <p>Servlet requests aren't meant to be shared between threads, so each call 
+ * gets its own view of the request and response, which keeps request 
+ * attributes set by the REST API to itself, except those whose names begin 
+ * with {@link #SHARED_ATTRIBUTE_PREFIX}, and serializes all access to the 
+ * <code>HttpSession</code>.  The calling thread waits in {@link #invokeAll} 
+ * until no call is using the request or response, or -- for calls that 
+ * ignore being cancelled -- until the {@link #setCancellationTimeout(long) 
+ * cancellation timeout} expires, after which their views refuse any further 
+ * use.
+ * 
+ * <p>Calls run on the <code>ExecutorService</code> provided with 
+ * {@link #setExecutorService(ExecutorService)} or, by default, on a pool of up 
+ * to {@link #DEFAULT_MAX_THREADS} daemon threads;  call {@link #destroy()} to 
+ * shut down the default pool.  At most {@link #DEFAULT_MAX_QUEUED} calls wait 
+ * for a thread of the default pool;  calls beyond that are rejected rather 
+ * than piling up, and their futures fail with a 
+ * <code>RejectedExecutionException</code>.
+ */
+public class ParallelCrossContextRestApiInvoker implements CrossContextRestApiInvoker {
+	
+	/**
+	 * Size of the default thread pool.
+	 */
+	public static final int DEFAULT_MAX_THREADS = 16;
+	
+	/**
+	 * Number of calls that may wait for a thread of the default thread pool.
+	 */
+	public static final int DEFAULT_MAX_QUEUED = 256;
+	
+	/**
+	 * Default number of milliseconds {@link #invokeAll} waits for cancelled 
+	 * calls to stop.
+	 */
+	public static final long DEFAULT_CANCELLATION_TIMEOUT = 1000L;
+	
+	/**
+	 * Request attributes whose names begin with this prefix are set on the 
+	 * request itself, and so are visible to all the calls in a batch.  Their 
+	 * values must be thread safe.
+	 */
+	public static final String SHARED_ATTRIBUTE_PREFIX = "org.jasig.portlet.utils.rest.shared.";
+	
+	private final Logger log = LoggerFactory.getLogger(getClass());
+	private final CrossContextRestApiInvoker enclosed;
+	private ExecutorService executorService = null;
+	private boolean defaultExecutorService = false;
+	private int maxThreads = DEFAULT_MAX_THREADS;
+	private int maxQueued = DEFAULT_MAX_QUEUED;
+	private long cancellationTimeout = DEFAULT_CANCELLATION_TIMEOUT;
+	
+	public ParallelCrossContextRestApiInvoker() {
+		this(new SimpleCrossContextRestApiInvoker());
+	}
+
+	public ParallelCrossContextRestApiInvoker(CrossContextRestApiInvoker enclosed) {
+		this.enclosed = enclosed;
+	}
+
+	/**
+	 * Sets the <code>ExecutorService</code> used to run the calls in a batch. 
+	 * It remains the caller's responsibility to shut it down.
+	 */
+	public synchronized void setExecutorService(ExecutorService executorService) {
+		destroy();
+		this.executorService = executorService;
+		this.defaultExecutorService = false;
+	}
+
+	/**
+	 * Sets the number of threads in the default thread pool.  Has no effect 
+	 * once the pool exists, or if an <code>ExecutorService</code> is provided.
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Sets how many calls may wait for a thread of the default thread pool; 
+	 * further calls are rejected until the backlog clears.  Has no effect 
+	 * once the pool exists, or if an <code>ExecutorService</code> is provided. 
+	 * Default is {@link #DEFAULT_MAX_QUEUED}.
+	 */
+	public void setMaxQueued(int maxQueued) {
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * Sets how long, in milliseconds, {@link #invokeAll} (or an asynchronous 
+	 * request that is over) waits for calls that were cancelled to stop using 
+	 * the request and response.  Calls still 
+	 * running after that are revoked:  they fail the next time they use the 
+	 * request or response.  Default is {@link #DEFAULT_CANCELLATION_TIMEOUT}.
+	 */
+	public void setCancellationTimeout(long cancellationTimeout) {
+		this.cancellationTimeout = cancellationTimeout;
+	}
+
+	/**
+	 * Shuts down the default thread pool, if it was created.
+	 */
+	public synchronized void destroy() {
+		if (defaultExecutorService) {
+			executorService.shutdownNow();
+			executorService = null;
+			defaultExecutorService = false;
+		}
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri) {
+		return enclosed.invoke(req, res, uri);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params) {
+		return enclosed.invoke(req, res, uri, params);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, OutputStream out) {
+		return enclosed.invoke(req, res, uri, params, out);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, Writer out) {
+		return enclosed.invoke(req, res, uri, params, out);
+	}
+	
+	/**
+	 * Invokes the specified REST APIs concurrently and waits for them to 
+	 * finish.  Each call is cancelled if it hasn't finished when its own 
+	 * timeout (if any) or the timeout of the batch expires;  its future then 
+	 * reports that it was cancelled.  Cancelled calls that are still running 
+	 * are waited for up to the cancellation timeout, so the batch takes at most 
+	 * <code>timeout</code> plus the cancellation timeout.
+	 * 
+	 * @param req HTTP Request
+	 * @param res HTTP Response
+	 * @param invocations The REST API calls to make
+	 * @param timeout Maximum time to wait for the calls to complete
+	 * @param unit Unit of the timeout argument
+	 * @return A completed <code>Future</code> for each invocation, in the same 
+	 * order;  <code>get</code> throws an <code>ExecutionException</code> if the 
+	 * call failed (caused by a <code>RejectedExecutionException</code> if the 
+	 * <code>ExecutorService</code> had no room for it), or a 
+	 * <code>CancellationException</code> if it timed out
+	 */
+	public List<Future<RestResponse>> invokeAll(HttpServletRequest req, HttpServletResponse res, 
+						List<RestApiInvocation> invocations, long timeout, TimeUnit unit) {
+		
+		// Assertions.
+		if (req == null) {
+			final String msg = "Argument 'req' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		if (res == null) {
+			final String msg = "Argument 'res' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		if (invocations == null) {
+			final String msg = "Argument 'invocations' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		
+		log.debug("Invoking {} REST APIs concurrently", invocations.size());
+		
+		final long start = System.nanoTime();
+		final long batchDeadline = start + unit.toNanos(timeout);
+		final CallGuard guard = new CallGuard();
+		final Object sessionLock = new Object();
+		final List<Future<RestResponse>> rslt = new ArrayList<Future<RestResponse>>(invocations.size());
+		final List<Deadline> deadlines = new ArrayList<Deadline>(invocations.size());
+		
+		boolean interrupted = false;
+		try {
+			final ExecutorService executor = getExecutorService();
+			for (final RestApiInvocation invocation : invocations) {
+				final Future<RestResponse> future;
+				try {
+					future = executor.submit(new Callable<RestResponse>() {
+						@Override
+						public RestResponse call() throws Exception {
+							if (!guard.enter()) {
+								final String msg = "The batch is complete;  not invoking " + invocation;
+								throw new IllegalStateException(msg);
+							}
+							try {
+								return enclosed.invoke(IsolatedViews.request(req, sessionLock, guard), 
+										IsolatedViews.response(res, guard), invocation.getUri(), invocation.getParams());
+							} finally {
+								guard.exit();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					log.warn("Not invoking {};  the executor rejected it", invocation);
+					final CompletableFuture<RestResponse> rejected = new CompletableFuture<RestResponse>();
+					rejected.completeExceptionally(e);
+					rslt.add(rejected);
+					continue;
+				}
+				rslt.add(future);
+				long deadline = batchDeadline;
+				if (invocation.getTimeoutNanos() >= 0L && start + invocation.getTimeoutNanos() - batchDeadline < 0L) {
+					deadline = start + invocation.getTimeoutNanos();
+				}
+				deadlines.add(new Deadline(future, deadline, invocation));
+			}
+			
+			// Earliest deadline first, so no call outlives its own timeout 
+			// while we wait for another
+			Collections.sort(deadlines);
+			for (Deadline d : deadlines) {
+				if (interrupted) {
+					d.future.cancel(true);
+					continue;
+				}
+				try {
+					d.future.get(d.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				} catch (TimeoutException e) {
+					log.debug("Cancelling {};  it did not complete in time", d.invocation);
+					d.future.cancel(true);
+				} catch (InterruptedException e) {
+					// Cancel whatever is still running and report the interruption below
+					interrupted = true;
+					d.future.cancel(true);
+				} catch (ExecutionException e) {
+					// Reported through the future
+				} catch (CancellationException e) {
+					// Reported through the future
+				}
+			}
+		} finally {
+			for (Future<RestResponse> future : rslt) {
+				future.cancel(true);  // No effect on those that are done
+			}
+			// Cancelled includes may still be running;  don't let the request 
+			// and response escape while they are
+			try {
+				if (!guard.close(cancellationTimeout, TimeUnit.MILLISECONDS)) {
+					log.warn("REST API calls ignored cancellation for {}ms;  their access to " +
+							"the request and response has been revoked", cancellationTimeout);
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+			final String msg = "Interrupted while invoking REST APIs";
+			throw new IllegalStateException(msg);
+		}
+		return rslt;
+		
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	CrossContextRestApiInvoker getEnclosed() {
+		return enclosed;
+	}
+	
+	long getCancellationTimeout() {
+		return cancellationTimeout;
+	}
+	
+	synchronized ExecutorService getExecutorService() {
+		if (executorService == null) {
+			final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 
+					60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(maxQueued), new DaemonThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+			executorService = executor;
+			defaultExecutorService = true;
+		}
+		return executorService;
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	/**
+	 * When a call of a batch is due to complete.
+	 */
+	private static final class Deadline implements Comparable<Deadline> {
+		
+		private final Future<RestResponse> future;
+		private final long deadline;  // System.nanoTime()
+		private final RestApiInvocation invocation;
+		
+		public Deadline(Future<RestResponse> future, long deadline, RestApiInvocation invocation) {
+			this.future = future;
+			this.deadline = deadline;
+			this.invocation = invocation;
+		}
+
+		@Override
+		public int compareTo(Deadline o) {
+			return Long.signum(deadline - o.deadline);
+		}
+		
+	}
+	
+	private static final class DaemonThreadFactory implements ThreadFactory {
+		
+		private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+		
+		private final AtomicInteger threadNumber = new AtomicInteger();
+		private final String prefix = "CrossContextRestApi-" + POOL_NUMBER.incrementAndGet() + "-";
+
+		@Override
+		public Thread newThread(Runnable r) {
+			final Thread rslt = new Thread(r, prefix + threadNumber.incrementAndGet());
+			rslt.setDaemon(true);
+			return rslt;
+		}
+		
+	}
+
+}
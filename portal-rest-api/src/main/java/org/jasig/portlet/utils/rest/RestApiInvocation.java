@@ -0,0 +1,85 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One REST API call in a batch submitted to 
+ * {@link ParallelCrossContextRestApiInvoker#invokeAll}.  The <code>uri</code> 
+ * and <code>params</code> are as described by 
+ * {@link CrossContextRestApiInvoker#invoke(javax.servlet.http.HttpServletRequest, 
+ * javax.servlet.http.HttpServletResponse, String, Map)}.  A call may have 
+ * its own timeout, measured from the start of the batch;  it is cancelled 
+ * when either its own timeout or that of the batch expires.
+ */
+public final class RestApiInvocation {
+	
+	private final String uri;
+	private final Map<String, String[]> params;
+	private final long timeoutNanos;
+	
+	public RestApiInvocation(String uri) {
+		this(uri, Collections.<String, String[]>emptyMap());
+	}
+
+	public RestApiInvocation(String uri, Map<String, String[]> params) {
+		this.uri = uri;
+		this.params = params;
+		this.timeoutNanos = -1L;
+	}
+
+	/**
+	 * @param timeout Maximum time the call may take
+	 * @param unit Unit of the timeout argument
+	 */
+	public RestApiInvocation(String uri, Map<String, String[]> params, long timeout, TimeUnit unit) {
+		if (timeout < 0L) {
+			final String msg = "Argument 'timeout' cannot be negative";
+			throw new IllegalArgumentException(msg);
+		}
+		this.uri = uri;
+		this.params = params;
+		this.timeoutNanos = unit.toNanos(timeout);
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public Map<String, String[]> getParams() {
+		return params;
+	}
+
+	/**
+	 * @return The timeout of this call in nanoseconds, or -1 if it is bounded 
+	 * only by the timeout of the batch
+	 */
+	public long getTimeoutNanos() {
+		return timeoutNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "RestApiInvocation [uri=" + uri + ", params=" + params.keySet() + "]";
+	}
+
+}
@@ -18,35 +18,298 @@
  */
 package org.jasig.portlet.utils.rest;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Results of a REST API invocation.  The body is held in the form the REST API 
+ * produced it -- characters if it used <code>getWriter</code>, raw bytes if it 
+ * used <code>getOutputStream</code> -- and is converted to the other form only 
+ * if (and when) a caller asks for it.  Conversions are done once and use the 
+ * character encoding of the response.
+ */
 public final class RestResponse {
 	
+	/**
+	 * Servlet spec default when the response specifies no character encoding.
+	 */
+	static final String DEFAULT_CHARACTER_ENCODING = "ISO-8859-1";
+	
+	private static final String CACHE_CONTROL_HEADER = "Cache-Control";
+	private static final String ETAG_HEADER = "ETag";
+	
 	private final String writerOutput;
 	private final byte[] streamOutput;
 	private final String contentType;
+	private final String characterEncoding;
+	private final int status;
+	private final String statusMessage;
+	private final RestResponseHeaders headers;
+	
+	// Lazily-converted forms of the body;  racy, but converting twice is harmless
+	private volatile String decodedStreamOutput = null;
+	private volatile byte[] encodedWriterOutput = null;
 	
 	public RestResponse(String writerOutput, String contentType) {
-		this.writerOutput = writerOutput;
-		this.contentType = contentType;
-		this.streamOutput = null;
+		this(writerOutput, contentType, null);
+	}
+
+	public RestResponse(String writerOutput, String contentType, String characterEncoding) {
+		this(writerOutput, null, contentType, characterEncoding, 
+				HttpServletResponse.SC_OK, null, RestResponseHeaders.EMPTY);
 	}
 
-	// TODO:  Needs work
 	public RestResponse(byte[] streamOutput) {
-		this.writerOutput = null;
-		this.contentType = null;
+		this(streamOutput, null, null);
+	}
+
+	public RestResponse(byte[] streamOutput, String contentType, String characterEncoding) {
+		this(null, streamOutput, contentType, characterEncoding, 
+				HttpServletResponse.SC_OK, null, RestResponseHeaders.EMPTY);
+	}
+	
+	RestResponse(String writerOutput, byte[] streamOutput, String contentType, String characterEncoding, 
+						int status, String statusMessage, RestResponseHeaders headers) {
+		this.writerOutput = writerOutput;
 		this.streamOutput = streamOutput;
+		this.contentType = contentType;
+		this.characterEncoding = characterEncoding;
+		this.status = status;
+		this.statusMessage = statusMessage;
+		this.headers = headers;
+	}
+	
+	/**
+	 * @return The HTTP status code set by the REST API;  200 (OK) if it set 
+	 * none
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The message passed to <code>sendError</code> by the REST API, 
+	 * or <code>null</code> if there was none
+	 */
+	public String getStatusMessage() {
+		return statusMessage;
+	}
+	
+	/**
+	 * @return <code>true</code> if the status code is in the 2xx range
+	 */
+	public boolean isSuccessful() {
+		return status >= 200 && status < 300;
+	}
+	
+	/**
+	 * @return <code>true</code> if the status code is 304 (Not Modified)
+	 */
+	public boolean isNotModified() {
+		return status == HttpServletResponse.SC_NOT_MODIFIED;
+	}
+	
+	/**
+	 * @return <code>true</code> if the status code is 400 or above
+	 */
+	public boolean isError() {
+		return status >= 400;
+	}
+	
+	/**
+	 * @return The HTTP headers set by the REST API (never <code>null</code>)
+	 */
+	public RestResponseHeaders getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return <code>true</code> if the response has a body;  it doesn't if it 
+	 * was streamed to an <code>OutputStream</code>, or if the REST API wrote no 
+	 * output at all
+	 */
+	public boolean hasBody() {
+		return writerOutput != null || streamOutput != null;
 	}
 
+	/**
+	 * @return The body of the response as text (decoded on first call if the 
+	 * REST API wrote bytes), or <code>null</code> if there is no body
+	 */
 	public String getWriterOutput() {
-		return writerOutput;
+		if (writerOutput != null || streamOutput == null) {
+			return writerOutput;
+		}
+		String rslt = decodedStreamOutput;
+		if (rslt == null) {
+			rslt = new String(streamOutput, getCharset());
+			decodedStreamOutput = rslt;
+		}
+		return rslt;
 	}
 
+	/**
+	 * @return A copy of the raw bytes written to <code>getOutputStream</code> 
+	 * by the REST API, or <code>null</code> if it used <code>getWriter</code> 
+	 * (or there is no body);  responses may be shared (e.g. when cached), so 
+	 * use {@link #asInputStream()} or {@link #asByteBuffer()} to avoid the copy
+	 */
 	public byte[] getStreamOutput() {
-		return streamOutput;
+		return streamOutput != null ? streamOutput.clone() : null;
+	}
+	
+	/**
+	 * @return The body of the response as bytes (encoded on first call if the 
+	 * REST API wrote text), or <code>null</code> if there is no body
+	 */
+	public InputStream asInputStream() {
+		final byte[] bytes = getBytes();
+		return bytes != null ? new ByteArrayInputStream(bytes) : null;
+	}
+
+	/**
+	 * @return A read-only view of the body of the response as bytes (encoded 
+	 * on first call if the REST API wrote text), or <code>null</code> if there 
+	 * is no body
+	 */
+	public ByteBuffer asByteBuffer() {
+		final byte[] bytes = getBytes();
+		return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : null;
 	}
 
 	public String getContentType() {
 		return contentType;
 	}
 
+	/**
+	 * @return The character encoding specified by the REST API (or, failing 
+	 * that, its content type), or <code>null</code> if there was none
+	 */
+	public String getCharacterEncoding() {
+		if (characterEncoding != null) {
+			return characterEncoding;
+		}
+		return parseCharset(contentType);
+	}
+
+	/**
+	 * @return The <code>Cache-Control</code> header set by the REST API, or 
+	 * <code>null</code> if there was none
+	 */
+	public String getCacheControl() {
+		final List<String> values = headers.getHeaders(CACHE_CONTROL_HEADER);
+		switch (values.size()) {
+			case 0:
+				return null;
+			case 1:
+				return values.get(0);
+			default:
+				// Multiple Cache-Control headers are equivalent to one with a list
+				final StringBuilder rslt = new StringBuilder();
+				for (String value : values) {
+					rslt.append(rslt.length() != 0 ? ", " : "").append(value);
+				}
+				return rslt.toString();
+		}
+	}
+
+	/**
+	 * @return The <code>ETag</code> header set by the REST API, or 
+	 * <code>null</code> if there was none
+	 */
+	public String getETag() {
+		return headers.getHeader(ETAG_HEADER);
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	/**
+	 * Writes the body (if any) as bytes to the specified stream.
+	 */
+	void writeBody(OutputStream out) throws IOException {
+		final byte[] bytes = getBytes();
+		if (bytes != null) {
+			out.write(bytes);
+		}
+	}
+	
+	/**
+	 * Writes the body (if any) as text to the specified writer.
+	 */
+	void writeBody(Writer out) throws IOException {
+		final String text = getWriterOutput();
+		if (text != null) {
+			out.write(text);
+		}
+	}
+	
+	/**
+	 * @return The size of the body in bytes, encoding it (once) if the REST 
+	 * API wrote text
+	 */
+	long getBodySize() {
+		final byte[] bytes = getBytes();
+		return bytes != null ? bytes.length : 0L;
+	}
+	
+	/**
+	 * @return A copy of this response, with the same status and headers, but 
+	 * no body
+	 */
+	RestResponse withoutBody() {
+		return new RestResponse(null, null, contentType, characterEncoding, 
+				status, statusMessage, headers);
+	}
+	
+	/**
+	 * Extracts the charset parameter (if any) from a content type like 
+	 * <code>application/json;charset=UTF-8</code>.
+	 */
+	static String parseCharset(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		final int pos = contentType.toLowerCase().indexOf("charset=");
+		if (pos == -1) {
+			return null;
+		}
+		String rslt = contentType.substring(pos + "charset=".length());
+		final int end = rslt.indexOf(';');
+		if (end != -1) {
+			rslt = rslt.substring(0, end);
+		}
+		rslt = rslt.trim();
+		if (rslt.length() > 1 && rslt.startsWith("\"") && rslt.endsWith("\"")) {
+			rslt = rslt.substring(1, rslt.length() - 1);
+		}
+		return rslt.length() != 0 ? rslt : null;
+	}
+	
+	private Charset getCharset() {
+		final String encoding = getCharacterEncoding();
+		return Charset.forName(encoding != null ? encoding : DEFAULT_CHARACTER_ENCODING);
+	}
+
+	private byte[] getBytes() {
+		if (streamOutput != null || writerOutput == null) {
+			return streamOutput;
+		}
+		byte[] rslt = encodedWriterOutput;
+		if (rslt == null) {
+			rslt = writerOutput.getBytes(getCharset());
+			encodedWriterOutput = rslt;
+		}
+		return rslt;
+	}
+
 }
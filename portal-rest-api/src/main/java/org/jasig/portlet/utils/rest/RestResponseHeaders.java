@@ -0,0 +1,172 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The HTTP headers set by a REST API, in the order they were set.  Names are 
+ * matched without regard to case.  Responses normally carry only a handful of 
+ * headers, so they are kept in a pair of arrays and searched linearly.
+ * 
+ * <p>Instances are immutable.
+ */
+public final class RestResponseHeaders {
+	
+	public static final RestResponseHeaders EMPTY = new RestResponseHeaders(new String[0], new String[0]);
+	
+	private final String[] names;
+	private final String[] values;
+	
+	private RestResponseHeaders(String[] names, String[] values) {
+		this.names = names;
+		this.values = values;
+	}
+	
+	/**
+	 * @return The first value of the specified header, or <code>null</code> if 
+	 * it wasn't set
+	 */
+	public String getHeader(String name) {
+		final int index = indexOf(names, names.length, name, 0);
+		return index != -1 ? values[index] : null;
+	}
+
+	/**
+	 * @return All values of the specified header;  empty if it wasn't set
+	 */
+	public List<String> getHeaders(String name) {
+		List<String> rslt = null;
+		for (int i = indexOf(names, names.length, name, 0); i != -1; i = indexOf(names, names.length, name, i + 1)) {
+			if (rslt == null) {
+				rslt = new ArrayList<String>(2);
+			}
+			rslt.add(values[i]);
+		}
+		return rslt != null ? Collections.unmodifiableList(rslt) : Collections.<String>emptyList();
+	}
+
+	/**
+	 * @return The names of the headers that were set, as first set
+	 */
+	public Set<String> getHeaderNames() {
+		final Set<String> rslt = new LinkedHashSet<String>();
+		for (int i = 0; i < names.length; i++) {
+			if (indexOf(names, i, names[i], 0) == -1) {
+				rslt.add(names[i]);
+			}
+		}
+		return Collections.unmodifiableSet(rslt);
+	}
+	
+	public boolean containsHeader(String name) {
+		return indexOf(names, names.length, name, 0) != -1;
+	}
+	
+	public boolean isEmpty() {
+		return names.length == 0;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder rslt = new StringBuilder("RestResponseHeaders [");
+		for (int i = 0; i < names.length; i++) {
+			rslt.append(i != 0 ? ", " : "").append(names[i]).append(": ").append(values[i]);
+		}
+		return rslt.append("]").toString();
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private static int indexOf(String[] names, int length, String name, int from) {
+		for (int i = from; i < length; i++) {
+			if (names[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	/**
+	 * Collects headers as a REST API sets them.  Not thread safe.
+	 */
+	static final class Builder {
+		
+		private String[] names = new String[8];
+		private String[] values = new String[8];
+		private int size = 0;
+		
+		/**
+		 * Replaces any values the header already has.
+		 */
+		public void set(String name, String value) {
+			int j = 0;
+			for (int i = 0; i < size; i++) {
+				if (!names[i].equalsIgnoreCase(name)) {
+					names[j] = names[i];
+					values[j] = values[i];
+					++j;
+				}
+			}
+			size = j;
+			add(name, value);
+		}
+		
+		public void add(String name, String value) {
+			if (name == null) {
+				return;
+			}
+			if (size == names.length) {
+				names = Arrays.copyOf(names, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			names[size] = name;
+			values[size] = value;
+			++size;
+		}
+		
+		public boolean contains(String name) {
+			return indexOf(names, size, name, 0) != -1;
+		}
+		
+		public String get(String name) {
+			final int index = indexOf(names, size, name, 0);
+			return index != -1 ? values[index] : null;
+		}
+		
+		public RestResponseHeaders build() {
+			return size != 0
+					? new RestResponseHeaders(Arrays.copyOf(names, size), Arrays.copyOf(values, size))
+					: EMPTY;
+		}
+		
+	}
+
+}
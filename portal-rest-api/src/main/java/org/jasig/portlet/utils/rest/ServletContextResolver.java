@@ -0,0 +1,181 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the <code>ServletContext</code> (and from it the 
+ * <code>RequestDispatcher</code>) for another webapp in the same container.  
+ * Foreign contexts are cached by context name, so the container is only asked 
+ * for them occasionally.  A cached context is looked up again when it is older 
+ * than the revalidation interval, when it can't provide a dispatcher (e.g. 
+ * the webapp was reloaded or undeployed), or when {@link #invalidate(String)} 
+ * is called;  {@link SimpleCrossContextRestApiInvoker} does so whenever an 
+ * include fails, since a stale context may still provide a dispatcher.
+ * 
+ * <p>The local <code>ServletContext</code> may be provided with 
+ * {@link #setServletContext(ServletContext)};  otherwise it is taken from the 
+ * request, so no <code>HttpSession</code> is ever needed.
+ */
+public class ServletContextResolver {
+	
+	/**
+	 * Default number of milliseconds a cached foreign context is trusted 
+	 * before it is looked up again.
+	 */
+	public static final long DEFAULT_REVALIDATE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	
+	private final Logger log = LoggerFactory.getLogger(getClass());
+	private final ConcurrentMap<String, CachedContext> contexts = new ConcurrentHashMap<String, CachedContext>();
+	private final Set<String> unavailableContexts = ConcurrentHashMap.newKeySet();
+	private volatile ServletContext servletContext = null;
+	private long revalidateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_REVALIDATE_INTERVAL);
+	
+	/**
+	 * @param servletContext The <code>ServletContext</code> of this webapp
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		this.servletContext = servletContext;
+	}
+	
+	/**
+	 * Sets how long (in milliseconds) a cached foreign context is used before 
+	 * it is looked up again.  Default is {@link #DEFAULT_REVALIDATE_INTERVAL}.
+	 */
+	public void setRevalidateInterval(long revalidateInterval) {
+		this.revalidateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(revalidateInterval);
+	}
+	
+	/**
+	 * @param req The current request
+	 * @param contextName Context path of the other webapp, including the 
+	 * leading '/'
+	 * @return The <code>ServletContext</code> of the other webapp
+	 * @throws IllegalStateException If the container won't provide it (e.g. 
+	 * cross-context access is disabled)
+	 */
+	public ServletContext getContext(HttpServletRequest req, String contextName) {
+		final long now = System.nanoTime();
+		final CachedContext cached = contexts.get(contextName);
+		if (cached != null && now - cached.resolved < revalidateIntervalNanos) {
+			return cached.context;
+		}
+		final ServletContext rslt = getLocalContext(req).getContext(contextName);
+		if (rslt == null) {
+			contexts.remove(contextName);
+			final String msg = "The container did not provide the ServletContext for '" 
+					+ contextName + "';  does it exist, and is cross-context access enabled?";
+			throw new IllegalStateException(msg);
+		}
+		if (cached != null && cached.context != rslt) {
+			log.info("The ServletContext for '{}' has changed;  the webapp was likely reloaded", contextName);
+		}
+		contexts.put(contextName, new CachedContext(rslt, now));
+		return rslt;
+	}
+	
+	/**
+	 * @param req The current request
+	 * @param contextName Context path of the other webapp, including the 
+	 * leading '/'
+	 * @param uri URI (and querystring) within the other webapp
+	 * @return A <code>RequestDispatcher</code> for the URI
+	 * @throws IllegalStateException If no dispatcher is available
+	 */
+	public RequestDispatcher getRequestDispatcher(HttpServletRequest req, String contextName, String uri) {
+		RequestDispatcher rslt = lookupRequestDispatcher(req, contextName, uri);
+		if (rslt == null) {
+			// The cached context may be stale;  try again with a fresh one
+			invalidate(contextName);
+			rslt = lookupRequestDispatcher(req, contextName, uri);
+		}
+		if (rslt == null) {
+			final String msg = "No RequestDispatcher is available for URI '" + uri 
+					+ "' in context '" + contextName + "'";
+			throw new IllegalStateException(msg);
+		}
+		return rslt;
+	}
+	
+	/**
+	 * Discards the cached <code>ServletContext</code> (if any) for the 
+	 * specified context name.
+	 */
+	public void invalidate(String contextName) {
+		contexts.remove(contextName);
+	}
+	
+	/**
+	 * Discards all cached <code>ServletContext</code> objects.
+	 */
+	public void invalidateAll() {
+		contexts.clear();
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private RequestDispatcher lookupRequestDispatcher(HttpServletRequest req, String contextName, String uri) {
+		try {
+			return getContext(req, contextName).getRequestDispatcher(uri);
+		} catch (IllegalStateException e) {
+			// Thrown for a missing context (or one whose cross-context access 
+			// is disabled), and by some containers for one that has been stopped;  
+			// warn once, so misconfigurations don't go unnoticed
+			if (unavailableContexts.add(contextName)) {
+				log.warn("Failed to obtain a RequestDispatcher from the ServletContext for '{}'", contextName, e);
+			} else {
+				log.debug("Failed to obtain a RequestDispatcher from the ServletContext for '{}'", contextName, e);
+			}
+			return null;
+		}
+	}
+	
+	private ServletContext getLocalContext(HttpServletRequest req) {
+		final ServletContext rslt = servletContext;
+		return rslt != null ? rslt : req.getServletContext();
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	private static final class CachedContext {
+		private final ServletContext context;
+		private final long resolved;  // System.nanoTime()
+		
+		public CachedContext(ServletContext context, long resolved) {
+			this.context = context;
+			this.resolved = resolved;
+		}
+	}
+
+}
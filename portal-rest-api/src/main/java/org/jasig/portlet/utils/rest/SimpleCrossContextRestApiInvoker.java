@@ -18,12 +18,18 @@
  */
 package org.jasig.portlet.utils.rest;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Locale;
 import java.util.Map;
@@ -48,7 +54,54 @@ import org.slf4j.LoggerFactory;
  */
 public class SimpleCrossContextRestApiInvoker implements CrossContextRestApiInvoker {
 	
+	/**
+	 * Default maximum number of compiled URI templates to keep.
+	 */
+	public static final int DEFAULT_URI_TEMPLATE_CACHE_SIZE = UriTemplate.Cache.DEFAULT_MAX_SIZE;
+	
+	private static final String LOCATION_HEADER = "Location";
+	private static final DateTimeFormatter HTTP_DATE_FORMAT = DateTimeFormatter
+			.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+	
 	private final Logger log = LoggerFactory.getLogger(getClass());
+	private final UriTemplate.Cache uriTemplates = new UriTemplate.Cache();
+	private ServletContextResolver servletContextResolver = new ServletContextResolver();
+	private CrossContextRestApiMetrics metrics = null;
+
+	/**
+	 * Sets the maximum number of distinct URIs (before applying parameters) 
+	 * for which the parsed form is kept.  Default is 
+	 * {@link #DEFAULT_URI_TEMPLATE_CACHE_SIZE}.
+	 */
+	public void setUriTemplateCacheSize(int uriTemplateCacheSize) {
+		uriTemplates.setMaxSize(uriTemplateCacheSize);
+	}
+
+	/**
+	 * Replaces the {@link ServletContextResolver} used to find the other 
+	 * webapps, e.g. to share one between invokers.
+	 */
+	public void setServletContextResolver(ServletContextResolver servletContextResolver) {
+		this.servletContextResolver = servletContextResolver;
+	}
+
+	/**
+	 * Provides the <code>ServletContext</code> of this webapp, which 
+	 * otherwise is taken from the request.
+	 */
+	public void setServletContext(ServletContext servletContext) {
+		servletContextResolver.setServletContext(servletContext);
+	}
+
+	/**
+	 * Reports the latency, payload size and outcome of each call to the 
+	 * specified {@link CrossContextRestApiMetrics}, e.g. a 
+	 * {@link JmxCrossContextRestApiMetrics}.  Default is <code>null</code> 
+	 * (no measurements).
+	 */
+	public void setMetrics(CrossContextRestApiMetrics metrics) {
+		this.metrics = metrics;
+	}
 
 	@Override
 	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri) {
@@ -58,6 +111,41 @@ public class SimpleCrossContextRestApiInvoker implements CrossContextRestApiInvo
 
 	@Override
 	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, Map<String, String[]> params) {
+		return invokeInternal(req, res, uri, params, null, null);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, OutputStream out) {
+		if (out == null) {
+			final String msg = "Argument 'out' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		return invokeInternal(req, res, uri, params, out, null);
+	}
+
+	@Override
+	public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, Writer out) {
+		if (out == null) {
+			final String msg = "Argument 'out' cannot be null";
+			throw new IllegalArgumentException(msg);
+		}
+		return invokeInternal(req, res, uri, params, null, out);
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	/**
+	 * @param out Destination for the response body as bytes, or <code>null</code>
+	 * @param writer Destination for the response body as text, or 
+	 * <code>null</code>;  if both are <code>null</code> the body is buffered 
+	 * in the {@link RestResponse}
+	 */
+	private RestResponse invokeInternal(HttpServletRequest req, HttpServletResponse res, String uri, 
+						Map<String, String[]> params, OutputStream out, Writer writer) {
 		
 		// Assertions.
 		if (req == null) {
@@ -89,97 +177,77 @@ public class SimpleCrossContextRestApiInvoker implements CrossContextRestApiInvo
 			final UriTuple uriTuple = parseUriTuple(uri, params);
 			log.debug("Invoking REST API where contextName={} and URI={}", 
 						uriTuple.getContextName(), uriTuple.getUri());
-			return doInvoke(req, res, uriTuple);
+			return doInvoke(req, res, uri, uriTuple, out, writer);
 		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}
 	
 	}
 	
-	/*
-	 * Implementation
-	 */
-	
 	private UriTuple parseUriTuple(String uri, Map<String, String[]> params) throws UnsupportedEncodingException {
 
-		String requestUri = null;
-		String queryString = "";  // default
-		
-		final int queryStringBegin = uri.indexOf("?");
-		if (queryStringBegin == -1) {
-			// Simple case -- no querystring
-			requestUri = uri;
-		} else {
-			// Complex case -- uri+querystring
-			requestUri = uri.substring(0, queryStringBegin);
-			queryString = uri.substring(queryStringBegin);  // will already contain the '?' character
-		}
-		
-		// Inject requestUri params
-		for (Map.Entry<String, String[]> y : params.entrySet()) {
-			final String token = "{" + y.getKey() + "}";
-			final String[] values = y.getValue();
-			switch (values.length) {
-				case 0:
-					// Strange -- I guess we omit it?
-					while(requestUri.contains(token)) {
-						// Don't use String.replaceAll b/c token looks like an illegal regex
-						requestUri = requestUri.replace(token, "");
-					}
-					break;
-				case 1:
-					// This is healthy & normal
-					final String inject = URLEncoder.encode(values[0], "UTF-8");
-					while(requestUri.contains(token)) {
-						// Don't use String.replaceAll b/c token looks like an illegal regex
-						requestUri = requestUri.replace(token, inject);
-					}
-					break;
-				default:
-					// OOPS! --  can't have more than 1 value for a requestUri token
-					final String msg = "Can't support multiple values for non-querystring URI token:  " + token;
-					throw new IllegalArgumentException(msg);
-			}
-		}
-		
-		// Inject queryString params
-		for (Map.Entry<String, String[]> y : params.entrySet()) {
-			final String paramName = y.getKey();
-			final String token = "{" + paramName + "}";
-			if (queryString.contains(token)) {
-				final StringBuilder value = new StringBuilder();
-				for (String s : y.getValue()) {
-					final String inject = URLEncoder.encode(s, "UTF-8");
-					value.append(value.length() != 0 ? "&" : "");
-					value.append(paramName).append("=").append(inject);
-				}
-				queryString = queryString.replace(token, value);
-			}
-		}
+		final String expanded = uriTemplates.get(uri).expand(params);
 		
 		// Split into contextName+uri
-		final int contextSeparatorPos = requestUri.indexOf("/", 1);  // A valid input starts with a slash, followed by the contextName
-		final String contextName = requestUri.substring(0, contextSeparatorPos);  // Includes leading '/'
-		requestUri = requestUri.substring(contextSeparatorPos);  // Includes leading '/'
+		final int queryStringBegin = expanded.indexOf('?');  // Injected values are URL-encoded, so this is from the template
+		final int contextSeparatorPos = expanded.indexOf('/', 1);  // A valid input starts with a slash, followed by the contextName
+		if (contextSeparatorPos == -1 || (queryStringBegin != -1 && contextSeparatorPos > queryStringBegin)) {
+			final String msg = "The URI must contain a '/' after the contextName " +
+					"and before the querystring:  " + uri;
+			throw new IllegalArgumentException(msg);
+		}
+		final String contextName = expanded.substring(0, contextSeparatorPos);  // Includes leading '/'
+		final String requestUri = expanded.substring(contextSeparatorPos);  // Includes leading '/'
 
-		return new UriTuple(contextName, requestUri + queryString);
+		return new UriTuple(contextName, requestUri);
 		
 	}
 	
-	private RestResponse doInvoke(HttpServletRequest req, HttpServletResponse res, UriTuple tuple) {
-
+	/**
+	 * Performs the include, reporting to the {@link CrossContextRestApiMetrics} 
+	 * (if any).
+	 */
+	private RestResponse doInvoke(HttpServletRequest req, HttpServletResponse res, 
+						String uriTemplate, UriTuple tuple, OutputStream out, Writer writer) {
+		
+		final CrossContextRestApiMetrics m = metrics;
+		final String contextName = tuple.getContextName();
+		long start = 0L;
+		if (m != null) {
+			m.invocationStarted(contextName, uriTemplate);
+			start = System.nanoTime();
+		}
+		long payloadSize = 0L;
+		boolean error = true;
 		try {
-			ServletContext ctx = req.getSession().getServletContext()
-								.getContext(tuple.getContextName());
-			RequestDispatcher rd = ctx.getRequestDispatcher(tuple.getUri());
-			HttpServletResponseWrapperImpl responseWrapper = new HttpServletResponseWrapperImpl(res);
-			rd.include(req, responseWrapper);
-			RestResponse rslt = new RestResponse(
-					responseWrapper.getOutputAsString(), 
-					responseWrapper.getContentType());
-			return rslt;
+			RequestDispatcher rd = servletContextResolver.getRequestDispatcher(
+								req, contextName, tuple.getUri());
+			HttpServletResponseWrapperImpl responseWrapper = new HttpServletResponseWrapperImpl(res, out, writer);
+			try {
+				try {
+					rd.include(req, responseWrapper);
+				} catch (Exception e) {
+					// A reloaded webapp's old context may still hand out 
+					// dispatchers that fail;  look it up afresh next time
+					servletContextResolver.invalidate(contextName);
+					throw e;
+				}
+				responseWrapper.flushOutput();
+				final RestResponse rslt = responseWrapper.createRestResponse();
+				if (m != null) {
+					payloadSize = responseWrapper.getPayloadSize(rslt);
+					error = rslt.isError();
+				}
+				return rslt;
+			} finally {
+				responseWrapper.release();
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
+		} finally {
+			if (m != null) {
+				m.invocationCompleted(contextName, uriTemplate, System.nanoTime() - start, payloadSize, error);
+			}
 		}
 	}
 	
@@ -189,46 +257,261 @@ public class SimpleCrossContextRestApiInvoker implements CrossContextRestApiInvo
 	
 	private static final class HttpServletResponseWrapperImpl extends HttpServletResponseWrapper {
 		
+		private final OutputStream target;
+		private final Writer targetWriter;
 		private StringWriter writer = null;
+		private PrintWriter printWriter = null;
 		private ServletOutputStreamImpl outputStream = null;
+		private ServletOutputStreamImpl unclosable = null;
+		private WriterImpl unclosableWriter = null;
+		private ChunkedByteArrayOutputStream buffer = null;
+		private String contentType = null;
+		private String characterEncoding = null;
+		private int status = SC_OK;
+		private String statusMessage = null;
+		private final RestResponseHeaders.Builder headers = new RestResponseHeaders.Builder();
 		
-		public HttpServletResponseWrapperImpl(HttpServletResponse res) {
+		/**
+		 * @param res The response to wrap
+		 * @param target Where to send the output directly as bytes, or 
+		 * <code>null</code>
+		 * @param targetWriter Where to send the output directly as text, or 
+		 * <code>null</code>;  if both are <code>null</code> the output is 
+		 * buffered for {@link #createRestResponse()}
+		 */
+		public HttpServletResponseWrapperImpl(HttpServletResponse res, OutputStream target, Writer targetWriter) {
 			super(res);
+			this.target = target;
+			this.targetWriter = targetWriter;
 		}
 		
 		@Override
 		public ServletOutputStream getOutputStream() {
-			if (writer != null) {
+			if (printWriter != null) {
 				final String msg = "The method HttpServletResponse.getWriter has " +
 						"already been called;  call either getOutputStream or " +
 						"getWriter, but not both";
 				throw new IllegalStateException(msg);
 			}
-			outputStream = new ServletOutputStreamImpl();
+			if (outputStream == null) {
+				if (target == null) {
+					// Bytes bound for the target writer are decoded once the 
+					// include is complete, when the encoding is settled
+					buffer = new ChunkedByteArrayOutputStream();
+				}
+				outputStream = new ServletOutputStreamImpl(
+						target != null ? target : buffer);
+			}
 			return outputStream;
 		}
 		
 		@Override
-		public PrintWriter getWriter() {
+		public PrintWriter getWriter() throws UnsupportedEncodingException {
 			if (outputStream != null) {
 				final String msg = "The method HttpServletResponse.getOutputStream has " +
 						"already been called;  call either getOutputStream or " +
 						"getWriter, but not both";
 				throw new IllegalStateException(msg);
 			}
-			writer = new StringWriter();
-			return new PrintWriter(writer);
+			if (printWriter == null) {
+				if (target != null) {
+					// The REST API closing the writer must not close the target
+					unclosable = new ServletOutputStreamImpl(target);
+					printWriter = new PrintWriter(new OutputStreamWriter(unclosable, getEncoding()));
+				} else if (targetWriter != null) {
+					unclosableWriter = new WriterImpl(targetWriter);
+					printWriter = new PrintWriter(unclosableWriter);
+				} else {
+					writer = new StringWriter();
+					printWriter = new PrintWriter(writer);
+				}
+			}
+			return printWriter;
 		}
 		
-		public String getOutputAsString() {
-			if (writer == null && outputStream == null) {
-				final String msg = "Neither HttpServletResponse.getWriter nor " +
-						"HttpServletResponse.getOutputStream has not been called";
-				throw new IllegalStateException(msg);
+		/**
+		 * Pushes anything the REST API left in the writer or output stream 
+		 * through to its destination.  Call once the include is complete.
+		 */
+		public void flushOutput() throws IOException {
+			if (printWriter != null) {
+				printWriter.flush();
+			}
+			if (outputStream != null) {
+				outputStream.flush();
+				if (targetWriter != null) {
+					targetWriter.write(new String(buffer.toByteArray(), Charset.forName(getEncoding())));
+					targetWriter.flush();
+				}
+			}
+		}
+		
+		/**
+		 * @return How many bytes the REST API wrote;  text buffered from the 
+		 * writer is measured in its encoded form, whereas text sent to a 
+		 * target writer is counted in characters.  Call after 
+		 * {@link #flushOutput()}.
+		 */
+		public long getPayloadSize(RestResponse rslt) {
+			if (outputStream != null) {
+				return outputStream.getCount();
+			}
+			if (unclosable != null) {
+				return unclosable.getCount();
+			}
+			if (unclosableWriter != null) {
+				return unclosableWriter.getCount();
+			}
+			return rslt.getBodySize();
+		}
+		
+		/**
+		 * Builds the {@link RestResponse} from what the REST API produced.  The 
+		 * body is kept in its original form:  a <code>String</code> if it 
+		 * used the writer, bytes if it used the output stream, and nothing if 
+		 * the output was sent to a target stream or writer or there was no 
+		 * output (e.g. 304 Not Modified).
+		 */
+		public RestResponse createRestResponse() {
+			final boolean buffered = target == null && targetWriter == null;
+			final String writerOutput = buffered && writer != null ? writer.toString() : null;
+			final byte[] streamOutput = buffered && buffer != null ? buffer.toByteArray() : null;
+			return new RestResponse(writerOutput, streamOutput, getContentType(), 
+					getCharacterEncoding(), status, statusMessage, headers.build());
+		}
+		
+		@Override
+		public void setContentType(String type) {
+			// Record it for the RestResponse, but leave the underlying response alone
+			contentType = type;
+			final String charset = RestResponse.parseCharset(type);
+			if (charset != null) {
+				setCharacterEncoding(charset);
+			}
+		}
+		
+		@Override
+		public String getContentType() {
+			return contentType != null ? contentType : super.getContentType();
+		}
+
+		@Override
+		public void setCharacterEncoding(String charset) {
+			// Record it for the RestResponse, but leave the underlying response 
+			// alone;  per the Servlet spec, this has no effect once getWriter 
+			// has been called
+			if (printWriter == null) {
+				characterEncoding = charset;
+			}
+		}
+		
+		@Override
+		public String getCharacterEncoding() {
+			return characterEncoding != null ? characterEncoding : super.getCharacterEncoding();
+		}
+		
+		private String getEncoding() {
+			return getCharacterEncoding() != null
+					? getCharacterEncoding()
+					: RestResponse.DEFAULT_CHARACTER_ENCODING;
+		}
+
+		/*
+		 * Status and headers are recorded for the RestResponse;  the 
+		 * underlying response is left alone.
+		 */
+
+		@Override
+		public void setStatus(int sc) {
+			status = sc;
+		}
+
+		@Override
+		@SuppressWarnings("deprecation")
+		public void setStatus(int sc, String sm) {
+			status = sc;
+			statusMessage = sm;
+		}
+
+		@Override
+		public void sendError(int sc) {
+			status = sc;
+		}
+
+		@Override
+		public void sendError(int sc, String msg) {
+			status = sc;
+			statusMessage = msg;
+		}
+
+		@Override
+		public void sendRedirect(String location) {
+			status = SC_FOUND;
+			headers.set(LOCATION_HEADER, location);
+		}
+
+		@Override
+		public boolean containsHeader(String name) {
+			return headers.contains(name);
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			headers.set(name, value);
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			headers.add(name, value);
+		}
+
+		@Override
+		public void setDateHeader(String name, long date) {
+			headers.set(name, HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(date)));
+		}
+
+		@Override
+		public void addDateHeader(String name, long date) {
+			headers.add(name, HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(date)));
+		}
+
+		@Override
+		public void setIntHeader(String name, int value) {
+			headers.set(name, Integer.toString(value));
+		}
+
+		@Override
+		public void addIntHeader(String name, int value) {
+			headers.add(name, Integer.toString(value));
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return headers.get(name);
+		}
+
+		@Override
+		public Collection<String> getHeaders(String name) {
+			return headers.build().getHeaders(name);
+		}
+
+		@Override
+		public Collection<String> getHeaderNames() {
+			return headers.build().getHeaderNames();
+		}
+		
+		/**
+		 * Returns pooled buffers;  call when the output is no longer needed.
+		 */
+		public void release() {
+			if (buffer != null) {
+				buffer.release();
 			}
-			return writer != null
-					? writer.toString()
-					: outputStream.toString();
 		}
 		
 		/*
@@ -288,14 +571,6 @@ public class SimpleCrossContextRestApiInvoker implements CrossContextRestApiInvo
 			// no-op for now.
 		}
 
-		@Override
-		public void setCharacterEncoding(String arg0) {
-			/*
-			 * There's some chance something should be done with this method, 
-			 * but I'm not sure what atm.
-			 */
-		}
-
 		@Override
 		public void setContentLength(int arg0) {
 			// JavaDoc:  "Sets the length of the content body in the response 
@@ -308,14 +583,6 @@ public class SimpleCrossContextRestApiInvoker implements CrossContextRestApiInvo
 			// no-op for now.
 		}
 
-		@Override
-		public void setContentType(String arg0) {
-			/*
-			 * There's some chance something should be done with this method, 
-			 * but I'm not sure what atm.
-			 */
-		}
-
 		@Override
 		public void setLocale(Locale arg0) {
 			// JavaDoc:  "Sets the locale of the response, if the response has 
@@ -337,108 +604,89 @@ public class SimpleCrossContextRestApiInvoker implements CrossContextRestApiInvo
 			// no-op for now.
 		}
 
-		@Override
-		public void addDateHeader(String arg0, long arg1) {
-			// It seems we should potentially prevent this behavior on the 
-			// underlying response since it's effect outside the API invoker 
-			// could be unwanted... but how best to do that?  Leaving it as a 
-			// no-op for now.
+		
+	}
+	
+	private static final class ServletOutputStreamImpl extends ServletOutputStream {
+		
+		private final OutputStream enclosed;
+		private long count = 0L;
+		
+		public ServletOutputStreamImpl(OutputStream enclosed) {
+			this.enclosed = enclosed;
 		}
-
-		@Override
-		public void addHeader(String arg0, String arg1) {
-			// It seems we should potentially prevent this behavior on the 
-			// underlying response since it's effect outside the API invoker 
-			// could be unwanted... but how best to do that?  Leaving it as a 
-			// no-op for now.
+		
+		/**
+		 * @return The number of bytes written so far
+		 */
+		public long getCount() {
+			return count;
 		}
 
 		@Override
-		public void addIntHeader(String arg0, int arg1) {
-			// It seems we should potentially prevent this behavior on the 
-			// underlying response since it's effect outside the API invoker 
-			// could be unwanted... but how best to do that?  Leaving it as a 
-			// no-op for now.
+		public void write(int b) throws IOException {
+			enclosed.write(b);
+			count++;
 		}
 
 		@Override
-		public void sendError(int arg0) throws IOException {
-			/*
-			 * There's some chance something should be done with this method, 
-			 * but I'm not sure what atm.
-			 */
+		public void write(byte[] b) throws IOException {
+			enclosed.write(b, 0, b.length);
+			count += b.length;
 		}
 
 		@Override
-		public void sendError(int arg0, String arg1) throws IOException {
-			/*
-			 * There's some chance something should be done with this method, 
-			 * but I'm not sure what atm.
-			 */
+		public void write(byte[] b, int off, int len) throws IOException {
+			enclosed.write(b, off, len);
+			count += len;
 		}
 
 		@Override
-		public void sendRedirect(String arg0) throws IOException {
-			/*
-			 * There's some chance something should be done with this method, 
-			 * but I'm not sure what atm.
-			 */
+		public void flush() throws IOException {
+			enclosed.flush();
 		}
 
 		@Override
-		public void setDateHeader(String arg0, long arg1) {
-			// It seems we should potentially prevent this behavior on the 
-			// underlying response since it's effect outside the API invoker 
-			// could be unwanted... but how best to do that?  Leaving it as a 
-			// no-op for now.
+		public void close() throws IOException {
+			// The enclosed stream belongs to the caller (or to us);  the REST 
+			// API closing its output must not close it.
+			flush();
 		}
-
-		@Override
-		public void setHeader(String arg0, String arg1) {
-			// It seems we should potentially prevent this behavior on the 
-			// underlying response since it's effect outside the API invoker 
-			// could be unwanted... but how best to do that?  Leaving it as a 
-			// no-op for now.
+		
+	}
+	
+	private static final class WriterImpl extends Writer {
+		
+		private final Writer enclosed;
+		private long count = 0L;
+		
+		public WriterImpl(Writer enclosed) {
+			this.enclosed = enclosed;
 		}
-
-		@Override
-		public void setIntHeader(String arg0, int arg1) {
-			// It seems we should potentially prevent this behavior on the 
-			// underlying response since it's effect outside the API invoker 
-			// could be unwanted... but how best to do that?  Leaving it as a 
-			// no-op for now.
+		
+		/**
+		 * @return The number of characters written so far
+		 */
+		public long getCount() {
+			return count;
 		}
 
 		@Override
-		public void setStatus(int arg0) {
-			/*
-			 * There's some chance something should be done with this method, 
-			 * but I'm not sure what atm.
-			 */
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			enclosed.write(cbuf, off, len);
+			count += len;
 		}
 
 		@Override
-		public void setStatus(int arg0, String arg1) {
-			/*
-			 * There's some chance something should be done with this method, 
-			 * but I'm not sure what atm.
-			 */
+		public void flush() throws IOException {
+			enclosed.flush();
 		}
-		
-	}
-	
-	private static final class ServletOutputStreamImpl extends ServletOutputStream {
-		
-		private final ByteArrayOutputStream enclosed = new ByteArrayOutputStream();
 
 		@Override
-		public void write(int b) throws IOException {
-			enclosed.write(b);
-		}
-		
-		@Override
-		public String toString() {
-			return enclosed.toString();
+		public void close() throws IOException {
+			// The enclosed writer belongs to the caller;  the REST API closing 
+			// its output must not close it.
+			flush();
 		}
 		
 	}
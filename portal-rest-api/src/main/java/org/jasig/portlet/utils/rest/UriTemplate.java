@@ -0,0 +1,217 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A URI of the form <code>/contextName/resource/{param1}?{param2}</code>, 
+ * parsed once into literal text and parameter tokens so that it can be 
+ * expanded repeatedly in a single pass.  Tokens in the path are replaced with 
+ * the (single) URL-encoded value of the parameter;  tokens in the querystring 
+ * are replaced with <code>name=value</code> pairs for each of its values.  
+ * Tokens with no corresponding parameter are left as-is.
+ * 
+ * <p>Instances are immutable and thread safe.
+ */
+final class UriTemplate {
+	
+	private static final String ENCODING = "UTF-8";
+	
+	private final String template;
+	private final String[] literals;      // Text preceding each token, plus the trailing text
+	private final String[] tokenNames;    // Parameter name of each token
+	private final boolean[] inQueryString;
+	private final int expansionEstimate;
+	
+	private UriTemplate(String template, List<String> literals, List<String> tokenNames, 
+						List<Boolean> inQueryString) {
+		this.template = template;
+		this.literals = literals.toArray(new String[literals.size()]);
+		this.tokenNames = tokenNames.toArray(new String[tokenNames.size()]);
+		this.inQueryString = new boolean[inQueryString.size()];
+		for (int i = 0; i < this.inQueryString.length; i++) {
+			this.inQueryString[i] = inQueryString.get(i);
+		}
+		this.expansionEstimate = template.length() + 16 * this.tokenNames.length;
+	}
+	
+	public static UriTemplate compile(String template) {
+		
+		final List<String> literals = new ArrayList<String>();
+		final List<String> tokenNames = new ArrayList<String>();
+		final List<Boolean> inQueryString = new ArrayList<Boolean>();
+		
+		final int queryStringBegin = template.indexOf('?');
+		final StringBuilder literal = new StringBuilder();
+		int pos = 0;
+		while (pos < template.length()) {
+			final int open = template.indexOf('{', pos);
+			final int close = open != -1 ? template.indexOf('}', open + 1) : -1;
+			if (close == -1) {
+				break;
+			}
+			// Use the innermost '{' so that "{{a}" holds the token "{a}"
+			final int tokenBegin = template.lastIndexOf('{', close);
+			if (queryStringBegin != -1 && tokenBegin < queryStringBegin && close > queryStringBegin) {
+				// Straddles the '?';  not a token in either part
+				literal.append(template, pos, queryStringBegin + 1);
+				pos = queryStringBegin + 1;
+				continue;
+			}
+			literal.append(template, pos, tokenBegin);
+			literals.add(literal.toString());
+			literal.setLength(0);
+			tokenNames.add(template.substring(tokenBegin + 1, close));
+			inQueryString.add(queryStringBegin != -1 && tokenBegin > queryStringBegin);
+			pos = close + 1;
+		}
+		literal.append(template, pos, template.length());
+		literals.add(literal.toString());
+		
+		return new UriTemplate(template, literals, tokenNames, inQueryString);
+		
+	}
+	
+	public String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @param params Map of parameters to inject into the URI
+	 * @return The URI with parameters injected
+	 * @throws IllegalArgumentException If a parameter used in the path (not 
+	 * the querystring) has more than one value
+	 */
+	public String expand(Map<String, String[]> params) throws UnsupportedEncodingException {
+		
+		if (tokenNames.length == 0) {
+			return template;
+		}
+		
+		final StringBuilder rslt = new StringBuilder(expansionEstimate);
+		for (int i = 0; i < tokenNames.length; i++) {
+			rslt.append(literals[i]);
+			final String name = tokenNames[i];
+			final String[] values = params.get(name);
+			if (values == null && !params.containsKey(name)) {
+				// Not a parameter we know about;  leave it alone
+				rslt.append('{').append(name).append('}');
+			} else if (!inQueryString[i]) {
+				appendPathValue(rslt, name, values);
+			} else {
+				appendQueryStringValues(rslt, name, values);
+			}
+		}
+		rslt.append(literals[literals.length - 1]);
+		return rslt.toString();
+		
+	}
+	
+	@Override
+	public String toString() {
+		return template;
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private static void appendPathValue(StringBuilder rslt, String name, String[] values) 
+						throws UnsupportedEncodingException {
+		final int length = values != null ? values.length : 0;
+		switch (length) {
+			case 0:
+				// Strange -- I guess we omit it?
+				break;
+			case 1:
+				// This is healthy & normal
+				rslt.append(URLEncoder.encode(values[0], ENCODING));
+				break;
+			default:
+				// OOPS! --  can't have more than 1 value for a requestUri token
+				final String msg = "Can't support multiple values for non-querystring URI token:  {" + name + "}";
+				throw new IllegalArgumentException(msg);
+		}
+	}
+	
+	private static void appendQueryStringValues(StringBuilder rslt, String name, String[] values) 
+						throws UnsupportedEncodingException {
+		if (values == null) {
+			return;
+		}
+		for (int i = 0; i < values.length; i++) {
+			if (i != 0) {
+				rslt.append('&');
+			}
+			rslt.append(name).append('=').append(URLEncoder.encode(values[i], ENCODING));
+		}
+	}
+
+	/*
+	 * Nested Types
+	 */
+	
+	/**
+	 * Bounded, thread safe cache of compiled templates.
+	 */
+	static final class Cache {
+		
+		public static final int DEFAULT_MAX_SIZE = 1000;
+		
+		private final Logger log = LoggerFactory.getLogger(getClass());
+		private final ConcurrentMap<String, UriTemplate> templates = new ConcurrentHashMap<String, UriTemplate>();
+		private volatile int maxSize = DEFAULT_MAX_SIZE;
+		
+		public void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+		}
+		
+		/**
+		 * @return The compiled form of the specified template, compiling it if 
+		 * necessary
+		 */
+		public UriTemplate get(String template) {
+			UriTemplate rslt = templates.get(template);
+			if (rslt == null) {
+				rslt = UriTemplate.compile(template);
+				if (templates.size() >= maxSize) {
+					// Templates normally come from code or config, so there are 
+					// few of them;  if we get here something is building them on 
+					// the fly and they aren't worth keeping anyway
+					log.debug("Clearing the URI template cache, which reached its limit of {}", maxSize);
+					templates.clear();
+				}
+				templates.put(template, rslt);
+			}
+			return rslt;
+		}
+		
+	}
+
+}
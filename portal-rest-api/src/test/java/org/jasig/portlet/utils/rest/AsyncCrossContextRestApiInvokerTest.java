@@ -0,0 +1,115 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class AsyncCrossContextRestApiInvokerTest {
+	
+	private AsyncCrossContextRestApiInvoker invoker;
+	
+	@After
+	public void teardown() {
+		invoker.destroy();
+	}
+	
+	@Test
+	public void testTimeoutStopsCall() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean running = new AtomicBoolean();
+		invoker = new AsyncCrossContextRestApiInvoker(new CrossContextRestApiInvoker() {
+			@Override
+			public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri) {
+				return invoke(req, res, uri, Collections.<String, String[]>emptyMap());
+			}
+
+			@Override
+			public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+								Map<String, String[]> params) {
+				running.set(true);
+				started.countDown();
+				try {
+					Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+					return null;
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				} finally {
+					running.set(false);
+				}
+			}
+		});
+		
+		final AtomicReference<AsyncListener> listener = new AtomicReference<AsyncListener>();
+		final AsyncContext asyncContext = mock(AsyncContext.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				listener.set(invocation.getArgument(0));
+				return null;
+			}
+		}).when(asyncContext).addListener(any(AsyncListener.class));
+		final HttpServletRequest req = mock(HttpServletRequest.class);
+		final HttpServletResponse res = mock(HttpServletResponse.class);
+		when(req.isAsyncSupported()).thenReturn(true);
+		when(req.startAsync(req, res)).thenReturn(asyncContext);
+		
+		final CompletableFuture<RestResponse> rslt = invoker.invokeAsync(req, res, "/ctx/slow", 
+				Collections.<String, String[]>emptyMap());
+		assertTrue(started.await(5L, TimeUnit.SECONDS));
+		
+		final long start = System.nanoTime();
+		listener.get().onTimeout(new AsyncEvent(asyncContext));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals("The call must have stopped before the request is recycled", false, running.get());
+		try {
+			rslt.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingCrossContextRestApiInvokerTest {
+	
+	private final HttpServletResponse res = mock(HttpServletResponse.class);
+	private final List<String> ifNoneMatch = new ArrayList<String>();
+	private String cacheControl;
+	private String eTag;
+	private int status;
+	private CachingCrossContextRestApiInvoker invoker;
+	
+	@Before
+	public void setup() {
+		cacheControl = null;
+		eTag = null;
+		status = HttpServletResponse.SC_OK;
+		invoker = new CachingCrossContextRestApiInvoker(new CrossContextRestApiInvoker() {
+			@Override
+			public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri) {
+				return invoke(req, res, uri, Collections.<String, String[]>emptyMap());
+			}
+
+			@Override
+			public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+								Map<String, String[]> params) {
+				ifNoneMatch.add(req.getHeader("If-None-Match"));
+				final RestResponseHeaders.Builder headers = new RestResponseHeaders.Builder();
+				if (cacheControl != null) {
+					headers.set("Cache-Control", cacheControl);
+				}
+				if (eTag != null) {
+					headers.set("ETag", eTag);
+				}
+				return new RestResponse(null, new byte[] { 1, 2, 3 }, "application/octet-stream", null, 
+						status, null, headers.build());
+			}
+		});
+	}
+	
+	@Test
+	public void testKeyedByUriAndParams() {
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("id", new String[] { "1" });
+		final RestResponse first = invoker.invoke(request(null), res, "/ctx/items/{id}", params);
+		
+		// Equal parameters in a different Map, and the caller reusing its array
+		final Map<String, String[]> same = new HashMap<String, String[]>();
+		same.put("id", new String[] { "1" });
+		params.get("id")[0] = "2";
+		assertSame(first, invoker.invoke(request(null), res, "/ctx/items/{id}", same));
+		
+		invoker.invoke(request(null), res, "/ctx/items/{id}", params);
+		invoker.invoke(request(null), res, "/ctx/other/{id}", same);
+		assertEquals(3, ifNoneMatch.size());
+	}
+	
+	@Test
+	public void testPrivateCachedPerUserOnly() {
+		cacheControl = "private, max-age=60";
+		
+		invoker.invoke(request(null), res, "/ctx/me");
+		invoker.invoke(request(null), res, "/ctx/me");
+		assertEquals("Anonymous requests must not share private results", 2, ifNoneMatch.size());
+		
+		final RestResponse alice = invoker.invoke(request("alice"), res, "/ctx/me");
+		assertSame(alice, invoker.invoke(request("alice"), res, "/ctx/me"));
+		invoker.invoke(request("bob"), res, "/ctx/me");
+		assertEquals(4, ifNoneMatch.size());
+	}
+	
+	@Test
+	public void testNotStored() {
+		cacheControl = "no-store";
+		invoker.invoke(request(null), res, "/ctx/data");
+		invoker.invoke(request(null), res, "/ctx/data");
+		
+		cacheControl = null;
+		status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+		invoker.invoke(request(null), res, "/ctx/error");
+		invoker.invoke(request(null), res, "/ctx/error");
+		assertEquals(4, ifNoneMatch.size());
+	}
+	
+	@Test
+	public void testRevalidated() {
+		cacheControl = "no-cache";
+		eTag = "\"v1\"";
+		final RestResponse first = invoker.invoke(request(null), res, "/ctx/data");
+		
+		status = HttpServletResponse.SC_NOT_MODIFIED;
+		assertSame(first, invoker.invoke(request(null), res, "/ctx/data"));
+		assertNull(ifNoneMatch.get(0));
+		assertEquals("\"v1\"", ifNoneMatch.get(1));
+	}
+	
+	@Test
+	public void testCachedBodyNotShared() {
+		cacheControl = "max-age=60";
+		invoker.invoke(request(null), res, "/ctx/data").getStreamOutput()[0] = 9;
+		assertArrayEquals(new byte[] { 1, 2, 3 }, invoker.invoke(request(null), res, "/ctx/data").getStreamOutput());
+	}
+	
+	private HttpServletRequest request(String remoteUser) {
+		final HttpServletRequest rslt = mock(HttpServletRequest.class);
+		when(rslt.getRemoteUser()).thenReturn(remoteUser);
+		return rslt;
+	}
+
+}
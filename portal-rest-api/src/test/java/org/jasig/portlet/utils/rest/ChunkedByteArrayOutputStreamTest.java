@@ -0,0 +1,163 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ChunkedByteArrayOutputStreamTest {
+	
+	private static final int MIN_CHUNK = 1024;
+	
+	@Test
+	public void testWriteAcrossChunks() {
+		// Ends one short of the first chunk, then spans it and the next
+		final byte[] expected = bytes(MIN_CHUNK + 2 * MIN_CHUNK + 10, 1);
+		final ChunkedByteArrayOutputStream out = new ChunkedByteArrayOutputStream();
+		try {
+			out.write(expected, 0, MIN_CHUNK - 1);
+			out.write(expected, MIN_CHUNK - 1, expected.length - (MIN_CHUNK - 1));
+			assertEquals(expected.length, out.size());
+			assertArrayEquals(expected, out.toByteArray());
+		} finally {
+			out.release();
+		}
+	}
+	
+	@Test
+	public void testSingleBytesFillChunks() {
+		final byte[] expected = bytes(3 * MIN_CHUNK + 1, 2);
+		final ChunkedByteArrayOutputStream out = new ChunkedByteArrayOutputStream();
+		try {
+			for (byte b : expected) {
+				out.write(b);
+			}
+			assertArrayEquals(expected, out.toByteArray());
+		} finally {
+			out.release();
+		}
+	}
+	
+	@Test
+	public void testManyMixedWrites() {
+		// Past the largest size class (64 KiB), so several chunks share it
+		final byte[] expected = bytes(300000, 3);
+		final Random random = new Random(4);
+		final ChunkedByteArrayOutputStream out = new ChunkedByteArrayOutputStream();
+		final ByteArrayOutputStream reference = new ByteArrayOutputStream();
+		try {
+			int pos = 0;
+			while (pos < expected.length) {
+				if (random.nextInt(4) == 0) {
+					out.write(expected[pos]);
+					reference.write(expected[pos]);
+					pos++;
+				} else {
+					final int len = Math.min(random.nextInt(5000), expected.length - pos);
+					out.write(expected, pos, len);
+					reference.write(expected, pos, len);
+					pos += len;
+				}
+			}
+			assertEquals(expected.length, out.size());
+			assertArrayEquals(reference.toByteArray(), out.toByteArray());
+			assertArrayEquals(expected, out.toByteArray());
+		} finally {
+			out.release();
+		}
+	}
+	
+	@Test
+	public void testEmpty() {
+		final ChunkedByteArrayOutputStream out = new ChunkedByteArrayOutputStream();
+		assertEquals(0, out.size());
+		assertEquals(0, out.toByteArray().length);
+		out.release();
+	}
+	
+	@Test
+	public void testReleasedChunksAreReused() {
+		final ChunkedByteArrayOutputStream first = new ChunkedByteArrayOutputStream();
+		first.write(bytes(MIN_CHUNK + 1, 5), 0, MIN_CHUNK + 1);
+		final int pooled = ChunkedByteArrayOutputStream.getPooledChunkCount(MIN_CHUNK);
+		
+		first.release();
+		first.release();  // Harmless
+		assertEquals(pooled + 1, ChunkedByteArrayOutputStream.getPooledChunkCount(MIN_CHUNK));
+		
+		// The reused chunk still holds the old content;  only the new is returned
+		final ChunkedByteArrayOutputStream second = new ChunkedByteArrayOutputStream();
+		try {
+			second.write(new byte[] { 'a', 'b' }, 0, 2);
+			assertEquals(pooled, ChunkedByteArrayOutputStream.getPooledChunkCount(MIN_CHUNK));
+			assertArrayEquals(new byte[] { 'a', 'b' }, second.toByteArray());
+		} finally {
+			second.release();
+		}
+	}
+	
+	@Test
+	public void testPoolIsBounded() {
+		final ChunkedByteArrayOutputStream[] streams = new ChunkedByteArrayOutputStream[40];
+		for (int i = 0; i < streams.length; i++) {
+			streams[i] = new ChunkedByteArrayOutputStream();
+			streams[i].write(i);
+		}
+		for (ChunkedByteArrayOutputStream out : streams) {
+			out.release();
+		}
+		assertEquals(16, ChunkedByteArrayOutputStream.getPooledChunkCount(MIN_CHUNK));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testWriteAfterRelease() {
+		final ChunkedByteArrayOutputStream out = new ChunkedByteArrayOutputStream();
+		out.release();
+		out.write(1);
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testWriteOutOfBounds() {
+		final ChunkedByteArrayOutputStream out = new ChunkedByteArrayOutputStream();
+		try {
+			out.write(new byte[4], 2, 3);
+		} finally {
+			out.release();
+		}
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private static byte[] bytes(int length, long seed) {
+		final byte[] rslt = new byte[length];
+		new Random(seed).nextBytes(rslt);
+		// Never all zero, so a chunk left unfilled would show
+		Arrays.fill(rslt, 0, Math.min(length, 1), (byte) 1);
+		return rslt;
+	}
+
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class DeduplicatingCrossContextRestApiInvokerTest {
+	
+	private final HttpServletResponse res = mock(HttpServletResponse.class);
+	private final AtomicInteger calls = new AtomicInteger();
+	private volatile CountDownLatch release = null;
+	private volatile RuntimeException failure = null;
+	private DeduplicatingCrossContextRestApiInvoker invoker;
+	
+	@Before
+	public void setup() {
+		invoker = new DeduplicatingCrossContextRestApiInvoker(new CrossContextRestApiInvoker() {
+			@Override
+			public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri) {
+				return invoke(req, res, uri, Collections.<String, String[]>emptyMap());
+			}
+
+			@Override
+			public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+								Map<String, String[]> params) {
+				calls.incrementAndGet();
+				try {
+					if (release != null) {
+						release.await(5, TimeUnit.SECONDS);
+					}
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				if (failure != null) {
+					throw failure;
+				}
+				return new RestResponse(uri, "text/plain");
+			}
+		});
+	}
+	
+	@Test
+	public void testIdenticalCallsShareOneResponse() {
+		final HttpServletRequest req = request();
+		final RestResponse first = invoker.invoke(req, res, "/ctx/items/{id}", params("id", "1"));
+		assertSame(first, invoker.invoke(req, res, "/ctx/items/{id}", params("id", "1")));
+		// Identified by the expanded URI
+		assertSame(first, invoker.invoke(req, res, "/ctx/items/1"));
+		assertEquals(1, calls.get());
+		
+		invoker.invoke(req, res, "/ctx/items/{id}", params("id", "2"));
+		assertEquals(2, calls.get());
+	}
+	
+	@Test
+	public void testScopedToRequest() {
+		final RestResponse first = invoker.invoke(request(), res, "/ctx/items");
+		assertNotSame(first, invoker.invoke(request(), res, "/ctx/items"));
+		assertEquals(2, calls.get());
+	}
+	
+	@Test
+	public void testFailureIsNotRemembered() {
+		final HttpServletRequest req = request();
+		failure = new IllegalStateException("Unavailable");
+		try {
+			invoker.invoke(req, res, "/ctx/items");
+			fail("The call failed");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+		failure = null;
+		invoker.invoke(req, res, "/ctx/items");
+		assertEquals(2, calls.get());
+	}
+	
+	@Test
+	public void testConcurrentDuplicatesWait() throws Exception {
+		final ParallelCrossContextRestApiInvoker parallel = new ParallelCrossContextRestApiInvoker(invoker);
+		try {
+			release = new CountDownLatch(1);
+			final List<RestApiInvocation> invocations = Arrays.asList(
+					new RestApiInvocation("/ctx/items"), new RestApiInvocation("/ctx/items"));
+			final Thread releaser = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(200L);
+					} catch (InterruptedException e) {
+						// Release now
+					}
+					release.countDown();
+				}
+			};
+			releaser.start();
+			final List<Future<RestResponse>> rslt = parallel.invokeAll(request(), res, 
+					invocations, 5, TimeUnit.SECONDS);
+			assertSame(rslt.get(0).get(), rslt.get(1).get());
+			assertEquals(1, calls.get());
+		} finally {
+			parallel.destroy();
+		}
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	/**
+	 * @return A request that keeps its attributes
+	 */
+	private static HttpServletRequest request() {
+		final HttpServletRequest rslt = mock(HttpServletRequest.class);
+		final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+		when(rslt.getAttribute(anyString())).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) {
+				return attributes.get((String) invocation.getArgument(0));
+			}
+		});
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				attributes.put((String) invocation.getArgument(0), invocation.getArgument(1));
+				return null;
+			}
+		}).when(rslt).setAttribute(anyString(), any());
+		return rslt;
+	}
+	
+	private static Map<String, String[]> params(String name, String... values) {
+		final Map<String, String[]> rslt = new HashMap<String, String[]>();
+		rslt.put(name, values);
+		return rslt;
+	}
+
+}
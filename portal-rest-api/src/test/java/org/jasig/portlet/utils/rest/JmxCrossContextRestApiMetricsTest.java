@@ -0,0 +1,179 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JmxCrossContextRestApiMetricsTest {
+	
+	private static final String BASE_OBJECT_NAME = JmxCrossContextRestApiMetrics.DEFAULT_BASE_OBJECT_NAME;
+	
+	private final MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+	private final JmxCrossContextRestApiMetrics metrics = new JmxCrossContextRestApiMetrics();
+	
+	@Before
+	public void setup() {
+		metrics.setmBeanServer(mBeanServer);
+	}
+	
+	@After
+	public void teardown() {
+		metrics.destroy();
+	}
+	
+	@Test
+	public void testCounters() throws Exception {
+		metrics.invocationStarted("/ctx", "/ctx/api/{id}");
+		metrics.invocationStarted("/ctx", "/ctx/api/{id}");
+		
+		final InvocationStatisticsMXBean template = templateStatistics("/ctx", "/ctx/api/{id}");
+		assertEquals(2L, template.getInFlightCount());
+		assertEquals(0L, template.getInvocationCount());
+		
+		metrics.invocationCompleted("/ctx", "/ctx/api/{id}", TimeUnit.MILLISECONDS.toNanos(10L), 100L, false);
+		metrics.invocationCompleted("/ctx", "/ctx/api/{id}", TimeUnit.MILLISECONDS.toNanos(30L), 300L, true);
+		
+		assertEquals("/ctx", template.getContextName());
+		assertEquals("/ctx/api/{id}", template.getUriTemplate());
+		assertEquals(0L, template.getInFlightCount());
+		assertEquals(2L, template.getInvocationCount());
+		assertEquals(1L, template.getErrorCount());
+		assertEquals(400L, template.getTotalPayloadSize());
+		assertEquals(300L, template.getMaxPayloadSize());
+		assertEquals(20.0, template.getMeanLatencyMillis(), 0.0);
+		assertEquals(30.0, template.getMaxLatencyMillis(), 0.0);
+		// 30 ms is below 32768 us
+		assertEquals(32.768, template.get99thPercentileLatencyMillis(), 0.0);
+		
+		// The context totals all of its templates
+		metrics.invocationStarted("/ctx", "/ctx/api/list");
+		metrics.invocationCompleted("/ctx", "/ctx/api/list", TimeUnit.MILLISECONDS.toNanos(5L), 50L, false);
+		final InvocationStatisticsMXBean context = contextStatistics("/ctx");
+		assertNull(context.getUriTemplate());
+		assertEquals(3L, context.getInvocationCount());
+		assertEquals(1L, context.getErrorCount());
+		assertEquals(450L, context.getTotalPayloadSize());
+	}
+	
+	@Test
+	public void testReset() throws Exception {
+		metrics.invocationStarted("/ctx", "/ctx/api");
+		metrics.invocationCompleted("/ctx", "/ctx/api", 1000L, 10L, true);
+		metrics.invocationStarted("/ctx", "/ctx/api");
+		
+		final InvocationStatisticsMXBean template = templateStatistics("/ctx", "/ctx/api");
+		template.reset();
+		assertEquals(0L, template.getInvocationCount());
+		assertEquals(0L, template.getErrorCount());
+		assertEquals(0L, template.getTotalPayloadSize());
+		assertEquals(0.0, template.getMeanLatencyMillis(), 0.0);
+		assertEquals(0.0, template.get50thPercentileLatencyMillis(), 0.0);
+		// Still running
+		assertEquals(1L, template.getInFlightCount());
+	}
+	
+	@Test
+	public void testTemplateLimit() throws Exception {
+		assertEquals(500, JmxCrossContextRestApiMetrics.DEFAULT_MAX_TEMPLATES);
+		for (int i = 0; i <= JmxCrossContextRestApiMetrics.DEFAULT_MAX_TEMPLATES; i++) {
+			metrics.invocationStarted("/ctx", "/ctx/api/" + i);
+			metrics.invocationCompleted("/ctx", "/ctx/api/" + i, 1000L, 1L, false);
+		}
+		
+		assertEquals(JmxCrossContextRestApiMetrics.DEFAULT_MAX_TEMPLATES, 
+				mBeanServer.queryNames(new ObjectName(BASE_OBJECT_NAME + ",context=\"/ctx\",template=*"), null).size());
+		assertTrue(mBeanServer.queryNames(templateName("/ctx", "/ctx/api/500"), null).isEmpty());
+		// Calls beyond the limit still count for the context
+		assertEquals(501L, contextStatistics("/ctx").getInvocationCount());
+	}
+	
+	@Test
+	public void testTemplatesBeyondLimitAreCountedForContextOnly() throws Exception {
+		metrics.setMaxTemplates(1);
+		metrics.invocationStarted("/ctx", "/ctx/a");
+		metrics.invocationStarted("/ctx", "/ctx/b");
+		assertEquals(2L, contextStatistics("/ctx").getInFlightCount());
+		
+		metrics.invocationCompleted("/ctx", "/ctx/b", 1000L, 1L, true);
+		metrics.invocationCompleted("/ctx", "/ctx/a", 1000L, 1L, false);
+		
+		assertEquals(1L, templateStatistics("/ctx", "/ctx/a").getInvocationCount());
+		assertTrue(mBeanServer.queryNames(templateName("/ctx", "/ctx/b"), null).isEmpty());
+		final InvocationStatisticsMXBean context = contextStatistics("/ctx");
+		assertEquals(0L, context.getInFlightCount());
+		assertEquals(2L, context.getInvocationCount());
+		assertEquals(1L, context.getErrorCount());
+	}
+	
+	@Test
+	public void testDestroyUnregisters() throws Exception {
+		metrics.invocationStarted("/ctx", "/ctx/api");
+		metrics.invocationStarted("/other", "/other/api");
+		assertEquals(4, mBeanServer.queryNames(new ObjectName(BASE_OBJECT_NAME + ",*"), null).size());
+		
+		metrics.destroy();
+		assertTrue(mBeanServer.queryNames(new ObjectName(BASE_OBJECT_NAME + ",*"), null).isEmpty());
+		
+		// Registered afresh when used again
+		metrics.invocationStarted("/ctx", "/ctx/api");
+		assertEquals(1L, contextStatistics("/ctx").getInFlightCount());
+	}
+	
+	@Test
+	public void testBaseObjectName() throws Exception {
+		metrics.setBaseObjectName("test:type=Rest");
+		metrics.invocationStarted("/ctx", "/ctx/api");
+		assertTrue(mBeanServer.isRegistered(new ObjectName("test:type=Rest,context=\"/ctx\"")));
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private InvocationStatisticsMXBean contextStatistics(String contextName) throws Exception {
+		final ObjectName name = new ObjectName(BASE_OBJECT_NAME + ",context=" + ObjectName.quote(contextName));
+		assertTrue(mBeanServer.isRegistered(name));
+		return JMX.newMXBeanProxy(mBeanServer, name, InvocationStatisticsMXBean.class);
+	}
+	
+	private InvocationStatisticsMXBean templateStatistics(String contextName, String uriTemplate) throws Exception {
+		final ObjectName name = templateName(contextName, uriTemplate);
+		assertTrue(mBeanServer.isRegistered(name));
+		return JMX.newMXBeanProxy(mBeanServer, name, InvocationStatisticsMXBean.class);
+	}
+	
+	private static ObjectName templateName(String contextName, String uriTemplate) throws Exception {
+		return new ObjectName(BASE_OBJECT_NAME + ",context=" + ObjectName.quote(contextName) 
+				+ ",template=" + ObjectName.quote(uriTemplate));
+	}
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	
+	private final LatencyHistogram histogram = new LatencyHistogram();
+	
+	@Test
+	public void testEmpty() {
+		assertEquals(0.0, histogram.getPercentileMillis(50.0), 0.0);
+		assertEquals(0.0, histogram.getPercentileMillis(100.0), 0.0);
+	}
+	
+	@Test
+	public void testBucketBounds() {
+		// Under a microsecond falls in the first bucket, bounded by 1 us
+		histogram.record(500L);
+		assertEquals(0.001, histogram.getPercentileMillis(100.0), 0.0);
+		histogram.reset();
+		
+		// Exactly 2^i microseconds is the first value of the next bucket
+		histogram.record(TimeUnit.MICROSECONDS.toNanos(1024L));
+		assertEquals(2.048, histogram.getPercentileMillis(100.0), 0.0);
+		histogram.reset();
+		
+		histogram.record(TimeUnit.MICROSECONDS.toNanos(1023L));
+		assertEquals(1.024, histogram.getPercentileMillis(100.0), 0.0);
+	}
+	
+	@Test
+	public void testPercentiles() {
+		for (int i = 0; i < 90; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(1L));
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(100L));
+		}
+		// 1 ms is below 1024 us, 100 ms below 131072 us
+		assertEquals(1.024, histogram.getPercentileMillis(50.0), 0.0);
+		assertEquals(1.024, histogram.getPercentileMillis(90.0), 0.0);
+		assertEquals(131.072, histogram.getPercentileMillis(90.1), 0.0);
+		assertEquals(131.072, histogram.getPercentileMillis(95.0), 0.0);
+		assertEquals(131.072, histogram.getPercentileMillis(100.0), 0.0);
+		// The lowest non-empty bucket
+		assertEquals(1.024, histogram.getPercentileMillis(0.0), 0.0);
+	}
+	
+	@Test
+	public void testLongDurationsShareTheLastBucket() {
+		histogram.record(TimeUnit.DAYS.toNanos(30L));
+		assertEquals((1L << 39) / 1000.0, histogram.getPercentileMillis(100.0), 0.0);
+	}
+	
+	@Test
+	public void testReset() {
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(5L));
+		histogram.reset();
+		assertEquals(0.0, histogram.getPercentileMillis(99.0), 0.0);
+	}
+
+}
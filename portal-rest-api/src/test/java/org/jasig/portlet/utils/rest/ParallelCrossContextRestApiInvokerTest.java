@@ -0,0 +1,176 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelCrossContextRestApiInvokerTest {
+	
+	private final HttpServletRequest req = mock(HttpServletRequest.class);
+	private final HttpServletResponse res = mock(HttpServletResponse.class);
+	private ParallelCrossContextRestApiInvoker invoker;
+	
+	@After
+	public void teardown() {
+		invoker.destroy();
+	}
+	
+	@Test
+	public void testPerInvocationTimeout() throws Exception {
+		invoker = new ParallelCrossContextRestApiInvoker(new StubInvoker() {
+			@Override
+			protected RestResponse respond(HttpServletRequest req, String uri) throws InterruptedException {
+				if (uri.endsWith("/slow")) {
+					Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+				}
+				return new RestResponse(uri, "text/plain");
+			}
+		});
+		
+		final long start = System.nanoTime();
+		final List<Future<RestResponse>> results = invoker.invokeAll(req, res, Arrays.asList(
+				new RestApiInvocation("/ctx/slow", Collections.<String, String[]>emptyMap(), 100L, TimeUnit.MILLISECONDS), 
+				new RestApiInvocation("/ctx/fast")), 
+				10L, TimeUnit.SECONDS);
+		
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertTrue(results.get(0).isCancelled());
+		assertEquals("/ctx/fast", results.get(1).get().getWriterOutput());
+	}
+	
+	@Test
+	public void testCallIgnoringCancellationIsRevoked() throws Exception {
+		final CountDownLatch released = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(1);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		invoker = new ParallelCrossContextRestApiInvoker(new StubInvoker() {
+			@Override
+			protected RestResponse respond(HttpServletRequest req, String uri) {
+				boolean waiting = true;
+				while (waiting) {
+					try {
+						released.await();
+						waiting = false;
+					} catch (InterruptedException e) {
+						// Ignore cancellation, like a hung include
+					}
+				}
+				try {
+					req.getParameter("x");
+				} catch (RuntimeException e) {
+					failure.set(e);
+				}
+				finished.countDown();
+				return null;
+			}
+		});
+		invoker.setCancellationTimeout(100L);
+		
+		final long start = System.nanoTime();
+		final List<Future<RestResponse>> results = invoker.invokeAll(req, res, 
+				Collections.singletonList(new RestApiInvocation("/ctx/hung")), 100L, TimeUnit.MILLISECONDS);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		try {
+			results.get(0).get();
+			fail();
+		} catch (CancellationException e) {
+			// Expected
+		}
+		
+		released.countDown();
+		assertTrue(finished.await(5L, TimeUnit.SECONDS));
+		assertTrue(failure.get() instanceof IllegalStateException);
+	}
+	
+	@Test
+	public void testCallBeyondQueueIsRejected() throws Exception {
+		invoker = new ParallelCrossContextRestApiInvoker(new StubInvoker() {
+			@Override
+			protected RestResponse respond(HttpServletRequest req, String uri) throws InterruptedException {
+				Thread.sleep(200L);
+				return new RestResponse(uri, "text/plain");
+			}
+		});
+		invoker.setMaxThreads(1);
+		invoker.setMaxQueued(1);
+		
+		final List<Future<RestResponse>> results = invoker.invokeAll(req, res, Arrays.asList(
+				new RestApiInvocation("/ctx/running"), 
+				new RestApiInvocation("/ctx/queued"), 
+				new RestApiInvocation("/ctx/rejected")), 
+				10L, TimeUnit.SECONDS);
+		
+		assertEquals("/ctx/running", results.get(0).get().getWriterOutput());
+		assertEquals("/ctx/queued", results.get(1).get().getWriterOutput());
+		try {
+			results.get(2).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	private abstract static class StubInvoker implements CrossContextRestApiInvoker {
+
+		@Override
+		public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri) {
+			return invoke(req, res, uri, Collections.<String, String[]>emptyMap());
+		}
+
+		@Override
+		public RestResponse invoke(HttpServletRequest req, HttpServletResponse res, String uri, 
+							Map<String, String[]> params) {
+			try {
+				return respond(req, uri);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+		
+		protected abstract RestResponse respond(HttpServletRequest req, String uri) throws InterruptedException;
+		
+	}
+
+}
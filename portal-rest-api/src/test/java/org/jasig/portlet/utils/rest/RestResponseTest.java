@@ -0,0 +1,112 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class RestResponseTest {
+	
+	private static final String TEXT = "caf\u00e9 \u20ac";
+	
+	@Test
+	public void testStreamOutputDecodedOnceWithCharacterEncoding() {
+		final RestResponse response = new RestResponse(TEXT.getBytes(StandardCharsets.UTF_8), 
+				"text/plain", "UTF-8");
+		final String decoded = response.getWriterOutput();
+		assertEquals(TEXT, decoded);
+		assertSame(decoded, response.getWriterOutput());
+	}
+	
+	@Test
+	public void testStreamOutputDecodedWithContentTypeCharset() {
+		final RestResponse response = new RestResponse(TEXT.getBytes(StandardCharsets.UTF_8), 
+				"application/json; charset=\"utf-8\"", null);
+		assertEquals("utf-8", response.getCharacterEncoding());
+		assertEquals(TEXT, response.getWriterOutput());
+	}
+	
+	@Test
+	public void testStreamOutputDefaultsToLatin1() {
+		final byte[] bytes = "caf\u00e9".getBytes(StandardCharsets.ISO_8859_1);
+		final RestResponse response = new RestResponse(bytes);
+		assertNull(response.getCharacterEncoding());
+		assertEquals("caf\u00e9", response.getWriterOutput());
+	}
+	
+	@Test
+	public void testWriterOutputEncodedWithCharacterEncoding() throws Exception {
+		final RestResponse response = new RestResponse(TEXT, "text/plain", "UTF-8");
+		assertNull(response.getStreamOutput());
+		final byte[] expected = TEXT.getBytes(StandardCharsets.UTF_8);
+		
+		final ByteBuffer buffer = response.asByteBuffer();
+		assertTrue(buffer.isReadOnly());
+		final byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		assertArrayEquals(expected, bytes);
+		
+		final InputStream in = response.asInputStream();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int b = in.read(); b != -1; b = in.read()) {
+			out.write(b);
+		}
+		assertArrayEquals(expected, out.toByteArray());
+		assertEquals(expected.length, response.getBodySize());
+	}
+	
+	@Test
+	public void testStreamOutputIsCopied() {
+		final byte[] bytes = { 1, 2, 3 };
+		final RestResponse response = new RestResponse(bytes);
+		response.getStreamOutput()[0] = 9;
+		assertArrayEquals(bytes, response.getStreamOutput());
+	}
+	
+	@Test
+	public void testNoBody() {
+		final RestResponse response = new RestResponse((byte[]) null);
+		assertFalse(response.hasBody());
+		assertNull(response.getWriterOutput());
+		assertNull(response.asInputStream());
+		assertNull(response.asByteBuffer());
+		assertEquals(0L, response.getBodySize());
+	}
+	
+	@Test
+	public void testParseCharset() {
+		assertNull(RestResponse.parseCharset(null));
+		assertNull(RestResponse.parseCharset("text/html"));
+		assertNull(RestResponse.parseCharset("text/html;charset="));
+		assertEquals("UTF-8", RestResponse.parseCharset("text/html;charset=UTF-8"));
+		assertEquals("UTF-8", RestResponse.parseCharset("text/html; Charset=UTF-8 ; level=1"));
+	}
+
+}
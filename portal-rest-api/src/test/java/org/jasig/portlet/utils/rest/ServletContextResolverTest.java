@@ -0,0 +1,101 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServletContextResolverTest {
+	
+	private final HttpServletRequest req = mock(HttpServletRequest.class);
+	private final ServletContext local = mock(ServletContext.class);
+	private final ServletContext other = mock(ServletContext.class);
+	private final RequestDispatcher dispatcher = mock(RequestDispatcher.class);
+	private final ServletContextResolver resolver = new ServletContextResolver();
+	
+	@Before
+	public void setup() {
+		when(local.getContext("/other")).thenReturn(other);
+		resolver.setServletContext(local);
+	}
+	
+	@Test
+	public void testContextIsCached() {
+		assertSame(other, resolver.getContext(req, "/other"));
+		assertSame(other, resolver.getContext(req, "/other"));
+		verify(local, times(1)).getContext("/other");
+	}
+	
+	@Test
+	public void testContextIsRevalidated() {
+		resolver.setRevalidateInterval(0L);
+		resolver.getContext(req, "/other");
+		resolver.getContext(req, "/other");
+		verify(local, times(2)).getContext("/other");
+	}
+	
+	@Test
+	public void testInvalidate() {
+		resolver.getContext(req, "/other");
+		resolver.invalidate("/other");
+		resolver.getContext(req, "/other");
+		verify(local, times(2)).getContext("/other");
+	}
+	
+	@Test
+	public void testStaleContextIsReplaced() {
+		// A reloaded webapp:  the cached context no longer hands out dispatchers
+		final ServletContext reloaded = mock(ServletContext.class);
+		when(reloaded.getRequestDispatcher("/api")).thenReturn(dispatcher);
+		when(other.getRequestDispatcher("/api")).thenThrow(new IllegalStateException("Stopped"));
+		resolver.getContext(req, "/other");
+		when(local.getContext("/other")).thenReturn(reloaded);
+		
+		assertSame(dispatcher, resolver.getRequestDispatcher(req, "/other", "/api"));
+		assertSame(reloaded, resolver.getContext(req, "/other"));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testMissingContext() {
+		resolver.getContext(req, "/missing");
+	}
+	
+	@Test
+	public void testLocalContextFromRequest() {
+		when(req.getServletContext()).thenReturn(local);
+		final ServletContextResolver fromRequest = new ServletContextResolver();
+		assertSame(other, fromRequest.getContext(req, "/other"));
+		// No session is created, or even looked up
+		verify(req, never()).getSession();
+		verify(req, never()).getSession(anyBoolean());
+	}
+
+}
@@ -0,0 +1,296 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class SimpleCrossContextRestApiInvokerTest {
+	
+	private final HttpServletRequest req = mock(HttpServletRequest.class);
+	private final HttpServletResponse res = mock(HttpServletResponse.class);
+	private final ServletContext local = mock(ServletContext.class);
+	private final ServletContext other = mock(ServletContext.class);
+	private final RequestDispatcher dispatcher = mock(RequestDispatcher.class);
+	private final SimpleCrossContextRestApiInvoker invoker = new SimpleCrossContextRestApiInvoker();
+	
+	@Before
+	public void setup() {
+		when(local.getContext("/other")).thenReturn(other);
+		when(other.getRequestDispatcher("/api/items")).thenReturn(dispatcher);
+		invoker.setServletContext(local);
+	}
+	
+	@Test
+	public void testStatusAndHeadersAreCaptured() throws Exception {
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.setStatus(HttpServletResponse.SC_CREATED);
+				r.setHeader("ETag", "\"v1\"");
+				r.addHeader("Cache-Control", "private");
+				r.addHeader("Cache-Control", "max-age=60");
+				r.setIntHeader("X-Count", 3);
+				r.setDateHeader("Last-Modified", 0L);
+				r.setContentType("application/json;charset=UTF-8");
+				r.getWriter().write("{}");
+			}
+		});
+		
+		final RestResponse rslt = invoker.invoke(req, res, "/other/api/items");
+		assertEquals(HttpServletResponse.SC_CREATED, rslt.getStatus());
+		assertEquals("\"v1\"", rslt.getETag());
+		assertEquals("private, max-age=60", rslt.getCacheControl());
+		assertEquals("3", rslt.getHeaders().getHeader("X-Count"));
+		assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", rslt.getHeaders().getHeader("Last-Modified"));
+		assertEquals("application/json;charset=UTF-8", rslt.getContentType());
+		assertEquals("UTF-8", rslt.getCharacterEncoding());
+		assertEquals("{}", rslt.getWriterOutput());
+		
+		verifyUnchanged();
+	}
+	
+	@Test
+	public void testSendError() throws Exception {
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.sendError(HttpServletResponse.SC_NOT_FOUND, "No such item");
+			}
+		});
+		
+		final RestResponse rslt = invoker.invoke(req, res, "/other/api/items");
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, rslt.getStatus());
+		assertEquals("No such item", rslt.getStatusMessage());
+		assertFalse(rslt.isSuccessful());
+		assertFalse(rslt.hasBody());
+		verifyUnchanged();
+	}
+	
+	@Test
+	public void testSendRedirect() throws Exception {
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.sendRedirect("/other/api/items/1");
+			}
+		});
+		
+		final RestResponse rslt = invoker.invoke(req, res, "/other/api/items");
+		assertEquals(HttpServletResponse.SC_FOUND, rslt.getStatus());
+		assertEquals("/other/api/items/1", rslt.getHeaders().getHeader("Location"));
+		verifyUnchanged();
+	}
+	
+	@Test
+	public void testStreamOutputIsKeptAsBytes() throws Exception {
+		final byte[] body = { 0, 1, 2, (byte) 0xff };
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.setContentType("application/octet-stream");
+				r.getOutputStream().write(body);
+			}
+		});
+		
+		final RestResponse rslt = invoker.invoke(req, res, "/other/api/items");
+		assertArrayEquals(body, rslt.getStreamOutput());
+		assertEquals("application/octet-stream", rslt.getContentType());
+	}
+	
+	@Test
+	public void testStreamedInvocationHasNoBody() throws Exception {
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.setHeader("ETag", "\"v2\"");
+				r.setCharacterEncoding("UTF-8");
+				r.getWriter().write("caf\u00e9");
+			}
+		});
+		
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final RestResponse rslt = invoker.invoke(req, res, "/other/api/items", 
+				Collections.<String, String[]>emptyMap(), out);
+		assertArrayEquals("caf\u00e9".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+		assertFalse(rslt.hasBody());
+		assertNull(rslt.getWriterOutput());
+		assertEquals("\"v2\"", rslt.getETag());
+	}
+	
+	@Test
+	public void testStreamOutputWrittenToTarget() throws Exception {
+		final byte[] body = new byte[100000];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) i;
+		}
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.getOutputStream().write(body[0]);
+				r.getOutputStream().write(body, 1, body.length - 2);
+				r.getOutputStream().write(body[body.length - 1]);
+				r.getOutputStream().close();
+			}
+		});
+		
+		final ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void close() {
+				fail("The target belongs to the caller");
+			}
+		};
+		final RestResponse rslt = invoker.invoke(req, res, "/other/api/items", 
+				Collections.<String, String[]>emptyMap(), out);
+		assertArrayEquals(body, out.toByteArray());
+		assertFalse(rslt.hasBody());
+	}
+	
+	@Test
+	public void testWriterOutputWrittenToTargetWriter() throws Exception {
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.setHeader("ETag", "\"v3\"");
+				r.getWriter().write("caf\u00e9");
+				r.getWriter().close();
+			}
+		});
+		
+		final StringWriter out = new StringWriter() {
+			@Override
+			public void close() {
+				fail("The target belongs to the caller");
+			}
+		};
+		final RestResponse rslt = invoker.invoke(req, res, "/other/api/items", 
+				Collections.<String, String[]>emptyMap(), out);
+		assertEquals("caf\u00e9", out.toString());
+		assertFalse(rslt.hasBody());
+		assertEquals("\"v3\"", rslt.getETag());
+	}
+	
+	@Test
+	public void testStreamOutputDecodedForTargetWriter() throws Exception {
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.setContentType("text/plain;charset=UTF-8");
+				r.getOutputStream().write("caf\u00e9".getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		
+		final StringWriter out = new StringWriter();
+		final RestResponse rslt = invoker.invoke(req, res, "/other/api/items", 
+				Collections.<String, String[]>emptyMap(), out);
+		assertEquals("caf\u00e9", out.toString());
+		assertFalse(rslt.hasBody());
+	}
+	
+	@Test
+	public void testFailedIncludeInvalidatesContext() throws Exception {
+		doThrow(new IllegalStateException("Context stopped"))
+				.when(dispatcher).include(any(ServletRequest.class), any(ServletResponse.class));
+		try {
+			invoker.invoke(req, res, "/other/api/items");
+			fail("The include failed");
+		} catch (RuntimeException e) {
+			// Expected
+		}
+		
+		// Looked up afresh rather than taken from the cache
+		include(new Include() {
+			@Override
+			public void include(HttpServletResponse r) throws Exception {
+				r.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			}
+		});
+		assertEquals(HttpServletResponse.SC_NO_CONTENT, invoker.invoke(req, res, "/other/api/items").getStatus());
+		verify(local, times(2)).getContext("/other");
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private void include(final Include behavior) throws Exception {
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				behavior.include((HttpServletResponse) invocation.getArgument(1));
+				return null;
+			}
+		}).when(dispatcher).include(any(ServletRequest.class), any(ServletResponse.class));
+	}
+	
+	/**
+	 * The include may read the portal's response, but must not change it.
+	 */
+	private void verifyUnchanged() throws Exception {
+		verify(res, never()).setStatus(anyInt());
+		verify(res, never()).sendError(anyInt());
+		verify(res, never()).sendError(anyInt(), anyString());
+		verify(res, never()).sendRedirect(anyString());
+		verify(res, never()).setHeader(anyString(), anyString());
+		verify(res, never()).addHeader(anyString(), anyString());
+		verify(res, never()).setContentType(anyString());
+		verify(res, never()).setCharacterEncoding(anyString());
+		verify(res, never()).getWriter();
+		verify(res, never()).getOutputStream();
+	}
+	
+	/*
+	 * Nested Types
+	 */
+	
+	private interface Include {
+		void include(HttpServletResponse r) throws Exception;
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class UriTemplateTest {
+	
+	@Test
+	public void testNoTokens() throws Exception {
+		final String template = "/ctx/items?all=true";
+		assertSame(template, UriTemplate.compile(template).expand(params("id", "1")));
+	}
+	
+	@Test
+	public void testPathTokenIsEncoded() throws Exception {
+		assertEquals("/ctx/items/a+b%2Fc/detail", 
+				UriTemplate.compile("/ctx/items/{id}/detail").expand(params("id", "a b/c")));
+	}
+	
+	@Test
+	public void testQueryStringTokenRepeatsEachValue() throws Exception {
+		assertEquals("/ctx/items?tag=a&tag=b%26c&sort=name", 
+				UriTemplate.compile("/ctx/items?{tag}&sort=name").expand(params("tag", "a", "b&c")));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testPathTokenRejectsMultipleValues() throws Exception {
+		UriTemplate.compile("/ctx/items/{id}").expand(params("id", "1", "2"));
+	}
+	
+	@Test
+	public void testUnknownTokenIsLeftAlone() throws Exception {
+		assertEquals("/ctx/items/{id}?{q}", 
+				UriTemplate.compile("/ctx/items/{id}?{q}").expand(Collections.<String, String[]>emptyMap()));
+	}
+	
+	@Test
+	public void testEmptyValuesAreOmitted() throws Exception {
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("id", null);
+		params.put("q", new String[0]);
+		assertEquals("/ctx/items/?", UriTemplate.compile("/ctx/items/{id}?{q}").expand(params));
+	}
+	
+	@Test
+	public void testSubstitutedTextIsNotExpandedAgain() throws Exception {
+		final Map<String, String[]> params = params("a", "{b}");
+		params.put("b", new String[] { "x" });
+		assertEquals("/ctx/%7Bb%7D/x", UriTemplate.compile("/ctx/{a}/{b}").expand(params));
+	}
+	
+	@Test
+	public void testNestedBracesUseInnermostToken() throws Exception {
+		assertEquals("/ctx/{x", UriTemplate.compile("/ctx/{{a}").expand(params("a", "x")));
+	}
+	
+	@Test
+	public void testTokenStraddlingQueryStringIsLiteral() throws Exception {
+		assertEquals("/ctx/{a?b}", UriTemplate.compile("/ctx/{a?b}").expand(params("a?b", "x")));
+	}
+	
+	@Test
+	public void testCacheReusesCompiledTemplates() {
+		final UriTemplate.Cache cache = new UriTemplate.Cache();
+		cache.setMaxSize(2);
+		final UriTemplate first = cache.get("/ctx/{a}");
+		assertSame(first, cache.get("/ctx/{a}"));
+		
+		// Reaching the limit starts over rather than growing
+		cache.get("/ctx/{b}");
+		cache.get("/ctx/{c}");
+		assertNotSame(first, cache.get("/ctx/{a}"));
+	}
+	
+	/*
+	 * Implementation
+	 */
+	
+	private static Map<String, String[]> params(String name, String... values) {
+		final Map<String, String[]> rslt = new HashMap<String, String[]>();
+		rslt.put(name, values);
+		return rslt;
+	}
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.dialect;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures insert and select throughput, in rows per second, of
+ * {@link PortletPreferenceEntity} with each combination of the {@link Oracle10gDialect}
+ * extended string size and inline LOB binding options. Inserts are JDBC batched
+ * {@link #BATCH_SIZE} rows at a time, selects read {@link #BATCH_SIZE} rows by window id.
+ * <p>
+ * By default the database is an in-memory H2 in Oracle mode, which shows the cost of the
+ * Hibernate and JDBC paths but not Oracle's LOB locator round trips; pass the
+ * <code>url</code>, <code>driver</code>, <code>username</code> and <code>password</code>
+ * parameters to run against Oracle. Extended string size needs Oracle 12c or later with
+ * <code>MAX_STRING_SIZE=EXTENDED</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OracleDialectBenchmark {
+    
+    private static final int BATCH_SIZE = 50;
+    private static final int WINDOWS = 20;
+    
+    @Param({ "jdbc:h2:mem:bench;MODE=Oracle;DB_CLOSE_DELAY=-1" })
+    private String url;
+    
+    @Param({ "org.h2.Driver" })
+    private String driver;
+    
+    @Param({ "sa" })
+    private String username;
+    
+    @Param({ "" })
+    private String password;
+    
+    @Param({ "false", "true" })
+    private boolean extendedStringSize;
+    
+    @Param({ "false", "true" })
+    private boolean inlineLobBinding;
+    
+    private SessionFactory sessionFactory;
+    private String value;
+    private byte[] state;
+    private String description;
+    private long lastLoadedId;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        final StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+            .applySetting(AvailableSettings.DRIVER, this.driver)
+            .applySetting(AvailableSettings.URL, this.url)
+            .applySetting(AvailableSettings.USER, this.username)
+            .applySetting(AvailableSettings.PASS, this.password)
+            .applySetting(AvailableSettings.DIALECT, Oracle10gDialect.class.getName())
+            .applySetting(Oracle10gDialect.EXTENDED_STRING_SIZE, this.extendedStringSize)
+            .applySetting(Oracle10gDialect.INLINE_LOB_BINDING, this.inlineLobBinding)
+            .applySetting(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+            .applySetting(AvailableSettings.STATEMENT_BATCH_SIZE, BATCH_SIZE)
+            .applySetting(AvailableSettings.ORDER_INSERTS, true)
+            .build();
+        this.sessionFactory = new MetadataSources(registry)
+            .addAnnotatedClass(PortletPreferenceEntity.class)
+            .buildMetadata()
+            .buildSessionFactory();
+        
+        final char[] chars = new char[4500];
+        Arrays.fill(chars, 'v');
+        this.value = new String(chars);
+        this.state = new byte[2500];
+        Arrays.fill(this.state, (byte) 7);
+        this.description = "Preference used by the benchmark";
+        
+        for (int window = 0; window < WINDOWS; window++) {
+            insert("window-" + window);
+        }
+        this.lastLoadedId = maxId();
+    }
+    
+    @TearDown(Level.Iteration)
+    public void deleteInserted() {
+        final Session session = this.sessionFactory.openSession();
+        try {
+            session.getTransaction().begin();
+            session.createQuery("delete from PortletPreferenceEntity where id > :id")
+                .setParameter("id", this.lastLoadedId)
+                .executeUpdate();
+            session.getTransaction().commit();
+        }
+        finally {
+            session.close();
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.sessionFactory.close();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insert() {
+        insert("window-insert");
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void select(Blackhole blackhole) {
+        final Session session = this.sessionFactory.openSession();
+        try {
+            session.setDefaultReadOnly(true);
+            final List<PortletPreferenceEntity> preferences = session
+                .createQuery("from PortletPreferenceEntity where windowId = :windowId", PortletPreferenceEntity.class)
+                .setParameter("windowId", "window-" + Math.floorMod(System.nanoTime(), (long) WINDOWS))
+                .list();
+            for (final PortletPreferenceEntity preference : preferences) {
+                blackhole.consume(preference.getValue());
+                blackhole.consume(preference.getState());
+                blackhole.consume(preference.getDescription());
+            }
+        }
+        finally {
+            session.close();
+        }
+    }
+    
+    private void insert(String windowId) {
+        final Session session = this.sessionFactory.openSession();
+        try {
+            session.getTransaction().begin();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                final PortletPreferenceEntity preference = new PortletPreferenceEntity();
+                preference.setWindowId(windowId);
+                preference.setName("preference-" + i);
+                preference.setValue(this.value);
+                preference.setState(this.state);
+                preference.setDescription(this.description);
+                session.persist(preference);
+            }
+            session.getTransaction().commit();
+        }
+        finally {
+            session.close();
+        }
+    }
+    
+    private long maxId() {
+        final Session session = this.sessionFactory.openSession();
+        try {
+            return session.createQuery("select max(id) from PortletPreferenceEntity", Long.class).uniqueResult();
+        }
+        finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.dialect;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * A typical portlet entity: a few short strings, a value just over the 4000 character
+ * <code>varchar2</code> limit, serialized state just over the 2000 byte <code>raw</code>
+ * limit and a <code>@Lob</code> description.
+ */
+@Entity
+@Table(name = "BENCH_PORTLET_PREF")
+public class PortletPreferenceEntity {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "BENCH_PORTLET_PREF_GEN")
+    @SequenceGenerator(name = "BENCH_PORTLET_PREF_GEN", sequenceName = "BENCH_PORTLET_PREF_SEQ", allocationSize = 50)
+    private long id;
+    
+    @Column(name = "WINDOW_ID", length = 128, nullable = false)
+    private String windowId;
+    
+    @Column(name = "PREF_NAME", length = 255, nullable = false)
+    private String name;
+    
+    @Column(name = "PREF_VALUE", length = 8000)
+    private String value;
+    
+    @Column(name = "PREF_STATE", length = 4000)
+    private byte[] state;
+    
+    @Lob
+    @Column(name = "DESCRIPTION")
+    private String description;
+
+    public long getId() {
+        return this.id;
+    }
+
+    public String getWindowId() {
+        return this.windowId;
+    }
+
+    public void setWindowId(String windowId) {
+        this.windowId = windowId;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public byte[] getState() {
+        return this.state;
+    }
+
+    public void setState(byte[] state) {
+        this.state = state;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A size-bounded, least recently used cache with an optional time to live, backing one
+ * region of the {@link BoundedRegionFactory}.
+ * <p>
+ * Keys are spread over up to 16 segments, each an access ordered {@link LinkedHashMap}
+ * guarded by its own lock and holding an equal share of <code>maxEntries</code>, so
+ * concurrent readers rarely contend and the least recently used entry of a full segment is
+ * evicted. A cache is only split into segments that hold at least 64 entries each, so
+ * small regions are not evicted early because their keys happen to share a segment.
+ * <p>
+ * Expired entries are removed when they are next looked up, evicted as they age and, so
+ * that they don't pile up in unbounded regions, swept from a segment once it has had as
+ * many puts since the last sweep as it holds entries. Statistics are kept in
+ * {@link LongAdder}s and exposed through {@link BoundedCacheMXBean}.
+ */
+public class BoundedCache implements BoundedCacheMXBean {
+    
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+    
+    private final String regionName;
+    private final int maxEntries;
+    private final long timeToLive;
+    private final Segment[] segments;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    
+    /**
+     * @param maxEntries Maximum number of entries, 0 for unbounded
+     * @param timeToLive How long an entry lives after it is put, 0 to never expire
+     */
+    public BoundedCache(String regionName, int maxEntries, long timeToLive, TimeUnit unit) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative: " + maxEntries);
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive must not be negative: " + timeToLive);
+        }
+        this.regionName = regionName;
+        this.maxEntries = maxEntries;
+        this.timeToLive = unit.toNanos(timeToLive);
+        
+        //Small caches get fewer segments so each keeps a useful share of the entries, the
+        //count is a power of two for segmentFor
+        final int segmentCount = maxEntries == 0 ? MAX_SEGMENTS
+                : Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_CAPACITY)));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            //The first maxEntries % segmentCount segments take one of the remaining entries each
+            final int segmentCapacity = maxEntries == 0 ? Integer.MAX_VALUE
+                    : maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0);
+            this.segments[i] = new Segment(segmentCapacity);
+        }
+    }
+    
+    /**
+     * @return The cached value, or <code>null</code> if missing or expired
+     */
+    public Object get(Object key) {
+        final Segment segment = segmentFor(key);
+        final Entry entry;
+        synchronized (segment) {
+            final Entry cached = segment.get(key);
+            if (cached != null && cached.isExpired(System.nanoTime())) {
+                segment.remove(key);
+                this.expirations.increment();
+                entry = null;
+            }
+            else {
+                entry = cached;
+            }
+        }
+        
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return entry.value;
+    }
+    
+    public void put(Object key, Object value) {
+        final long expires = this.timeToLive == 0 ? Long.MAX_VALUE : System.nanoTime() + this.timeToLive;
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, new Entry(value, expires));
+            if (this.timeToLive != 0 && ++segment.putsSinceSweep >= Math.max(MIN_SEGMENT_CAPACITY, segment.size())) {
+                segment.removeExpired();
+            }
+        }
+        this.puts.increment();
+    }
+    
+    /**
+     * @return If an entry that has not expired is cached, without affecting the statistics
+     */
+    public boolean containsKey(Object key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final Entry entry = segment.get(key);
+            return entry != null && !entry.isExpired(System.nanoTime());
+        }
+    }
+    
+    public void remove(Object key) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public String getRegionName() {
+        return this.regionName;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    @Override
+    public long getTimeToLiveSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(this.timeToLive);
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        final long hitCount = this.hits.sum();
+        final long lookups = hitCount + this.misses.sum();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    @Override
+    public long getPutCount() {
+        return this.puts.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public long getExpirationCount() {
+        return this.expirations.sum();
+    }
+
+    @Override
+    public void resetStatistics() {
+        this.hits.reset();
+        this.misses.reset();
+        this.puts.reset();
+        this.evictions.reset();
+        this.expirations.reset();
+    }
+    
+    private Segment segmentFor(Object key) {
+        final int hash = key.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (this.segments.length - 1)];
+    }
+    
+    private static final class Entry {
+        private final Object value;
+        private final long expires;
+        
+        public Entry(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+        
+        public boolean isExpired(long now) {
+            return this.expires != Long.MAX_VALUE && now - this.expires >= 0;
+        }
+    }
+    
+    private final class Segment extends LinkedHashMap<Object, Entry> {
+        private static final long serialVersionUID = 1L;
+        
+        private final int capacity;
+        private int putsSinceSweep = 0;
+        
+        public Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+        
+        /**
+         * Sweeps the expired entries, call while holding the segment's lock
+         */
+        public void removeExpired() {
+            this.putsSinceSweep = 0;
+            final long now = System.nanoTime();
+            for (final Iterator<Entry> values = this.values().iterator(); values.hasNext();) {
+                if (values.next().isExpired(now)) {
+                    values.remove();
+                    expirations.increment();
+                }
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+            if (this.size() <= this.capacity) {
+                return false;
+            }
+            if (eldest.getValue().isExpired(System.nanoTime())) {
+                expirations.increment();
+            }
+            else {
+                evictions.increment();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.cache;
+
+/**
+ * Size, settings and hit/miss statistics of one {@link BoundedCache} region.
+ */
+public interface BoundedCacheMXBean {
+
+    String getRegionName();
+
+    /**
+     * @return Number of entries currently cached, including expired entries not yet removed
+     */
+    int getSize();
+
+    /**
+     * @return Maximum number of entries, 0 if unbounded
+     */
+    int getMaxEntries();
+
+    /**
+     * @return Seconds an entry lives after it is put, 0 if entries don't expire
+     */
+    long getTimeToLiveSeconds();
+
+    long getHitCount();
+
+    /**
+     * @return Number of lookups that found nothing. For read-write regions this includes the
+     *         lookup Hibernate makes before putting each loaded entry.
+     */
+    long getMissCount();
+
+    /**
+     * @return Hits divided by lookups, 0 before the first lookup
+     */
+    double getHitRatio();
+
+    long getPutCount();
+
+    /**
+     * @return Number of entries removed to keep the cache under its maximum size
+     */
+    long getEvictionCount();
+
+    /**
+     * @return Number of entries removed because their time to live had passed
+     */
+    long getExpirationCount();
+
+    /**
+     * Removes all entries.
+     */
+    void clear();
+
+    /**
+     * Resets all counters to 0.
+     */
+    void resetStatistics();
+
+}
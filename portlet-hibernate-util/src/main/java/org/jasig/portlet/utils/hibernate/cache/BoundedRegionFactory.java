@@ -0,0 +1,169 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.jboss.logging.Logger;
+
+/**
+ * An in-JVM Hibernate second-level cache, storing each region in a size-bounded, least
+ * recently used {@link BoundedCache}. Enable it with:
+ * <pre>
+ * hibernate.cache.use_second_level_cache=true
+ * hibernate.cache.region.factory_class=org.jasig.portlet.utils.hibernate.cache.BoundedRegionFactory
+ * </pre>
+ * Every region holds up to {@link #MAX_ENTRIES} entries, which expire {@link #TIME_TO_LIVE}
+ * seconds after they are put. Both can be set per region by appending the region name,
+ * for example <code>org.jasig.portlet.utils.hibernate.cache.time_to_live.com.example.Preference=300</code>.
+ * The update timestamps region is never bounded and its entries never expire, as dropping
+ * a timestamp would let the query cache return stale results.
+ * <p>
+ * Each region is registered with the platform MBeanServer under
+ * {@link #BASE_OBJECT_NAME} followed by the region name, which defaults to a name
+ * including the session factory name.
+ */
+public class BoundedRegionFactory extends RegionFactoryTemplate {
+    private static final Logger LOG = Logger.getLogger(BoundedRegionFactory.class);
+    
+    public static final String SETTINGS_PREFIX = "org.jasig.portlet.utils.hibernate.cache.";
+    
+    /**
+     * Maximum number of entries in a region, 0 for unbounded
+     */
+    public static final String MAX_ENTRIES = SETTINGS_PREFIX + "max_entries";
+    
+    /**
+     * Seconds an entry lives after it is put, 0 to never expire
+     */
+    public static final String TIME_TO_LIVE = SETTINGS_PREFIX + "time_to_live";
+    
+    /**
+     * Prefix of the region MBean names, to which the quoted region name is appended
+     */
+    public static final String BASE_OBJECT_NAME = SETTINGS_PREFIX + "base_object_name";
+    
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    
+    public static final int DEFAULT_TIME_TO_LIVE = 0;
+    
+    private final List<BoundedCache> caches = new CopyOnWriteArrayList<BoundedCache>();
+    private final List<ObjectName> objectNames = new CopyOnWriteArrayList<ObjectName>();
+    
+    private Map<?, ?> settings;
+    private String baseObjectName;
+    
+    /**
+     * @return The caches of the regions built so far
+     */
+    public List<BoundedCache> getCaches() {
+        return this.caches;
+    }
+
+    @Override
+    protected void prepareForUse(SessionFactoryOptions options, @SuppressWarnings("rawtypes") Map configValues) {
+        this.settings = configValues;
+        
+        String sessionFactoryName = options.getSessionFactoryName();
+        if (sessionFactoryName == null) {
+            sessionFactoryName = "SessionFactory@" + Integer.toHexString(System.identityHashCode(this));
+        }
+        this.baseObjectName = ConfigurationHelper.getString(BASE_OBJECT_NAME, configValues,
+                "org.jasig.portlet.utils.hibernate.cache:type=CacheRegion,sessionFactory="
+                        + ObjectName.quote(sessionFactoryName) + ",name=");
+    }
+
+    @Override
+    protected void releaseFromUse() {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName objectName : this.objectNames) {
+            try {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            catch (JMException e) {
+                LOG.warnf(e, "Failed to unregister cache region MBean %s", objectName);
+            }
+        }
+        this.objectNames.clear();
+        
+        for (final BoundedCache cache : this.caches) {
+            cache.clear();
+        }
+        this.caches.clear();
+    }
+
+    @Override
+    protected DomainDataStorageAccess createDomainDataStorageAccess(DomainDataRegionConfig regionConfig,
+            DomainDataRegionBuildingContext buildingContext) {
+        return new BoundedStorageAccess(createCache(regionConfig.getRegionName(), true));
+    }
+
+    @Override
+    protected StorageAccess createQueryResultsRegionStorageAccess(String regionName,
+            SessionFactoryImplementor sessionFactory) {
+        return new BoundedStorageAccess(createCache(regionName, true));
+    }
+
+    @Override
+    protected StorageAccess createTimestampsRegionStorageAccess(String regionName,
+            SessionFactoryImplementor sessionFactory) {
+        return new BoundedStorageAccess(createCache(regionName, false));
+    }
+    
+    protected BoundedCache createCache(String regionName, boolean bounded) {
+        final BoundedCache cache;
+        if (bounded) {
+            final int defaultMaxEntries = ConfigurationHelper.getInt(MAX_ENTRIES, this.settings, DEFAULT_MAX_ENTRIES);
+            final int maxEntries = ConfigurationHelper.getInt(MAX_ENTRIES + "." + regionName, this.settings, defaultMaxEntries);
+            final int defaultTimeToLive = ConfigurationHelper.getInt(TIME_TO_LIVE, this.settings, DEFAULT_TIME_TO_LIVE);
+            final int timeToLive = ConfigurationHelper.getInt(TIME_TO_LIVE + "." + regionName, this.settings, defaultTimeToLive);
+            cache = new BoundedCache(regionName, maxEntries, timeToLive, TimeUnit.SECONDS);
+        }
+        else {
+            cache = new BoundedCache(regionName, 0, 0, TimeUnit.SECONDS);
+        }
+        this.caches.add(cache);
+        
+        try {
+            final ObjectName objectName = ObjectName.getInstance(this.baseObjectName + ObjectName.quote(regionName));
+            this.objectNames.add(ManagementFactory.getPlatformMBeanServer().registerMBean(cache, objectName).getObjectName());
+        }
+        catch (JMException e) {
+            LOG.warnf(e, "Failed to register MBean for cache region %s, its statistics won't be available", regionName);
+        }
+        
+        return cache;
+    }
+}
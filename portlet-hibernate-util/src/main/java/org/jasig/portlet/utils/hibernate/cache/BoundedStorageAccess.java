@@ -0,0 +1,78 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.cache;
+
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+/**
+ * Stores the data of one Hibernate cache region in a {@link BoundedCache}.
+ */
+class BoundedStorageAccess implements DomainDataStorageAccess {
+    
+    private final BoundedCache cache;
+    
+    BoundedStorageAccess(BoundedCache cache) {
+        this.cache = cache;
+    }
+    
+    BoundedCache getCache() {
+        return this.cache;
+    }
+
+    @Override
+    public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+        return this.cache.get(key);
+    }
+
+    @Override
+    public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+        this.cache.put(key, value);
+    }
+
+    @Override
+    public void removeFromCache(Object key, SharedSessionContractImplementor session) {
+        this.cache.remove(key);
+    }
+
+    @Override
+    public void clearCache(SharedSessionContractImplementor session) {
+        this.cache.clear();
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        return this.cache.containsKey(key);
+    }
+
+    @Override
+    public void evictData() {
+        this.cache.clear();
+    }
+
+    @Override
+    public void evictData(Object key) {
+        this.cache.remove(key);
+    }
+
+    @Override
+    public void release() {
+        this.cache.clear();
+    }
+}
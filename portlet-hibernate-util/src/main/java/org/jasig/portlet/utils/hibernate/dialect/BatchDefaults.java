@@ -0,0 +1,53 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.dialect;
+
+import java.util.Properties;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.jasig.portlet.utils.hibernate.id.PooledSequenceGenerator;
+
+/**
+ * Defaults shared by the dialects in this package that make bulk inserts batchable.
+ */
+final class BatchDefaults {
+    
+    /**
+     * Generator used for <code>native</code> ids instead of <code>IDENTITY</code>
+     */
+    static final String NATIVE_IDENTIFIER_GENERATOR = PooledSequenceGenerator.class.getName();
+    
+    static final int BATCH_SIZE = 50;
+    
+    private BatchDefaults() {
+    }
+    
+    /**
+     * Batches up to {@link #BATCH_SIZE} statements, and orders inserts and updates so
+     * statements for the same table are adjacent and can share a batch. Settings in the
+     * Hibernate configuration take precedence. Hibernate 5.3 reads only the ordering
+     * settings from the dialect, {@link BatchDefaultsIntegrator} applies the batch size.
+     */
+    static void registerBatchProperties(Properties defaultProperties) {
+        defaultProperties.setProperty(AvailableSettings.STATEMENT_BATCH_SIZE, String.valueOf(BATCH_SIZE));
+        defaultProperties.setProperty(AvailableSettings.ORDER_INSERTS, "true");
+        defaultProperties.setProperty(AvailableSettings.ORDER_UPDATES, "true");
+        defaultProperties.setProperty(AvailableSettings.BATCH_VERSIONED_DATA, "true");
+    }
+}
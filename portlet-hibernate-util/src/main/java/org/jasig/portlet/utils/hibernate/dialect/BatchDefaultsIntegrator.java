@@ -0,0 +1,64 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.dialect;
+
+import java.util.Map;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.batch.internal.BatchBuilderImpl;
+import org.hibernate.engine.jdbc.batch.spi.BatchBuilder;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+/**
+ * Applies the {@link BatchDefaults#BATCH_SIZE} of the dialects in this package to the
+ * session factory. Hibernate 5.3 sizes batches from the configured
+ * <code>hibernate.jdbc.batch_size</code> only and ignores the dialect default, so without
+ * this a session would still prepare one statement per row. Session factories using any
+ * other dialect, or configuring the batch size themselves, are left alone.
+ */
+public class BatchDefaultsIntegrator implements Integrator {
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+            SessionFactoryServiceRegistry serviceRegistry) {
+        if (!(sessionFactory.getJdbcServices().getDialect() instanceof BatchingDialect)) {
+            return;
+        }
+
+        final Map properties = sessionFactory.getProperties();
+        if (properties.containsKey(AvailableSettings.STATEMENT_BATCH_SIZE)) {
+            return;
+        }
+        properties.put(AvailableSettings.STATEMENT_BATCH_SIZE, String.valueOf(BatchDefaults.BATCH_SIZE));
+
+        final BatchBuilder batchBuilder = serviceRegistry.getService(BatchBuilder.class);
+        if (batchBuilder instanceof BatchBuilderImpl) {
+            ((BatchBuilderImpl) batchBuilder).setJdbcBatchSize(BatchDefaults.BATCH_SIZE);
+        }
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory,
+            SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
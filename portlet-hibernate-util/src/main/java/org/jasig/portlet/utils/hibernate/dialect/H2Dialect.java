@@ -0,0 +1,37 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.dialect;
+
+/**
+ * A derived dialect of H2Dialect that generates <code>native</code> ids with the
+ * {@link org.jasig.portlet.utils.hibernate.id.PooledSequenceGenerator}, instead of
+ * <code>IDENTITY</code> columns, and batches inserts and updates by default.
+ */
+public class H2Dialect extends org.hibernate.dialect.H2Dialect implements BatchingDialect {
+
+    public H2Dialect() {
+        super();
+        BatchDefaults.registerBatchProperties(getDefaultProperties());
+    }
+
+    @Override
+    public String getNativeIdentifierGeneratorStrategy() {
+        return BatchDefaults.NATIVE_IDENTIFIER_GENERATOR;
+    }
+}
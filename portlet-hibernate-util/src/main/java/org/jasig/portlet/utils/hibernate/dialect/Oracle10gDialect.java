@@ -1,11 +1,102 @@
 package org.jasig.portlet.utils.hibernate.dialect;
 
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Types;
 
+import org.hibernate.boot.model.TypeContributions;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.descriptor.ValueExtractor;
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.JavaTypeDescriptor;
+import org.hibernate.type.descriptor.sql.BasicBinder;
+import org.hibernate.type.descriptor.sql.BasicExtractor;
+import org.hibernate.type.descriptor.sql.BlobTypeDescriptor;
+import org.hibernate.type.descriptor.sql.ClobTypeDescriptor;
+import org.hibernate.type.descriptor.sql.SqlTypeDescriptor;
+
 /**
  * A derived dialect of Oracle10gDialect that uses clobs over Oracle LONG.
+ * <p>
+ * Two settings make entities with large strings and binaries batchable:
+ * <ul>
+ * <li>{@link #EXTENDED_STRING_SIZE} maps <code>VARCHAR</code> up to 32767 to
+ * <code>varchar2</code> and <code>VARBINARY</code> up to 32767 to <code>raw</code>
+ * instead of <code>clob</code> and <code>blob</code>. The database must be Oracle 12c or
+ * later with <code>MAX_STRING_SIZE=EXTENDED</code>.</li>
+ * <li>{@link #INLINE_LOB_BINDING} binds and reads <code>String</code> clobs with
+ * <code>setString</code>/<code>getString</code>, and binds <code>byte[]</code> blobs with
+ * <code>setBytes</code>, rather than through LOB locators.</li>
+ * </ul>
  */
 public class Oracle10gDialect extends org.hibernate.dialect.Oracle10gDialect {
+    
+    /**
+     * Setting that enables the extended <code>varchar2</code> and <code>raw</code> types,
+     * the same one Hibernate 6 reads.
+     */
+    public static final String EXTENDED_STRING_SIZE = "hibernate.dialect.oracle.extended_string_size";
+    
+    /**
+     * Setting that enables binding LOBs inline.
+     */
+    public static final String INLINE_LOB_BINDING = "org.jasig.portlet.utils.hibernate.dialect.oracle.inline_lob_binding";
+    
+    /**
+     * Largest <code>varchar2</code> and <code>raw</code> with <code>MAX_STRING_SIZE=EXTENDED</code>
+     */
+    public static final int EXTENDED_MAX_LENGTH = 32767;
+    
+    private static final ClobTypeDescriptor INLINE_CLOB = new ClobTypeDescriptor() {
+        @Override
+        public <X> ValueExtractor<X> getExtractor(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+            if (!String.class.equals(javaTypeDescriptor.getJavaTypeClass())) {
+                return super.getExtractor(javaTypeDescriptor);
+            }
+            
+            return new BasicExtractor<X>(javaTypeDescriptor, this) {
+                @Override
+                protected X doExtract(ResultSet rs, String name, WrapperOptions options) throws SQLException {
+                    return javaTypeDescriptor.wrap(rs.getString(name), options);
+                }
+
+                @Override
+                protected X doExtract(CallableStatement statement, int index, WrapperOptions options) throws SQLException {
+                    return javaTypeDescriptor.wrap(statement.getString(index), options);
+                }
+
+                @Override
+                protected X doExtract(CallableStatement statement, String name, WrapperOptions options) throws SQLException {
+                    return javaTypeDescriptor.wrap(statement.getString(name), options);
+                }
+            };
+        }
+
+        @Override
+        protected <X> BasicBinder<X> getClobBinder(final JavaTypeDescriptor<X> javaTypeDescriptor) {
+            if (!String.class.equals(javaTypeDescriptor.getJavaTypeClass())) {
+                return (BasicBinder<X>) ClobTypeDescriptor.DEFAULT.getBinder(javaTypeDescriptor);
+            }
+            
+            return new BasicBinder<X>(javaTypeDescriptor, this) {
+                @Override
+                protected void doBind(PreparedStatement st, X value, int index, WrapperOptions options) throws SQLException {
+                    st.setString(index, javaTypeDescriptor.unwrap(value, String.class, options));
+                }
+
+                @Override
+                protected void doBind(CallableStatement st, X value, String name, WrapperOptions options) throws SQLException {
+                    st.setString(name, javaTypeDescriptor.unwrap(value, String.class, options));
+                }
+            };
+        }
+    };
+    
+    private boolean inlineLobBinding = false;
 
     public Oracle10gDialect() {
         super();
@@ -17,4 +108,33 @@ public class Oracle10gDialect extends org.hibernate.dialect.Oracle10gDialect {
 
         registerColumnType( Types.VARCHAR, 4000, "varchar2($l char)" );
         registerColumnType( Types.VARCHAR, "clob" );   }
+
+    @Override
+    public void contributeTypes(TypeContributions typeContributions, ServiceRegistry serviceRegistry) {
+        super.contributeTypes(typeContributions, serviceRegistry);
+        
+        final ConfigurationService configurationService = serviceRegistry.getService(ConfigurationService.class);
+        if (configurationService.getSetting(EXTENDED_STRING_SIZE, StandardConverters.BOOLEAN, false)) {
+            registerExtendedStringTypes();
+        }
+        this.inlineLobBinding = configurationService.getSetting(INLINE_LOB_BINDING, StandardConverters.BOOLEAN, false);
+    }
+    
+    protected void registerExtendedStringTypes() {
+        registerColumnType( Types.VARBINARY, EXTENDED_MAX_LENGTH, "raw($l)" );
+        registerColumnType( Types.VARCHAR, EXTENDED_MAX_LENGTH, "varchar2($l char)" );
+    }
+
+    @Override
+    protected SqlTypeDescriptor getSqlTypeDescriptorOverride(int sqlCode) {
+        if (this.inlineLobBinding) {
+            switch (sqlCode) {
+                case Types.CLOB:
+                    return INLINE_CLOB;
+                case Types.BLOB:
+                    return BlobTypeDescriptor.PRIMITIVE_ARRAY_BINDING;
+            }
+        }
+        return super.getSqlTypeDescriptorOverride(sqlCode);
+    }
 }
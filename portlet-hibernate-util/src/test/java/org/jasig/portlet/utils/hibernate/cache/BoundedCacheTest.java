@@ -0,0 +1,136 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+    
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        //A single segment, so eviction order is exact
+        final BoundedCache cache = new BoundedCache("test", 1, 0, TimeUnit.SECONDS);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.get("b"));
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRatio(), 0);
+    }
+    
+    @Test
+    public void testSizeBounded() {
+        final BoundedCache cache = new BoundedCache("test", 100, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        
+        assertTrue(cache.getSize() <= 100);
+        assertEquals(1000 - cache.getSize(), cache.getEvictionCount());
+        assertEquals(999, cache.get(999));
+    }
+    
+    @Test
+    public void testExpired() throws InterruptedException {
+        final BoundedCache cache = new BoundedCache("test", 10, 50, TimeUnit.MILLISECONDS);
+        cache.put("a", 1);
+        assertTrue(cache.containsKey("a"));
+        
+        Thread.sleep(100);
+        
+        assertFalse(cache.containsKey("a"));
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getSize());
+    }
+    
+    @Test
+    public void testSmallRegionHoldsCollidingKeys() {
+        //Every key lands in the same segment, a small region must still hold maxEntries of them
+        final BoundedCache cache = new BoundedCache("test", 100, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            cache.put(new CollidingKey(i), i);
+        }
+        assertEquals(100, cache.getSize());
+        assertEquals(0, cache.getEvictionCount());
+        
+        //The least recently used key is the one evicted
+        assertEquals(0, cache.get(new CollidingKey(0)));
+        cache.put(new CollidingKey(100), 100);
+        assertEquals(100, cache.getSize());
+        assertEquals(0, cache.get(new CollidingKey(0)));
+        assertNull(cache.get(new CollidingKey(1)));
+    }
+    
+    @Test
+    public void testSegmentsHoldAllOfMaxEntries() {
+        //1000 entries don't divide evenly over the segments, the remainder must not be lost
+        final BoundedCache cache = new BoundedCache("test", 1000, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 100000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(1000, cache.getSize());
+    }
+    
+    @Test
+    public void testExpiredSweptFromUnboundedRegion() throws InterruptedException {
+        final BoundedCache cache = new BoundedCache("test", 0, 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        
+        Thread.sleep(100);
+        
+        //Never looked up again, the puts alone must clear them out
+        for (int i = 1000; i < 3000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(1000, cache.getExpirationCount());
+        assertTrue(cache.getSize() <= 2000);
+    }
+    
+    private static final class CollidingKey {
+        private final int id;
+        
+        public CollidingKey(int id) {
+            this.id = id;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CollidingKey && ((CollidingKey) obj).id == this.id;
+        }
+    }
+}
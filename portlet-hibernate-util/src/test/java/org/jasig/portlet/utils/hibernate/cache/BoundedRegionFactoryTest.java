@@ -0,0 +1,137 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+import javax.persistence.Cacheable;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedRegionFactoryTest {
+    private static final String REGION = Preference.class.getName();
+    
+    private SessionFactory sessionFactory;
+    
+    @Before
+    public void setup() {
+        final StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+            .applySetting(AvailableSettings.URL, "jdbc:h2:mem:BoundedRegionFactoryTest")
+            .applySetting(AvailableSettings.USER, "sa")
+            .applySetting(AvailableSettings.DIALECT, org.hibernate.dialect.H2Dialect.class.getName())
+            .applySetting(AvailableSettings.HBM2DDL_AUTO, "create")
+            .applySetting(AvailableSettings.SESSION_FACTORY_NAME, "BoundedRegionFactoryTest")
+            .applySetting(AvailableSettings.SESSION_FACTORY_NAME_IS_JNDI, false)
+            .applySetting(AvailableSettings.USE_SECOND_LEVEL_CACHE, true)
+            .applySetting(AvailableSettings.CACHE_REGION_FACTORY, BoundedRegionFactory.class.getName())
+            .applySetting(BoundedRegionFactory.MAX_ENTRIES + "." + REGION, 2)
+            .build();
+        sessionFactory = new MetadataSources(registry)
+            .addAnnotatedClass(Preference.class)
+            .buildMetadata()
+            .buildSessionFactory();
+        
+        final Session session = sessionFactory.openSession();
+        session.getTransaction().begin();
+        for (int i = 0; i < 3; i++) {
+            final Preference preference = new Preference();
+            preference.id = i;
+            preference.data = "value-" + i;
+            session.persist(preference);
+        }
+        session.getTransaction().commit();
+        session.close();
+    }
+    
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+    
+    @Test
+    public void testEntitiesCached() throws Exception {
+        final BoundedCache cache = getCache();
+        assertEquals(2, cache.getMaxEntries());
+        cache.clear();
+        cache.resetStatistics();
+        
+        load(0);
+        load(0);
+        assertEquals(1, cache.getPutCount());
+        assertEquals(1, cache.getHitCount());
+        
+        //Region is limited to 2 entries
+        load(1);
+        load(2);
+        assertTrue(cache.getSize() <= 2);
+        assertTrue(cache.getEvictionCount() >= 1);
+        
+        final ObjectName objectName = ObjectName.getInstance(
+                "org.jasig.portlet.utils.hibernate.cache:type=CacheRegion,sessionFactory=\"BoundedRegionFactoryTest\",name=" + ObjectName.quote(REGION));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "HitCount"));
+    }
+    
+    private BoundedCache getCache() {
+        final BoundedRegionFactory regionFactory = (BoundedRegionFactory) sessionFactory.getSessionFactoryOptions()
+            .getServiceRegistry().getService(org.hibernate.cache.spi.RegionFactory.class);
+        for (final BoundedCache cache : regionFactory.getCaches()) {
+            if (REGION.equals(cache.getRegionName())) {
+                return cache;
+            }
+        }
+        throw new AssertionError("No cache for region " + REGION);
+    }
+    
+    private void load(int id) {
+        final Session session = sessionFactory.openSession();
+        try {
+            assertNotNull(session.get(Preference.class, id));
+        }
+        finally {
+            session.close();
+        }
+    }
+    
+    @Entity(name = "Preference")
+    @Cacheable
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Preference {
+        @Id
+        private int id;
+        
+        private String data;
+    }
+}
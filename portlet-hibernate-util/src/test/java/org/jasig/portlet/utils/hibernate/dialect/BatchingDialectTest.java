@@ -0,0 +1,143 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import org.hibernate.Session;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.jasig.portlet.utils.hibernate.id.PooledSequenceGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Checks each dialect against H2, in the matching compatibility mode, generates
+ * <code>native</code> ids from a pooled sequence and batches the inserts.
+ */
+@RunWith(Parameterized.class)
+public class BatchingDialectTest {
+    private static final int ROWS = 120;
+    
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> dialects() {
+        return Arrays.asList(new Object[][] {
+            { H2Dialect.class, "", true },
+            { HSQLDialect.class, ";MODE=HSQLDB", true },
+            { PostgreSQL95Dialect.class, ";MODE=PostgreSQL", true },
+            { MySQL57Dialect.class, ";MODE=MySQL", true },
+            //H2 doesn't understand the MariaDB nextval(sequence) function
+            { MariaDB103Dialect.class, ";MODE=MariaDB", false },
+            { Oracle12cDialect.class, ";MODE=Oracle", true },
+        });
+    }
+    
+    private final Class<?> dialect;
+    private final String mode;
+    private final boolean sequencesSupported;
+    private SessionFactoryImplementor sessionFactory;
+    
+    public BatchingDialectTest(Class<?> dialect, String mode, boolean sequencesSupported) {
+        this.dialect = dialect;
+        this.mode = mode;
+        this.sequencesSupported = sequencesSupported;
+    }
+    
+    @Before
+    public void setup() {
+        final StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+            .applySetting(AvailableSettings.URL, "jdbc:h2:mem:" + dialect.getSimpleName() + mode)
+            .applySetting(AvailableSettings.USER, "sa")
+            .applySetting(AvailableSettings.DIALECT, dialect.getName())
+            .applySetting(AvailableSettings.HBM2DDL_AUTO, "create")
+            .applySetting(AvailableSettings.GENERATE_STATISTICS, true)
+            .build();
+        sessionFactory = (SessionFactoryImplementor) new MetadataSources(registry)
+            .addAnnotatedClass(Item.class)
+            .buildMetadata()
+            .buildSessionFactory();
+    }
+    
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+    
+    @Test
+    public void testNativeIdsFromPooledSequence() {
+        final IdentifierGenerator generator = sessionFactory.getIdentifierGenerator(Item.class.getName());
+        assertEquals(PooledSequenceGenerator.class, generator.getClass());
+        assertEquals(PooledSequenceGenerator.DEFAULT_INCREMENT_SIZE, ((PooledSequenceGenerator) generator).getOptimizer().getIncrementSize());
+        assertEquals(50, sessionFactory.getSessionFactoryOptions().getJdbcBatchSize());
+    }
+    
+    @Test
+    public void testInsertsBatched() {
+        assumeTrue(sequencesSupported);
+        
+        final Session session = sessionFactory.openSession();
+        try {
+            session.getTransaction().begin();
+            for (int i = 0; i < ROWS; i++) {
+                final Item item = new Item();
+                item.name = "item-" + i;
+                session.persist(item);
+            }
+            session.getTransaction().commit();
+            
+            final long count = session.createQuery("select count(distinct id) from Item", Long.class).uniqueResult();
+            assertEquals(ROWS, count);
+        }
+        finally {
+            session.close();
+        }
+        
+        //One insert statement per batch plus a few sequence calls, rather than one each per row
+        final long statements = sessionFactory.getStatistics().getPrepareStatementCount();
+        assertTrue("Expected batched inserts but prepared " + statements + " statements", statements < 10);
+    }
+    
+    @Entity(name = "Item")
+    public static class Item {
+        @Id
+        @GeneratedValue(generator = "itemGenerator")
+        @GenericGenerator(name = "itemGenerator", strategy = "native")
+        private Long id;
+        
+        private String name;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.hibernate.dialect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.spi.JdbcServices;
+import org.hibernate.type.descriptor.java.StringTypeDescriptor;
+import org.hibernate.type.descriptor.sql.BlobTypeDescriptor;
+import org.hibernate.type.descriptor.sql.ClobTypeDescriptor;
+import org.hibernate.type.descriptor.sql.SqlTypeDescriptor;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks the column types and LOB binding of {@link Oracle10gDialect} with its settings
+ * on and off. No database is needed, the dialect is only configured.
+ */
+public class Oracle10gDialectTest {
+    private StandardServiceRegistry registry;
+    
+    @After
+    public void tearDown() {
+        StandardServiceRegistryBuilder.destroy(this.registry);
+    }
+    
+    @Test
+    public void testDefaultTypeNames() {
+        final Dialect dialect = configure(false, false);
+        assertEquals("varchar2(4000 char)", dialect.getTypeName(Types.VARCHAR, 4000, 0, 0));
+        assertEquals("clob", dialect.getTypeName(Types.VARCHAR, 5000, 0, 0));
+        assertEquals("raw(2000)", dialect.getTypeName(Types.VARBINARY, 2000, 0, 0));
+        assertEquals("blob", dialect.getTypeName(Types.VARBINARY, 3000, 0, 0));
+    }
+    
+    @Test
+    public void testExtendedStringSizeTypeNames() {
+        final Dialect dialect = configure(true, false);
+        assertEquals("varchar2(5000 char)", dialect.getTypeName(Types.VARCHAR, 5000, 0, 0));
+        assertEquals("raw(3000)", dialect.getTypeName(Types.VARBINARY, 3000, 0, 0));
+        //Beyond the extended size they are still LOBs
+        assertEquals("clob", dialect.getTypeName(Types.VARCHAR, Oracle10gDialect.EXTENDED_MAX_LENGTH + 1, 0, 0));
+        assertEquals("blob", dialect.getTypeName(Types.VARBINARY, Oracle10gDialect.EXTENDED_MAX_LENGTH + 1, 0, 0));
+    }
+    
+    @Test
+    public void testLobsBoundThroughLocatorsByDefault() throws Exception {
+        final Dialect dialect = configure(false, false);
+        assertNotSame(BlobTypeDescriptor.PRIMITIVE_ARRAY_BINDING, dialect.remapSqlTypeDescriptor(BlobTypeDescriptor.DEFAULT));
+        assertNotEquals("setString", bindString(dialect.remapSqlTypeDescriptor(ClobTypeDescriptor.DEFAULT)));
+    }
+    
+    @Test
+    public void testInlineLobBinding() throws Exception {
+        final Dialect dialect = configure(false, true);
+        assertSame(BlobTypeDescriptor.PRIMITIVE_ARRAY_BINDING, dialect.remapSqlTypeDescriptor(BlobTypeDescriptor.DEFAULT));
+        assertEquals("setString", bindString(dialect.remapSqlTypeDescriptor(ClobTypeDescriptor.DEFAULT)));
+        //Type names are unaffected
+        assertEquals("clob", dialect.getTypeName(Types.VARCHAR, 5000, 0, 0));
+    }
+    
+    private Dialect configure(boolean extendedStringSize, boolean inlineLobBinding) {
+        this.registry = new StandardServiceRegistryBuilder()
+            .applySetting(AvailableSettings.DIALECT, Oracle10gDialect.class.getName())
+            .applySetting("hibernate.temp.use_jdbc_metadata_defaults", false)
+            .applySetting(Oracle10gDialect.EXTENDED_STRING_SIZE, extendedStringSize)
+            .applySetting(Oracle10gDialect.INLINE_LOB_BINDING, inlineLobBinding)
+            .build();
+        //Building the metadata contributes the dialect's types
+        new MetadataSources(this.registry).buildMetadata();
+        return this.registry.getService(JdbcServices.class).getDialect();
+    }
+    
+    /**
+     * @return The name of the {@link PreparedStatement} method a <code>String</code> is bound with
+     */
+    private static String bindString(SqlTypeDescriptor descriptor) throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        final PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+                Oracle10gDialectTest.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        calls.add(method.getName());
+                        return null;
+                    }
+                });
+        descriptor.getBinder(StringTypeDescriptor.INSTANCE).bind(statement, "value", 1, null);
+        assertEquals(calls.toString(), 1, calls.size());
+        return calls.get(0);
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolConfiguration;
+
+/**
+ * Adjusts a Tomcat pool's <code>maxActive</code> and <code>minIdle</code> at runtime,
+ * within configured bounds, based on observed demand. The pool is sampled every
+ * <code>sampleInterval</code>; every <code>adjustInterval</code> the sizer:
+ * <ul>
+ * <li>grows <code>maxActive</code> by a quarter if any thread waited for a connection,
+ * or if the 95th percentile of the borrow waits reported by the pool's
+ * {@link ConnectionPoolHealthSampler} (when health sampling is on) during the interval
+ * exceeds <code>borrowWaitThreshold</code></li>
+ * <li>shrinks it by a quarter once peak use has stayed below half of it for
+ * <code>shrinkAfter</code> consecutive intervals, never below the observed peak</li>
+ * </ul>
+ * and moves <code>minIdle</code> towards the observed peak. Unless the upper bounds
+ * are set, both default to the <code>maxActive</code> the pool was configured with,
+ * so the pool never grows beyond its configuration. With a
+ * {@link ConnectionPoolRegistry} growth is also limited by the connection budget for the
+ * pool's URL. Decisions are logged and
+ * published through {@link AdaptivePoolSizerMXBean}.
+ * <p>
+ * Growing beyond the <code>maxActive</code> the pool was created with relies on the
+ * pool's idle queue being unbounded, which it is with <code>fairQueue</code> (the
+ * default).
+ * <p>
+ * Sampling and resizing run on the {@link ConnectionPoolRegistry#getScheduler() scheduler}
+ * shared by all pools.
+ * 
+ * @see TomcatDataSourceFactory#setAdaptivePoolSizer(AdaptivePoolSizer)
+ */
+public class AdaptivePoolSizer implements AdaptivePoolSizerMXBean {
+    
+    public static final long DEFAULT_SAMPLE_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    public static final long DEFAULT_ADJUST_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_BORROW_WAIT_THRESHOLD = 50;
+    public static final int DEFAULT_SHRINK_AFTER = 10;
+    
+    private static final int RECENT_DECISIONS = 20;
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private int maxActiveLowerBound = 1;
+    private int maxActiveUpperBound = 0;
+    private int minIdleLowerBound = 0;
+    private int minIdleUpperBound = 0;
+    private long sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+    private long adjustInterval = DEFAULT_ADJUST_INTERVAL;
+    private long borrowWaitThreshold = DEFAULT_BORROW_WAIT_THRESHOLD;
+    private int shrinkAfter = DEFAULT_SHRINK_AFTER;
+    
+    private ConnectionPoolRegistry connectionPoolRegistry;
+    
+    private String poolName;
+    private DataSource dataSource;
+    private ScheduledFuture<?> sampleTask;
+    private ScheduledFuture<?> adjustTask;
+    
+    //Guarded by this
+    private int peakActive = 0;
+    private int peakWaiting = 0;
+    private int quietIntervals = 0;
+    private long borrowWaitMark = 0;
+    private long growCount = 0;
+    private long shrinkCount = 0;
+    private final Deque<String> recentDecisions = new ArrayDeque<String>(RECENT_DECISIONS);
+
+    public void setMaxActiveLowerBound(int maxActiveLowerBound) {
+        this.maxActiveLowerBound = maxActiveLowerBound;
+    }
+
+    /**
+     * @param maxActiveUpperBound Largest <code>maxActive</code> the pool may grow to,
+     *            defaults to the <code>maxActive</code> the pool was configured with
+     */
+    public void setMaxActiveUpperBound(int maxActiveUpperBound) {
+        this.maxActiveUpperBound = maxActiveUpperBound;
+    }
+
+    public void setMinIdleLowerBound(int minIdleLowerBound) {
+        this.minIdleLowerBound = minIdleLowerBound;
+    }
+
+    /**
+     * @param minIdleUpperBound Largest <code>minIdle</code> the pool may be given,
+     *            defaults to the <code>maxActive</code> the pool was configured with
+     */
+    public void setMinIdleUpperBound(int minIdleUpperBound) {
+        this.minIdleUpperBound = minIdleUpperBound;
+    }
+
+    /**
+     * @param sampleInterval Milliseconds between samples of the pool, defaults to
+     *            {@link #DEFAULT_SAMPLE_INTERVAL}
+     */
+    public void setSampleInterval(long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * @param adjustInterval Milliseconds between sizing decisions, defaults to
+     *            {@link #DEFAULT_ADJUST_INTERVAL}
+     */
+    public void setAdjustInterval(long adjustInterval) {
+        this.adjustInterval = adjustInterval;
+    }
+
+    /**
+     * @param borrowWaitThreshold 95th percentile borrow wait, in milliseconds, above
+     *            which the pool grows; defaults to {@link #DEFAULT_BORROW_WAIT_THRESHOLD}
+     */
+    public void setBorrowWaitThreshold(long borrowWaitThreshold) {
+        this.borrowWaitThreshold = borrowWaitThreshold;
+    }
+
+    /**
+     * @param shrinkAfter Number of consecutive quiet intervals before the pool shrinks,
+     *            defaults to {@link #DEFAULT_SHRINK_AFTER}
+     */
+    public void setShrinkAfter(int shrinkAfter) {
+        this.shrinkAfter = shrinkAfter;
+    }
+    
+    /**
+     * @param connectionPoolRegistry If set, the pool only grows as far as the connection
+     *            budget for its URL allows
+     */
+    public void setConnectionPoolRegistry(ConnectionPoolRegistry connectionPoolRegistry) {
+        this.connectionPoolRegistry = connectionPoolRegistry;
+    }
+    
+    /**
+     * Starts sizing the pool on the shared scheduler.
+     */
+    public synchronized void start(String poolName, DataSource dataSource) {
+        if (this.sampleTask != null) {
+            return;
+        }
+        this.poolName = poolName;
+        this.dataSource = dataSource;
+        
+        final int configuredMaxActive = dataSource.getPoolProperties().getMaxActive();
+        if (this.maxActiveUpperBound <= 0) {
+            this.maxActiveUpperBound = configuredMaxActive;
+        }
+        if (this.minIdleUpperBound <= 0) {
+            this.minIdleUpperBound = configuredMaxActive;
+        }
+        
+        final ScheduledExecutorService scheduler = ConnectionPoolRegistry.getInstance().getScheduler();
+        this.sampleTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Failed to sample connection pool: " + AdaptivePoolSizer.this.poolName, e);
+                }
+            }
+        }, this.sampleInterval, this.sampleInterval, TimeUnit.MILLISECONDS);
+        this.adjustTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    adjust();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Failed to adjust connection pool: " + AdaptivePoolSizer.this.poolName, e);
+                }
+            }
+        }, this.adjustInterval, this.adjustInterval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stops sizing the pool; the shared scheduler keeps running the other pools' tasks.
+     */
+    public synchronized void stop() {
+        if (this.sampleTask != null) {
+            this.sampleTask.cancel(false);
+            this.adjustTask.cancel(false);
+            this.sampleTask = null;
+            this.adjustTask = null;
+        }
+    }
+    
+    /**
+     * Records the pool's current use. Called every <code>sampleInterval</code> once started.
+     */
+    public void sample() {
+        final ConnectionPool pool = this.dataSource.getPool();
+        if (pool == null) {
+            return;
+        }
+        
+        final int active = pool.getActive();
+        final int waiting = pool.getWaitCount();
+        synchronized (this) {
+            this.peakActive = Math.max(this.peakActive, active);
+            this.peakWaiting = Math.max(this.peakWaiting, waiting);
+        }
+    }
+    
+    /**
+     * Resizes the pool based on the use recorded since the last call. Called every
+     * <code>adjustInterval</code> once started.
+     */
+    public synchronized void adjust() {
+        if (this.dataSource.getPool() == null) {
+            return;
+        }
+        
+        final PoolConfiguration poolProperties = this.dataSource.getPoolProperties();
+        final int maxActive = poolProperties.getMaxActive();
+        final int minIdle = poolProperties.getMinIdle();
+        final double borrowWait = getBorrowWait95thPercentile();
+        
+        final int observedActive = this.peakActive;
+        final int observedWaiting = this.peakWaiting;
+        this.peakActive = 0;
+        this.peakWaiting = 0;
+        
+        final String reason;
+        int newMaxActive = maxActive;
+        int newMinIdle = minIdle;
+        final int upperBound = getUpperBound(poolProperties);
+        if ((observedWaiting > 0 || borrowWait > this.borrowWaitThreshold) && maxActive < upperBound) {
+            this.quietIntervals = 0;
+            newMaxActive = (int) Math.min((long) upperBound, (long) maxActive + step(maxActive));
+            newMinIdle = Math.max(minIdle, observedActive);
+            reason = "grew: " + observedWaiting + " waiting, 95th percentile borrow wait " + borrowWait + "ms";
+            this.growCount++;
+        }
+        else if (observedActive < maxActive / 2 && ++this.quietIntervals >= this.shrinkAfter && maxActive > this.maxActiveLowerBound) {
+            this.quietIntervals = 0;
+            newMaxActive = Math.max(Math.max(this.maxActiveLowerBound, observedActive + 1), maxActive - step(maxActive));
+            newMinIdle = Math.min(minIdle, observedActive);
+            reason = "shrank: peak " + observedActive + " active for " + this.shrinkAfter + " intervals";
+            this.shrinkCount++;
+        }
+        else {
+            if (observedActive >= maxActive / 2) {
+                this.quietIntervals = 0;
+            }
+            return;
+        }
+        
+        newMinIdle = Math.max(this.minIdleLowerBound, Math.min(Math.min(this.minIdleUpperBound, newMaxActive), newMinIdle));
+        if (newMaxActive == maxActive && newMinIdle == minIdle) {
+            return;
+        }
+        
+        poolProperties.setMaxActive(newMaxActive);
+        poolProperties.setMinIdle(newMinIdle);
+        if (poolProperties.getMaxIdle() < newMinIdle) {
+            poolProperties.setMaxIdle(newMinIdle);
+        }
+        else if (poolProperties.getMaxIdle() > newMaxActive && newMaxActive < maxActive) {
+            poolProperties.setMaxIdle(newMaxActive);
+        }
+        
+        final String decision = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()) + " " + reason 
+                + "; maxActive " + maxActive + " -> " + newMaxActive + ", minIdle " + minIdle + " -> " + newMinIdle;
+        logger.info("Resized connection pool " + this.poolName + ", " + decision);
+        if (this.recentDecisions.size() == RECENT_DECISIONS) {
+            this.recentDecisions.removeFirst();
+        }
+        this.recentDecisions.addLast(decision);
+    }
+    
+    private int getUpperBound(PoolConfiguration poolProperties) {
+        if (this.connectionPoolRegistry == null) {
+            return this.maxActiveUpperBound;
+        }
+        final long available = this.connectionPoolRegistry.getAvailableConnections(poolProperties.getUrl());
+        return (int) Math.min((long) this.maxActiveUpperBound, poolProperties.getMaxActive() + available);
+    }
+    
+    private static int step(int maxActive) {
+        return Math.max(1, maxActive / 4);
+    }
+    
+    /**
+     * @return The 95th percentile of the borrow waits recorded since the last call
+     */
+    private double getBorrowWait95thPercentile() {
+        final ConnectionPoolHealthSampler sampler = ConnectionPoolHealthSampler.getSampler(this.poolName);
+        if (sampler == null) {
+            return 0;
+        }
+        final long mark = sampler.getBorrowWaitMark();
+        //A mark from before the sampler was replaced doesn't apply to it
+        final long fromMark = mark < this.borrowWaitMark ? 0 : this.borrowWaitMark;
+        final double borrowWait = sampler.getBorrowWaitPercentileMillis(fromMark, mark, 95);
+        this.borrowWaitMark = mark;
+        return borrowWait;
+    }
+
+    @Override
+    public String getPoolName() {
+        return this.poolName;
+    }
+
+    @Override
+    public int getMaxActive() {
+        return this.dataSource != null ? this.dataSource.getPoolProperties().getMaxActive() : 0;
+    }
+
+    @Override
+    public int getMinIdle() {
+        return this.dataSource != null ? this.dataSource.getPoolProperties().getMinIdle() : 0;
+    }
+
+    @Override
+    public int getMaxActiveLowerBound() {
+        return this.maxActiveLowerBound;
+    }
+
+    @Override
+    public int getMaxActiveUpperBound() {
+        return this.maxActiveUpperBound;
+    }
+
+    @Override
+    public int getMinIdleLowerBound() {
+        return this.minIdleLowerBound;
+    }
+
+    @Override
+    public int getMinIdleUpperBound() {
+        return this.minIdleUpperBound;
+    }
+
+    @Override
+    public synchronized long getGrowCount() {
+        return this.growCount;
+    }
+
+    @Override
+    public synchronized long getShrinkCount() {
+        return this.shrinkCount;
+    }
+
+    @Override
+    public synchronized String[] getRecentDecisions() {
+        return this.recentDecisions.toArray(new String[this.recentDecisions.size()]);
+    }
+}
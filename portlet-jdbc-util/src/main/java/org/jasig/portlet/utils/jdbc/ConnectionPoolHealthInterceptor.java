@@ -0,0 +1,73 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.lang.reflect.Method;
+
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.JdbcInterceptor;
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+
+/**
+ * Reports connection borrows and returns to the {@link ConnectionPoolHealthSampler}
+ * registered for the pool, if there is one.
+ */
+public class ConnectionPoolHealthInterceptor extends JdbcInterceptor {
+    
+    private ConnectionPoolHealthSampler sampler;
+    private PooledConnection connection;
+
+    @Override
+    public void reset(ConnectionPool parent, PooledConnection con) {
+        if (parent == null || con == null) {
+            this.sampler = null;
+            this.connection = null;
+            return;
+        }
+        
+        this.sampler = ConnectionPoolHealthSampler.getSampler(parent.getName());
+        this.connection = con;
+        if (this.sampler != null) {
+            this.sampler.connectionBorrowed(con);
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (compare(CLOSE_VAL, method)) {
+            returned();
+        }
+        return super.invoke(proxy, method, args);
+    }
+
+    @Override
+    public void disconnected(ConnectionPool parent, PooledConnection con, boolean finalizing) {
+        returned();
+        super.disconnected(parent, con, finalizing);
+    }
+    
+    private void returned() {
+        final ConnectionPoolHealthSampler sampler = this.sampler;
+        final PooledConnection connection = this.connection;
+        if (sampler != null && connection != null) {
+            sampler.connectionReturned(connection);
+        }
+        this.connection = null;
+    }
+}
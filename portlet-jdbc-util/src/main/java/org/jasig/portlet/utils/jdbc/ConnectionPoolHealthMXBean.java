@@ -0,0 +1,63 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+/**
+ * Recent history of a connection pool, as recorded by a
+ * {@link ConnectionPoolHealthSampler}. Histories are oldest first.
+ * 
+ */
+public interface ConnectionPoolHealthMXBean {
+
+    String getPoolName();
+
+    int getSampleCount();
+
+    int[] getActiveHistory();
+
+    int[] getIdleHistory();
+
+    int[] getWaitingHistory();
+
+    int getMaxActive();
+
+    int getMaxWaiting();
+
+    double getMedianBorrowWaitMillis();
+
+    double get95thPercentileBorrowWaitMillis();
+
+    double get99thPercentileBorrowWaitMillis();
+
+    double getMaxBorrowWaitMillis();
+
+    /**
+     * @return The number of connections currently held longer than the leak
+     *         detection threshold
+     */
+    int getSuspectedLeakCount();
+
+    /**
+     * @return For each connection currently held longer than the leak detection
+     *         threshold, the thread that borrowed it and the stack trace of the
+     *         borrow
+     */
+    String[] getSuspectedLeaks();
+
+}
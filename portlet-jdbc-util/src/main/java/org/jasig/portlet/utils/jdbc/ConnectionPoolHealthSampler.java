@@ -0,0 +1,396 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+
+/**
+ * Periodically samples the active, idle and waiting counts of a Tomcat
+ * connection pool into a ring buffer, keeps the most recent borrow wait times,
+ * and flags connections held longer than a threshold. A flagged connection
+ * shows the stack of the thread that borrowed it at the time it was flagged,
+ * which costs nothing until then. Optionally the stack of every borrow is
+ * captured instead, so a flagged connection shows where it was borrowed even
+ * if its thread has moved on; see {@link #setCaptureBorrowStackTrace(boolean)}.
+ * Samples are taken on the {@link ConnectionPoolRegistry#getScheduler()
+ * scheduler} shared by all pools.
+ * <p>
+ * Borrow wait times are reported by {@link HealthSampledDataSource}, and
+ * borrows and returns by {@link ConnectionPoolHealthInterceptor}, which finds
+ * its sampler by pool name; {@link TomcatDataSourceFactory} wires both up when
+ * its <code>healthSampleInterval</code> is set.
+ */
+public class ConnectionPoolHealthSampler implements ConnectionPoolHealthMXBean {
+    
+    /**
+     * Default number of samples, and of borrow wait times, kept.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 300;
+    
+    private static final ConcurrentMap<String, ConnectionPoolHealthSampler> SAMPLERS = new ConcurrentHashMap<String, ConnectionPoolHealthSampler>();
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private final String poolName;
+    private final DataSource dataSource;
+    private final ConcurrentMap<PooledConnection, Borrow> borrowed = new ConcurrentHashMap<PooledConnection, Borrow>();
+    
+    // Ring buffers, guarded by this
+    private final int[] active;
+    private final int[] idle;
+    private final int[] waiting;
+    private int sampleCount = 0;
+    private int nextSample = 0;
+    private final long[] borrowWaits;
+    private long borrowWaitTotal = 0;
+    
+    private long leakDetectionThresholdNanos = 0L;
+    private boolean captureBorrowStackTrace = false;
+    private ScheduledFuture<?> sampleTask;
+    
+    /**
+     * @return The sampler started for the named pool, or <code>null</code>
+     */
+    public static ConnectionPoolHealthSampler getSampler(String poolName) {
+        return SAMPLERS.get(poolName);
+    }
+    
+    public ConnectionPoolHealthSampler(String poolName, DataSource dataSource) {
+        this(poolName, dataSource, DEFAULT_BUFFER_SIZE);
+    }
+    
+    public ConnectionPoolHealthSampler(String poolName, DataSource dataSource, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be at least 1: " + bufferSize);
+        }
+        this.poolName = poolName;
+        this.dataSource = dataSource;
+        this.active = new int[bufferSize];
+        this.idle = new int[bufferSize];
+        this.waiting = new int[bufferSize];
+        this.borrowWaits = new long[bufferSize];
+    }
+    
+    /**
+     * @param leakDetectionThreshold Milliseconds a connection may be held before it is
+     *            flagged as a suspected leak, 0 to disable leak detection
+     */
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakDetectionThreshold);
+    }
+    
+    /**
+     * @param captureBorrowStackTrace If <code>true</code> and leak detection is enabled,
+     *            the stack of every borrow is captured so a flagged connection shows where
+     *            it was borrowed. This fills in a stack trace on each borrow; by default
+     *            only the stack of the borrowing thread is taken, once the connection is
+     *            flagged.
+     */
+    public void setCaptureBorrowStackTrace(boolean captureBorrowStackTrace) {
+        this.captureBorrowStackTrace = captureBorrowStackTrace;
+    }
+    
+    /**
+     * Registers this sampler under its pool name and starts sampling on the
+     * shared scheduler.
+     * 
+     * @param sampleInterval Milliseconds between samples
+     */
+    public synchronized void start(long sampleInterval) {
+        if (this.sampleTask != null) {
+            return;
+        }
+        
+        SAMPLERS.put(this.poolName, this);
+        
+        this.sampleTask = ConnectionPoolRegistry.getInstance().getScheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Failed to sample connection pool: " + poolName, e);
+                }
+            }
+        }, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stops sampling and unregisters this sampler.
+     */
+    public synchronized void stop() {
+        if (this.sampleTask != null) {
+            this.sampleTask.cancel(false);
+            this.sampleTask = null;
+        }
+        SAMPLERS.remove(this.poolName, this);
+        this.borrowed.clear();
+    }
+    
+    /**
+     * Records the state of the pool and flags connections held too long. Called
+     * periodically once started.
+     */
+    public void sample() {
+        final ConnectionPool pool = this.dataSource.getPool();
+        if (pool == null) {
+            //Pool not created yet
+            return;
+        }
+        
+        synchronized (this) {
+            this.active[this.nextSample] = pool.getActive();
+            this.idle[this.nextSample] = pool.getIdle();
+            this.waiting[this.nextSample] = pool.getWaitCount();
+            this.nextSample = (this.nextSample + 1) % this.active.length;
+            this.sampleCount = Math.min(this.sampleCount + 1, this.active.length);
+        }
+        
+        if (this.leakDetectionThresholdNanos > 0) {
+            final long now = System.nanoTime();
+            for (final Borrow borrow : this.borrowed.values()) {
+                if (borrow.stackTrace == null && now - borrow.borrowedAt > this.leakDetectionThresholdNanos) {
+                    borrow.stackTrace = borrow.captureStackTrace();
+                    logger.warn("Suspected connection leak in pool " + this.poolName + ": " + borrow.describe(now));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Records the time a thread waited for a connection, whether or not it got one.
+     */
+    public void recordBorrowWait(long nanos) {
+        synchronized (this) {
+            this.borrowWaits[(int) (this.borrowWaitTotal % this.borrowWaits.length)] = nanos;
+            this.borrowWaitTotal++;
+        }
+    }
+    
+    /**
+     * @return A mark for {@link #getBorrowWaitPercentileMillis(long, long, int)}: the
+     *         number of borrow waits recorded so far
+     */
+    public synchronized long getBorrowWaitMark() {
+        return this.borrowWaitTotal;
+    }
+    
+    /**
+     * @param fromMark Mark taken at the start of the period
+     * @param toMark Mark taken at the end of the period
+     * @param percentile Percentile, 1 to 100
+     * @return The percentile of the borrow waits recorded between the marks, in
+     *         milliseconds; only the most recent waits are kept, so if there were more
+     *         than the buffer size it is computed from the last of them. 0 if there were
+     *         none.
+     */
+    public double getBorrowWaitPercentileMillis(long fromMark, long toMark, int percentile) {
+        final long[] waits;
+        synchronized (this) {
+            final long from = Math.max(fromMark, this.borrowWaitTotal - Math.min(this.borrowWaitTotal, this.borrowWaits.length));
+            final long to = Math.min(toMark, this.borrowWaitTotal);
+            waits = new long[(int) Math.max(0, to - from)];
+            for (int i = 0; i < waits.length; i++) {
+                waits[i] = this.borrowWaits[(int) ((from + i) % this.borrowWaits.length)];
+            }
+        }
+        return percentile(waits, percentile);
+    }
+    
+    /**
+     * Records that the current thread borrowed the connection, and where from if leak
+     * detection is enabled and borrow stack traces are captured.
+     */
+    public void connectionBorrowed(PooledConnection connection) {
+        final Throwable borrowedFrom = this.captureBorrowStackTrace && this.leakDetectionThresholdNanos > 0 
+                ? new Throwable("Borrowed here") : null;
+        this.borrowed.put(connection, new Borrow(Thread.currentThread(), System.nanoTime(), borrowedFrom));
+    }
+    
+    /**
+     * Records that the connection was returned to (or removed from) the pool.
+     */
+    public void connectionReturned(PooledConnection connection) {
+        this.borrowed.remove(connection);
+    }
+
+    @Override
+    public String getPoolName() {
+        return this.poolName;
+    }
+
+    @Override
+    public synchronized int getSampleCount() {
+        return this.sampleCount;
+    }
+
+    @Override
+    public synchronized int[] getActiveHistory() {
+        return history(this.active);
+    }
+
+    @Override
+    public synchronized int[] getIdleHistory() {
+        return history(this.idle);
+    }
+
+    @Override
+    public synchronized int[] getWaitingHistory() {
+        return history(this.waiting);
+    }
+
+    @Override
+    public synchronized int getMaxActive() {
+        return max(this.active);
+    }
+
+    @Override
+    public synchronized int getMaxWaiting() {
+        return max(this.waiting);
+    }
+
+    @Override
+    public double getMedianBorrowWaitMillis() {
+        return borrowWaitPercentile(50);
+    }
+
+    @Override
+    public double get95thPercentileBorrowWaitMillis() {
+        return borrowWaitPercentile(95);
+    }
+
+    @Override
+    public double get99thPercentileBorrowWaitMillis() {
+        return borrowWaitPercentile(99);
+    }
+
+    @Override
+    public double getMaxBorrowWaitMillis() {
+        return borrowWaitPercentile(100);
+    }
+
+    @Override
+    public int getSuspectedLeakCount() {
+        int count = 0;
+        for (final Borrow borrow : this.borrowed.values()) {
+            if (borrow.stackTrace != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String[] getSuspectedLeaks() {
+        final long now = System.nanoTime();
+        final List<String> leaks = new ArrayList<String>();
+        for (final Borrow borrow : this.borrowed.values()) {
+            if (borrow.stackTrace != null) {
+                leaks.add(borrow.describe(now));
+            }
+        }
+        return leaks.toArray(new String[leaks.size()]);
+    }
+    
+    private int[] history(int[] buffer) {
+        final int[] result = new int[this.sampleCount];
+        final int start = this.sampleCount < buffer.length ? 0 : this.nextSample;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buffer[(start + i) % buffer.length];
+        }
+        return result;
+    }
+    
+    private int max(int[] buffer) {
+        int result = 0;
+        for (int i = 0; i < this.sampleCount; i++) {
+            result = Math.max(result, buffer[i]);
+        }
+        return result;
+    }
+    
+    private double borrowWaitPercentile(int percentile) {
+        return getBorrowWaitPercentileMillis(0, Long.MAX_VALUE, percentile);
+    }
+    
+    private static double percentile(long[] waits, int percentile) {
+        if (waits.length == 0) {
+            return 0;
+        }
+        Arrays.sort(waits);
+        final int index = (int) Math.ceil(waits.length * percentile / 100.0) - 1;
+        return waits[Math.max(index, 0)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    
+    private static String formatStackTrace(StackTraceElement[] stackTrace) {
+        final StringBuilder builder = new StringBuilder();
+        for (final StackTraceElement element : stackTrace) {
+            builder.append("\n\tat ").append(element);
+        }
+        return builder.toString();
+    }
+    
+    private static final class Borrow {
+        private final Thread thread;
+        private final String threadName;
+        private final long borrowedAt;
+        private final Throwable borrowedFrom;
+        private volatile String stackTrace;
+        
+        public Borrow(Thread thread, long borrowedAt, Throwable borrowedFrom) {
+            this.thread = thread;
+            this.threadName = thread.getName();
+            this.borrowedAt = borrowedAt;
+            this.borrowedFrom = borrowedFrom;
+        }
+        
+        /**
+         * @return Where the connection was borrowed if that was captured, otherwise
+         *         what the borrowing thread is doing now
+         */
+        public String captureStackTrace() {
+            if (this.borrowedFrom != null) {
+                return " at" + formatStackTrace(this.borrowedFrom.getStackTrace());
+            }
+            final StackTraceElement[] current = this.thread.getStackTrace();
+            if (current.length == 0) {
+                return ", which has since terminated";
+            }
+            return ", which is now at" + formatStackTrace(current);
+        }
+        
+        public String describe(long now) {
+            return "held " + TimeUnit.NANOSECONDS.toMillis(now - this.borrowedAt) + "ms, borrowed by thread '" 
+                    + this.threadName + "'" + this.stackTrace;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolConfiguration;
+
+/**
+ * Registry of connection pools that limits the total <code>maxActive</code> of the pools
+ * connecting to the same JDBC URL to a connection budget.
+ * <p>
+ * If a budget is set for the pool's URL and the <code>maxActive</code> the pools were
+ * configured with add up to more than it, each pool gets a share of the budget
+ * proportional to its configured <code>maxActive</code>, and its <code>initialSize</code>,
+ * <code>maxIdle</code> and <code>minIdle</code> are lowered to fit. Shares are
+ * recalculated whenever a pool joins or leaves. Pools should join before they are
+ * created, so that they never open more connections than their share.
+ * <p>
+ * Pool cleaning is left to tomcat-jdbc, whose pool cleaners already share one timer
+ * thread. The health samplers and adaptive sizers of all pools share the registry's
+ * {@link #getScheduler() scheduler}, so they add one thread in all rather than one or two
+ * per pool.
+ * <p>
+ * There is one registry per class loader, see {@link #getInstance()}. For the pools of
+ * several webapps to share a registry, portlet-jdbc-util must be loaded by a class loader
+ * they share, for example Tomcat's <code>shared/lib</code>.
+ * 
+ * @see TomcatDataSourceFactory#setJoinConnectionPoolRegistry(boolean)
+ */
+public class ConnectionPoolRegistry {
+    
+    private static final ConnectionPoolRegistry INSTANCE = new ConnectionPoolRegistry();
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    //All guarded by this
+    private final Map<String, Member> members = new LinkedHashMap<String, Member>();
+    private final Map<String, Integer> budgets = new HashMap<String, Integer>();
+    private ScheduledThreadPoolExecutor scheduler;
+    
+    public static ConnectionPoolRegistry getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * @return The scheduler pools run their periodic tasks on, whether or not they joined
+     *         the registry. Its one daemon thread exits when no tasks have been scheduled
+     *         for a minute, so cancel tasks rather than shutting it down.
+     */
+    public synchronized ScheduledExecutorService getScheduler() {
+        if (this.scheduler == null) {
+            this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "ConnectionPoolRegistry-Scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.scheduler.setKeepAliveTime(1, TimeUnit.MINUTES);
+            this.scheduler.allowCoreThreadTimeOut(true);
+            //Cancelled tasks of stopped pools would otherwise stay queued until they are due
+            this.scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return this.scheduler;
+    }
+    
+    /**
+     * Adds the pool to the registry, replacing any pool already registered under the same
+     * name. The pool need not have been created yet.
+     * 
+     * @param connectionBudget Maximum total connections for all pools using the pool's URL,
+     *            0 to leave it unset. If pools declare different budgets for a URL the
+     *            smallest applies.
+     */
+    public synchronized void join(String poolName, DataSource dataSource, int connectionBudget) {
+        if (this.members.containsKey(poolName)) {
+            leave(poolName);
+        }
+        
+        final PoolConfiguration poolProperties = dataSource.getPoolProperties();
+        final String url = poolProperties.getUrl();
+        
+        if (connectionBudget > 0) {
+            final Integer budget = this.budgets.get(url);
+            if (budget == null || connectionBudget < budget) {
+                this.budgets.put(url, connectionBudget);
+            }
+        }
+        
+        final Member member = new Member(poolName, url, poolProperties, poolProperties.getMaxActive());
+        this.members.put(poolName, member);
+        logger.info("Connection pool " + poolName + " joined the connection pool registry");
+        
+        rebalance(url);
+    }
+    
+    /**
+     * Removes the pool from the registry; the pools still using its URL get their shares of
+     * the budget back.
+     */
+    public synchronized void leave(String poolName) {
+        final Member member = this.members.remove(poolName);
+        if (member == null) {
+            return;
+        }
+        
+        logger.info("Connection pool " + poolName + " left the connection pool registry");
+        rebalance(member.url);
+    }
+    
+    /**
+     * @return The connections the pools using the URL may still add to their
+     *         <code>maxActive</code> without exceeding the URL's budget,
+     *         {@link Integer#MAX_VALUE} if there is no budget
+     */
+    public synchronized int getAvailableConnections(String url) {
+        final Integer budget = this.budgets.get(url);
+        if (budget == null) {
+            return Integer.MAX_VALUE;
+        }
+        
+        int allocated = 0;
+        for (final Member member : getMembers(url)) {
+            allocated += member.poolProperties.getMaxActive();
+        }
+        return Math.max(0, budget - allocated);
+    }
+    
+    /**
+     * @return The budget for the URL, 0 if there is none
+     */
+    public synchronized int getConnectionBudget(String url) {
+        final Integer budget = this.budgets.get(url);
+        return budget != null ? budget : 0;
+    }
+    
+    public synchronized Set<String> getPoolNames() {
+        return Collections.unmodifiableSet(new TreeSet<String>(this.members.keySet()));
+    }
+    
+    /**
+     * Sets the <code>maxActive</code> of each pool using the URL to its configured value,
+     * or to its share of the URL's budget if the configured values add up to more.
+     */
+    protected void rebalance(String url) {
+        final List<Member> urlMembers = getMembers(url);
+        final Integer budget = this.budgets.get(url);
+        if (urlMembers.isEmpty()) {
+            this.budgets.remove(url);
+            return;
+        }
+        
+        long requested = 0;
+        for (final Member member : urlMembers) {
+            requested += member.configuredMaxActive;
+        }
+        
+        for (final Member member : urlMembers) {
+            int maxActive = member.configuredMaxActive;
+            if (budget != null && requested > budget) {
+                maxActive = (int) Math.max(1, budget * (long) member.configuredMaxActive / requested);
+            }
+            
+            final PoolConfiguration poolProperties = member.poolProperties;
+            if (poolProperties.getMaxActive() != maxActive) {
+                logger.info("Setting maxActive of connection pool " + member.poolName + " to " + maxActive 
+                        + ", the pools using " + url + " request " + requested + " connections against a budget of " + budget);
+                poolProperties.setMaxActive(maxActive);
+                poolProperties.setMaxIdle(Math.min(poolProperties.getMaxIdle(), maxActive));
+                poolProperties.setMinIdle(Math.min(poolProperties.getMinIdle(), maxActive));
+                //Only used when the pool is created, so never raised again
+                poolProperties.setInitialSize(Math.min(poolProperties.getInitialSize(), maxActive));
+            }
+        }
+    }
+    
+    private List<Member> getMembers(String url) {
+        final List<Member> result = new ArrayList<Member>();
+        for (final Member member : this.members.values()) {
+            if (url == null ? member.url == null : url.equals(member.url)) {
+                result.add(member);
+            }
+        }
+        return result;
+    }
+    
+    private static final class Member {
+        private final String poolName;
+        private final String url;
+        private final PoolConfiguration poolProperties;
+        private final int configuredMaxActive;
+        
+        public Member(String poolName, String url, PoolConfiguration poolProperties, int configuredMaxActive) {
+            this.poolName = poolName;
+            this.url = url;
+            this.poolProperties = poolProperties;
+            this.configuredMaxActive = configuredMaxActive;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Fills a connection pool by borrowing connections in parallel on a bounded number of
+ * threads, optionally limiting the rate at which connections are opened, and then
+ * returning them all. Every connection is held until all have been borrowed, so each
+ * borrow opens a new one.
+ */
+public class ConnectionPoolWarmer {
+    
+    /**
+     * Default number of connections opened at once.
+     */
+    public static final int DEFAULT_THREADS = 4;
+    
+    /**
+     * Default milliseconds to wait for the pool to fill.
+     */
+    public static final long DEFAULT_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private int threads = DEFAULT_THREADS;
+    private double connectionsPerSecond = 0;
+    private long timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * @param threads Number of connections opened at once, defaults to {@link #DEFAULT_THREADS}
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param connectionsPerSecond Maximum rate at which connections are opened, 0 (the
+     *            default) for no limit
+     */
+    public void setConnectionsPerSecond(double connectionsPerSecond) {
+        this.connectionsPerSecond = connectionsPerSecond;
+    }
+
+    /**
+     * @param timeout Milliseconds to wait for the pool to fill, defaults to {@link #DEFAULT_TIMEOUT}
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * Opens the connections and returns them to the pool.
+     * 
+     * @param dataSource The pool to fill
+     * @param connections Number of connections to open
+     * @return The number of connections opened
+     * @throws SQLException The first failure to open a connection, if none could be opened
+     */
+    public int warmUp(DataSource dataSource, int connections) throws SQLException {
+        return warmUp(null, dataSource, connections);
+    }
+    
+    /**
+     * Opens the connections and returns them to the pool.
+     * 
+     * @param poolName Name of the pool, used in the names of the threads opening the connections
+     * @param dataSource The pool to fill
+     * @param connections Number of connections to open
+     * @return The number of connections opened
+     * @throws SQLException The first failure to open a connection, if none could be opened
+     */
+    public int warmUp(String poolName, DataSource dataSource, int connections) throws SQLException {
+        if (connections <= 0) {
+            return 0;
+        }
+        
+        final String threadNamePrefix = "ConnectionPoolWarmer-" + (poolName != null ? poolName + "-" : "");
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.threads, connections)), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, threadNamePrefix + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+        final long intervalNanos = this.connectionsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / this.connectionsPerSecond) : 0;
+        final AtomicLong nextStart = new AtomicLong(System.nanoTime());
+        final BorrowedConnections borrowed = new BorrowedConnections();
+        final List<Future<?>> futures = new ArrayList<Future<?>>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (intervalNanos > 0) {
+                            final long start = nextStart.getAndAdd(intervalNanos);
+                            final long delay = start - System.nanoTime();
+                            if (delay > 0) {
+                                TimeUnit.NANOSECONDS.sleep(delay);
+                            }
+                        }
+                        borrowed.add(dataSource.getConnection());
+                        return null;
+                    }
+                }));
+            }
+            
+            final SQLException failure = await(futures, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout));
+            final int opened = borrowed.closeAll();
+            
+            if (opened == 0 && failure != null) {
+                throw failure;
+            }
+            if (opened < connections) {
+                logger.warn("Opened only " + opened + " of " + connections + " connections while warming up connection pool", failure);
+            }
+            return opened;
+        }
+        finally {
+            executor.shutdownNow();
+            //Return anything borrowed after the timeout
+            borrowed.closeAll();
+        }
+    }
+    
+    /**
+     * @return The first failure to open a connection, if any
+     */
+    private SQLException await(List<Future<?>> futures, long deadline) {
+        SQLException failure = null;
+        for (final Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (failure == null) {
+                    failure = cause instanceof SQLException ? (SQLException) cause : new SQLException(cause);
+                }
+            }
+            catch (TimeoutException e) {
+                logger.warn("Timed out warming up connection pool after " + this.timeout + "ms");
+                return failure;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return failure;
+            }
+        }
+        return failure;
+    }
+    
+    /**
+     * Connections held until the warm-up is over; any added after that are closed at once.
+     */
+    private final class BorrowedConnections {
+        private final List<Connection> connections = new ArrayList<Connection>();
+        private int opened = 0;
+        private boolean closed = false;
+        
+        public void add(Connection connection) throws SQLException {
+            synchronized (this) {
+                if (!this.closed) {
+                    this.connections.add(connection);
+                    this.opened++;
+                    return;
+                }
+            }
+            connection.close();
+        }
+        
+        /**
+         * @return The number of connections opened before this was first called
+         */
+        public synchronized int closeAll() {
+            this.closed = true;
+            for (final Connection connection : this.connections) {
+                try {
+                    connection.close();
+                }
+                catch (SQLException e) {
+                    logger.warn("Failed to return connection to pool after warming it up", e);
+                }
+            }
+            this.connections.clear();
+            return this.opened;
+        }
+    }
+}
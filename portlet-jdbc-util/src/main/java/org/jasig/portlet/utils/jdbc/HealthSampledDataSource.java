@@ -0,0 +1,72 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolConfiguration;
+
+/**
+ * Tomcat {@link DataSource} that reports how long each borrow takes to a
+ * {@link ConnectionPoolHealthSampler}, including borrows that fail or time out,
+ * which are the ones that matter most when the pool is exhausted.
+ */
+class HealthSampledDataSource extends DataSource {
+    
+    private volatile ConnectionPoolHealthSampler sampler;
+
+    public HealthSampledDataSource(PoolConfiguration poolProperties) {
+        super(poolProperties);
+    }
+    
+    public void setSampler(ConnectionPoolHealthSampler sampler) {
+        this.sampler = sampler;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        final long start = System.nanoTime();
+        try {
+            return super.getConnection();
+        }
+        finally {
+            recordBorrowWait(start);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        final long start = System.nanoTime();
+        try {
+            return super.getConnection(username, password);
+        }
+        finally {
+            recordBorrowWait(start);
+        }
+    }
+    
+    private void recordBorrowWait(long start) {
+        final ConnectionPoolHealthSampler sampler = this.sampler;
+        if (sampler != null) {
+            sampler.recordBorrowWait(System.nanoTime() - start);
+        }
+    }
+}
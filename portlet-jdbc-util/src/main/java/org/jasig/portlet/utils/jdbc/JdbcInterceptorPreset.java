@@ -0,0 +1,64 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sets of tomcat-jdbc interceptors for common needs, see
+ * {@link TomcatDataSourceFactory#setInterceptorPreset(JdbcInterceptorPreset)}.
+ */
+public enum JdbcInterceptorPreset {
+    /**
+     * No interceptors beyond those configured explicitly.
+     */
+    NONE,
+    
+    /**
+     * Caches connection state to skip redundant driver calls, and caches up to 500
+     * prepared statements across the pool so repeated SQL skips the prepare.
+     */
+    HIGH_THROUGHPUT(
+            "org.apache.tomcat.jdbc.pool.interceptor.ConnectionState",
+            "org.apache.tomcat.jdbc.pool.interceptor.StatementCache(prepared=true,callable=false,max=500)"),
+    
+    /**
+     * Keeps busy connections from being abandoned while they are in use, and reports
+     * queries slower than one second (and failed queries) via the log and JMX.
+     */
+    DIAGNOSTIC(
+            "org.apache.tomcat.jdbc.pool.interceptor.ConnectionState",
+            "org.apache.tomcat.jdbc.pool.interceptor.ResetAbandonedTimer",
+            "org.apache.tomcat.jdbc.pool.interceptor.SlowQueryReportJmx(threshold=1000,maxQueries=1000,logSlow=true,logFailed=true)");
+    
+    private final List<String> interceptors;
+    
+    private JdbcInterceptorPreset(String... interceptors) {
+        this.interceptors = Collections.unmodifiableList(Arrays.asList(interceptors));
+    }
+    
+    /**
+     * @return The interceptor definitions, as they appear in <code>jdbcInterceptors</code>
+     */
+    public List<String> getInterceptors() {
+        return this.interceptors;
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link DelayedValidationQueryResolver} that connects once, looks at the
+ * {@link DatabaseMetaData} and picks the cheapest way to validate connections to
+ * that database.
+ * <p>
+ * If the driver implements {@link Connection#isValid(int)} (JDBC 4) no validation
+ * query is registered: Tomcat's pool validates with <code>isValid</code> when
+ * there is no validation query, which most drivers implement as a protocol-level
+ * ping. Otherwise, or when <code>preferIsValid</code> is <code>false</code>, the
+ * query for the database product is registered, after checking that it runs.
+ * <p>
+ * If the database can't be reached when the callback is registered, resolution is
+ * retried in the background every <code>retryInterval</code> milliseconds until it
+ * succeeds.
+ */
+public class MetaDataValidationQueryResolver implements DelayedValidationQueryResolver {
+    
+    /**
+     * Default seconds to wait for <code>isValid</code> or the validation query.
+     */
+    public static final int DEFAULT_VALIDATION_TIMEOUT = 5;
+    
+    /**
+     * Default milliseconds between attempts to connect.
+     */
+    public static final long DEFAULT_RETRY_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    
+    /**
+     * Validation queries by (lower case) fragment of the database product name,
+     * checked in order. MySQL's driver answers queries starting with
+     * <code>/* ping *&#47;</code> with a protocol-level ping.
+     */
+    private static final Map<String, String> VALIDATION_QUERIES = new LinkedHashMap<String, String>();
+    static {
+        VALIDATION_QUERIES.put("oracle", "SELECT 1 FROM DUAL");
+        VALIDATION_QUERIES.put("mysql", "/* ping */ SELECT 1");
+        VALIDATION_QUERIES.put("mariadb", "/* ping */ SELECT 1");
+        VALIDATION_QUERIES.put("postgresql", "SELECT 1");
+        VALIDATION_QUERIES.put("microsoft sql server", "SELECT 1");
+        VALIDATION_QUERIES.put("sybase", "SELECT 1");
+        VALIDATION_QUERIES.put("adaptive server", "SELECT 1");
+        VALIDATION_QUERIES.put("db2", "SELECT 1 FROM SYSIBM.SYSDUMMY1");
+        VALIDATION_QUERIES.put("hsql", "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+        VALIDATION_QUERIES.put("h2", "SELECT 1");
+        VALIDATION_QUERIES.put("derby", "VALUES 1");
+        VALIDATION_QUERIES.put("firebird", "SELECT 1 FROM RDB$DATABASE");
+        VALIDATION_QUERIES.put("informix", "SELECT 1 FROM SYSTABLES WHERE TABID = 1");
+    }
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private boolean preferIsValid = true;
+    private int validationTimeout = DEFAULT_VALIDATION_TIMEOUT;
+    private long retryInterval = DEFAULT_RETRY_INTERVAL;
+    private ScheduledExecutorService retryExecutor;
+    private boolean destroyed = false;
+    
+    /**
+     * @param preferIsValid If <code>true</code> (the default), drivers that implement
+     *            {@link Connection#isValid(int)} are left to validate with it
+     */
+    public void setPreferIsValid(boolean preferIsValid) {
+        this.preferIsValid = preferIsValid;
+    }
+
+    /**
+     * @param validationTimeout Seconds to wait when checking <code>isValid</code> or
+     *            the validation query, defaults to {@link #DEFAULT_VALIDATION_TIMEOUT}
+     */
+    public void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    /**
+     * @param retryInterval Milliseconds between attempts to connect, defaults to
+     *            {@link #DEFAULT_RETRY_INTERVAL}
+     */
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+    
+    /**
+     * Stops any background retries.
+     */
+    public synchronized void destroy() {
+        this.destroyed = true;
+        if (this.retryExecutor != null) {
+            this.retryExecutor.shutdownNow();
+            this.retryExecutor = null;
+        }
+    }
+
+    @Override
+    public void registerValidationQueryCallback(final DataSource dataSource,
+            final ValidationQueryRegistrationHandler validationQueryRegistrationHandler) {
+        
+        try {
+            resolve(dataSource, validationQueryRegistrationHandler);
+        }
+        catch (SQLException e) {
+            logger.warn("Failed to connect to resolve the validation query, will retry every " + this.retryInterval + "ms", e);
+            scheduleRetry(dataSource, validationQueryRegistrationHandler);
+        }
+    }
+    
+    /**
+     * Connects and registers the validation query, if one is needed.
+     */
+    protected void resolve(DataSource dataSource, ValidationQueryRegistrationHandler validationQueryRegistrationHandler) throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            final String productName = metaData.getDatabaseProductName();
+            
+            if (this.preferIsValid && supportsIsValid(connection)) {
+                logger.info("Validating connections to " + productName + " with Connection.isValid");
+                return;
+            }
+            
+            final String validationQuery = getValidationQuery(productName);
+            if (validationQuery == null) {
+                logger.warn("No validation query known for database " + productName + ", connections will not be validated with a query");
+                return;
+            }
+            
+            if (!runs(connection, validationQuery)) {
+                return;
+            }
+            validationQueryRegistrationHandler.setValidationQuery(validationQuery);
+        }
+        finally {
+            connection.close();
+        }
+    }
+    
+    /**
+     * @return The validation query for the database product, <code>null</code> if none is known
+     */
+    protected String getValidationQuery(String databaseProductName) {
+        if (databaseProductName == null) {
+            return null;
+        }
+        
+        final String name = databaseProductName.toLowerCase(Locale.ENGLISH);
+        for (final Map.Entry<String, String> entry : VALIDATION_QUERIES.entrySet()) {
+            if (name.contains(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+    
+    protected boolean supportsIsValid(Connection connection) {
+        try {
+            return connection.isValid(this.validationTimeout);
+        }
+        catch (AbstractMethodError e) {
+            //Pre-JDBC 4 driver
+            return false;
+        }
+        catch (SQLException e) {
+            //Includes SQLFeatureNotSupportedException
+            return false;
+        }
+    }
+    
+    protected boolean runs(Connection connection, String validationQuery) {
+        try {
+            final Statement statement = connection.createStatement();
+            try {
+                statement.setQueryTimeout(this.validationTimeout);
+                statement.execute(validationQuery);
+                return true;
+            }
+            finally {
+                statement.close();
+            }
+        }
+        catch (SQLException e) {
+            logger.warn("Validation query '" + validationQuery + "' failed, connections will not be validated with a query", e);
+            return false;
+        }
+    }
+    
+    protected synchronized void scheduleRetry(final DataSource dataSource,
+            final ValidationQueryRegistrationHandler validationQueryRegistrationHandler) {
+        
+        if (this.destroyed) {
+            return;
+        }
+        if (this.retryExecutor == null) {
+            this.retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "MetaDataValidationQueryResolver");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        this.retryExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolve(dataSource, validationQueryRegistrationHandler);
+                }
+                catch (SQLException e) {
+                    logger.debug("Still failing to connect to resolve the validation query", e);
+                    scheduleRetry(dataSource, validationQueryRegistrationHandler);
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Failed to resolve the validation query", e);
+                }
+            }
+        }, this.retryInterval, TimeUnit.MILLISECONDS);
+    }
+}
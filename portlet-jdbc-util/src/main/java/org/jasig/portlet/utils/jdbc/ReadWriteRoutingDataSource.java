@@ -0,0 +1,314 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link javax.sql.DataSource} that sends read-only work to read replicas and
+ * everything else to the primary database.
+ * <p>
+ * The {@link Connection}s returned are lazy: no pooled connection is borrowed until
+ * the first statement (or other call that needs the database), so that
+ * {@link Connection#setReadOnly(boolean)} called before then, as Spring's transaction
+ * managers do for read-only transactions, can decide where it goes. A connection is
+ * also routed to a replica if the current Spring transaction is read-only (when
+ * spring-tx is present). Among the replicas, the pool with the fewest active and
+ * waiting connections is chosen; if it fails to provide a connection the primary is
+ * used instead.
+ * 
+ * @see ReadWriteRoutingDataSourceFactory
+ */
+public class ReadWriteRoutingDataSource implements javax.sql.DataSource {
+    
+    private static final boolean SPRING_TX_PRESENT = ClassUtils.isPresent(
+            "org.springframework.transaction.support.TransactionSynchronizationManager", 
+            ReadWriteRoutingDataSource.class.getClassLoader());
+    
+    protected final Log logger = LogFactory.getLog(getClass());
+    
+    private final DataSource writeDataSource;
+    private final List<DataSource> readDataSources;
+    private final AtomicInteger nextRead = new AtomicInteger();
+    
+    public ReadWriteRoutingDataSource(DataSource writeDataSource, List<DataSource> readDataSources) {
+        if (writeDataSource == null) {
+            throw new IllegalArgumentException("writeDataSource cannot be null");
+        }
+        this.writeDataSource = writeDataSource;
+        this.readDataSources = new ArrayList<DataSource>(readDataSources);
+    }
+    
+    public DataSource getWriteDataSource() {
+        return this.writeDataSource;
+    }
+    
+    public List<DataSource> getReadDataSources() {
+        return new ArrayList<DataSource>(this.readDataSources);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return createLazyConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return createLazyConnection(username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.writeDataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        this.writeDataSource.setLogWriter(out);
+        for (final DataSource readDataSource : this.readDataSources) {
+            readDataSource.setLogWriter(out);
+        }
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.writeDataSource.setLoginTimeout(seconds);
+        for (final DataSource readDataSource : this.readDataSources) {
+            readDataSource.setLoginTimeout(seconds);
+        }
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.writeDataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+    
+    protected Connection createLazyConnection(String username, String password) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), 
+                new Class<?>[] { Connection.class }, new LazyConnectionHandler(username, password));
+    }
+    
+    /**
+     * Borrows a connection from the pool the work should go to.
+     */
+    protected Connection borrowConnection(boolean readOnly, String username, String password) throws SQLException {
+        if (readOnly || isCurrentTransactionReadOnly()) {
+            final DataSource readDataSource = selectReadDataSource();
+            if (readDataSource != null) {
+                try {
+                    return borrowConnection(readDataSource, username, password);
+                }
+                catch (SQLException e) {
+                    logger.warn("Failed to get a connection from read pool " + readDataSource.getPoolName() + ", using the write pool", e);
+                }
+            }
+        }
+        return borrowConnection(this.writeDataSource, username, password);
+    }
+    
+    /**
+     * @return The read pool with the fewest active and waiting connections, rotating
+     *         between equally loaded pools; <code>null</code> if there are none
+     */
+    protected DataSource selectReadDataSource() {
+        final int size = this.readDataSources.size();
+        if (size == 0) {
+            return null;
+        }
+        
+        final int start = (this.nextRead.getAndIncrement() & Integer.MAX_VALUE) % size;
+        DataSource selected = null;
+        int selectedLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            final DataSource readDataSource = this.readDataSources.get((start + i) % size);
+            final int load = readDataSource.getActive() + readDataSource.getWaitCount();
+            if (load < selectedLoad) {
+                selected = readDataSource;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+    
+    private Connection borrowConnection(DataSource dataSource, String username, String password) throws SQLException {
+        return username == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+    }
+    
+    private boolean isCurrentTransactionReadOnly() {
+        return SPRING_TX_PRESENT && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+    
+    /**
+     * Holds back the connection settings that decide routing until the connection is
+     * actually needed.
+     */
+    private final class LazyConnectionHandler implements InvocationHandler {
+        private final String username;
+        private final String password;
+        private Connection target;
+        private boolean closed = false;
+        private boolean readOnly = false;
+        private boolean readOnlyApplied = false;
+        private Boolean autoCommit;
+        private Integer transactionIsolation;
+        
+        public LazyConnectionHandler(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(proxy)) {
+                return proxy;
+            }
+            if ("isWrapperFor".equals(name) && ((Class<?>) args[0]).isInstance(proxy)) {
+                return true;
+            }
+            
+            if (this.target == null) {
+                if ("toString".equals(name)) {
+                    return "Lazy connection from " + ReadWriteRoutingDataSource.this + (this.readOnly ? " (read-only)" : "");
+                }
+                if ("close".equals(name)) {
+                    this.closed = true;
+                    return null;
+                }
+                if ("isClosed".equals(name)) {
+                    return this.closed;
+                }
+                if (this.closed) {
+                    throw new SQLException("Connection is closed");
+                }
+                if ("setReadOnly".equals(name)) {
+                    this.readOnly = (Boolean) args[0];
+                    return null;
+                }
+                if ("isReadOnly".equals(name)) {
+                    return this.readOnly;
+                }
+                if ("setAutoCommit".equals(name)) {
+                    this.autoCommit = (Boolean) args[0];
+                    return null;
+                }
+                if ("getAutoCommit".equals(name) && this.autoCommit != null) {
+                    return this.autoCommit;
+                }
+                if ("setTransactionIsolation".equals(name)) {
+                    this.transactionIsolation = (Integer) args[0];
+                    return null;
+                }
+                if ("getTransactionIsolation".equals(name) && this.transactionIsolation != null) {
+                    return this.transactionIsolation;
+                }
+                if ("getWarnings".equals(name) || "clearWarnings".equals(name)) {
+                    return null;
+                }
+                if (("commit".equals(name) || "rollback".equals(name)) && (args == null || args.length == 0)) {
+                    //Nothing done, nothing to commit or roll back
+                    return null;
+                }
+                
+                this.target = borrowConnection(this.readOnly, this.username, this.password);
+                applySettings();
+            }
+            else if ("close".equals(name)) {
+                this.closed = true;
+                resetReadOnly();
+            }
+            
+            try {
+                return method.invoke(this.target, args);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+        
+        private void applySettings() throws SQLException {
+            if (this.readOnly) {
+                this.target.setReadOnly(true);
+                this.readOnlyApplied = true;
+            }
+            if (this.autoCommit != null && this.autoCommit != this.target.getAutoCommit()) {
+                this.target.setAutoCommit(this.autoCommit);
+            }
+            if (this.transactionIsolation != null) {
+                this.target.setTransactionIsolation(this.transactionIsolation);
+            }
+        }
+        
+        /**
+         * Don't return a connection to the pool still read-only because of routing;
+         * it may be from the write pool.
+         */
+        private void resetReadOnly() {
+            if (this.readOnlyApplied) {
+                try {
+                    this.target.setReadOnly(false);
+                }
+                catch (SQLException e) {
+                    logger.debug("Failed to reset read-only flag before returning connection to pool", e);
+                }
+            }
+        }
+    }
+}
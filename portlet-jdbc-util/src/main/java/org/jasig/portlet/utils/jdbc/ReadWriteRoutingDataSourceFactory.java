@@ -0,0 +1,142 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.MBeanServer;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolConfiguration;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.config.AbstractFactoryBean;
+
+/**
+ * Factory bean that creates a {@link ReadWriteRoutingDataSource} with a write pool
+ * for the primary database and a read pool for each replica. Every pool is built by
+ * a {@link TomcatDataSourceFactory} from the same template {@link PoolConfiguration},
+ * with only the URL and name changed, so JMX registration and validation query
+ * resolution work as for a single pool. The pools are named after this bean:
+ * <code>name-write</code>, <code>name-read-0</code>, <code>name-read-1</code>...
+ */
+public class ReadWriteRoutingDataSourceFactory extends AbstractFactoryBean<ReadWriteRoutingDataSource>
+        implements BeanNameAware {
+    
+    private String name;
+    private PoolConfiguration template = new PoolProperties();
+    private String writeUrl;
+    private List<String> readUrls = Collections.emptyList();
+    private MBeanServer mBeanServer;
+    private String baseObjectName;
+    private DelayedValidationQueryResolver delayedValidationQueryResolver;
+    
+    private final List<TomcatDataSourceFactory> factories = new ArrayList<TomcatDataSourceFactory>();
+
+    @Override
+    public void setBeanName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param template Settings for all the pools; its URL and name are ignored
+     */
+    public void setTemplate(PoolConfiguration template) {
+        this.template = template;
+    }
+
+    /**
+     * @param writeUrl JDBC URL of the primary database
+     */
+    public void setWriteUrl(String writeUrl) {
+        this.writeUrl = writeUrl;
+    }
+
+    /**
+     * @param readUrls JDBC URLs of the read replicas; read-only work goes to the
+     *            primary if there are none
+     */
+    public void setReadUrls(List<String> readUrls) {
+        this.readUrls = new ArrayList<String>(readUrls);
+    }
+
+    public void setmBeanServer(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    public void setBaseObjectName(String baseObjectName) {
+        this.baseObjectName = baseObjectName;
+    }
+
+    public void setDelayedValidationQueryResolver(DelayedValidationQueryResolver delayedValidationQueryResolver) {
+        this.delayedValidationQueryResolver = delayedValidationQueryResolver;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return ReadWriteRoutingDataSource.class;
+    }
+
+    @Override
+    protected ReadWriteRoutingDataSource createInstance() throws Exception {
+        if (this.writeUrl == null) {
+            throw new IllegalStateException("writeUrl must be set");
+        }
+        
+        final DataSource writeDataSource = createDataSource(this.name + "-write", this.writeUrl);
+        final List<DataSource> readDataSources = new ArrayList<DataSource>(this.readUrls.size());
+        for (int i = 0; i < this.readUrls.size(); i++) {
+            readDataSources.add(createDataSource(this.name + "-read-" + i, this.readUrls.get(i)));
+        }
+        
+        return new ReadWriteRoutingDataSource(writeDataSource, readDataSources);
+    }
+    
+    protected DataSource createDataSource(String poolName, String url) throws Exception {
+        final TomcatDataSourceFactory factory = new TomcatDataSourceFactory();
+        BeanUtils.copyProperties(this.template, factory, PoolConfiguration.class);
+        factory.setBeanName(poolName);
+        factory.setUrl(url);
+        factory.setBaseObjectName(this.baseObjectName);
+        factory.setDelayedValidationQueryResolver(this.delayedValidationQueryResolver);
+        if (this.mBeanServer != null) {
+            factory.setmBeanServer(this.mBeanServer);
+        }
+        factory.afterPropertiesSet();
+        
+        this.factories.add(factory);
+        return factory.getObject();
+    }
+
+    @Override
+    protected void destroyInstance(ReadWriteRoutingDataSource instance) throws Exception {
+        for (final TomcatDataSourceFactory factory : this.factories) {
+            try {
+                factory.destroy();
+            }
+            catch (Exception e) {
+                logger.warn("Failed to shut down DataSource " + factory.getName(), e);
+            }
+        }
+        this.factories.clear();
+    }
+}
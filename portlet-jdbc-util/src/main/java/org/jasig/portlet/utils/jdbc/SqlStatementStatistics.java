@@ -0,0 +1,91 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the statistics {@link SqlStatistics} keeps for one normalized SQL
+ * statement. Times are in milliseconds.
+ */
+public class SqlStatementStatistics {
+    private final String sql;
+    private final long executionCount;
+    private final long failureCount;
+    private final double totalTime;
+    private final double maxTime;
+    private final double percentile99Time;
+    private final long rowCount;
+
+    @ConstructorProperties({ "sql", "executionCount", "failureCount", "totalTime", "maxTime", "percentile99Time", "rowCount" })
+    public SqlStatementStatistics(String sql, long executionCount, long failureCount, double totalTime, double maxTime,
+            double percentile99Time, long rowCount) {
+        this.sql = sql;
+        this.executionCount = executionCount;
+        this.failureCount = failureCount;
+        this.totalTime = totalTime;
+        this.maxTime = maxTime;
+        this.percentile99Time = percentile99Time;
+        this.rowCount = rowCount;
+    }
+
+    public String getSql() {
+        return this.sql;
+    }
+
+    public long getExecutionCount() {
+        return this.executionCount;
+    }
+
+    /**
+     * @return Executions that threw an exception, included in the execution count
+     */
+    public long getFailureCount() {
+        return this.failureCount;
+    }
+
+    public double getTotalTime() {
+        return this.totalTime;
+    }
+
+    public double getMaxTime() {
+        return this.maxTime;
+    }
+
+    /**
+     * @return 99th percentile execution time, accurate to within 25%
+     */
+    public double getPercentile99Time() {
+        return this.percentile99Time;
+    }
+
+    /**
+     * @return Rows updated, plus rows read from result sets
+     */
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SqlStatementStatistics [sql=" + this.sql + ", executionCount=" + this.executionCount 
+                + ", failureCount=" + this.failureCount + ", totalTime=" + this.totalTime + ", maxTime=" + this.maxTime 
+                + ", percentile99Time=" + this.percentile99Time + ", rowCount=" + this.rowCount + "]";
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates execution count, total, maximum and 99th percentile time, and rows, per
+ * normalized SQL statement for one connection pool. Recording is lock-free: statements
+ * are looked up in a {@link ConcurrentHashMap} and counters are {@link LongAdder}s and
+ * atomics, so statistics can stay on in production.
+ * <p>
+ * Statements are normalized by collapsing whitespace and replacing string and numeric
+ * literals with <code>?</code>, and lists of parameters with a single
+ * <code>(?...)</code>, so the same query with different literals or
+ * <code>IN</code> list lengths is counted once. Once <code>maxStatements</code>
+ * distinct statements are tracked further statements are counted together under
+ * {@link #OTHER_STATEMENTS}.
+ * <p>
+ * Executions are reported by {@link SqlStatisticsInterceptor}, which finds its
+ * statistics by pool name; {@link TomcatDataSourceFactory} wires it up when its
+ * <code>sqlStatistics</code> property is set.
+ */
+public class SqlStatistics implements SqlStatisticsMXBean {
+    
+    /**
+     * Default maximum number of distinct statements tracked.
+     */
+    public static final int DEFAULT_MAX_STATEMENTS = 500;
+    
+    /**
+     * Key under which statements beyond <code>maxStatements</code> are counted.
+     */
+    public static final String OTHER_STATEMENTS = "[other]";
+    
+    private static final ConcurrentMap<String, SqlStatistics> STATISTICS = new ConcurrentHashMap<String, SqlStatistics>();
+    
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    
+    private final String poolName;
+    private final int maxStatements;
+    private final ConcurrentMap<String, Statement> statements = new ConcurrentHashMap<String, Statement>();
+    private final Statement otherStatements = new Statement(OTHER_STATEMENTS);
+    
+    /**
+     * @return The statistics registered for the named pool, or <code>null</code>
+     */
+    public static SqlStatistics getStatistics(String poolName) {
+        return STATISTICS.get(poolName);
+    }
+    
+    public SqlStatistics(String poolName) {
+        this(poolName, DEFAULT_MAX_STATEMENTS);
+    }
+    
+    public SqlStatistics(String poolName, int maxStatements) {
+        if (maxStatements < 1) {
+            throw new IllegalArgumentException("maxStatements must be at least 1: " + maxStatements);
+        }
+        this.poolName = poolName;
+        this.maxStatements = maxStatements;
+    }
+    
+    /**
+     * Registers these statistics under their pool name, so the pool's
+     * {@link SqlStatisticsInterceptor}s record to them.
+     */
+    public void register() {
+        STATISTICS.put(this.poolName, this);
+    }
+    
+    public void unregister() {
+        STATISTICS.remove(this.poolName, this);
+    }
+    
+    /**
+     * @return The statistics for the statement, created if needed. Callers executing the
+     *         same SQL repeatedly should hold on to the result rather than look it up again.
+     */
+    public Statement getStatement(String sql) {
+        final String normalized = normalize(sql);
+        
+        Statement statement = this.statements.get(normalized);
+        if (statement != null) {
+            return statement;
+        }
+        
+        if (this.statements.size() >= this.maxStatements) {
+            return this.otherStatements;
+        }
+        statement = new Statement(normalized);
+        final Statement existing = this.statements.putIfAbsent(normalized, statement);
+        return existing != null ? existing : statement;
+    }
+
+    @Override
+    public String getPoolName() {
+        return this.poolName;
+    }
+
+    @Override
+    public int getStatementCount() {
+        return this.statements.size();
+    }
+
+    @Override
+    public List<SqlStatementStatistics> getStatementStatistics() {
+        final List<SqlStatementStatistics> result = new ArrayList<SqlStatementStatistics>(this.statements.size() + 1);
+        for (final Statement statement : this.statements.values()) {
+            addIfExecuted(result, statement.snapshot());
+        }
+        addIfExecuted(result, this.otherStatements.snapshot());
+        Collections.sort(result, new Comparator<SqlStatementStatistics>() {
+            @Override
+            public int compare(SqlStatementStatistics o1, SqlStatementStatistics o2) {
+                return Double.compare(o2.getTotalTime(), o1.getTotalTime());
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public List<SqlStatementStatistics> getTopStatements(int count) {
+        final List<SqlStatementStatistics> result = getStatementStatistics();
+        return new ArrayList<SqlStatementStatistics>(result.subList(0, Math.max(0, Math.min(count, result.size()))));
+    }
+
+    /**
+     * Zeroes the statistics in place: interceptors hold on to the {@link Statement}s they
+     * looked up, so replacing them would lose whatever those record afterwards.
+     */
+    @Override
+    public void reset() {
+        for (final Statement statement : this.statements.values()) {
+            statement.reset();
+        }
+        this.otherStatements.reset();
+    }
+    
+    private static void addIfExecuted(List<SqlStatementStatistics> result, SqlStatementStatistics statistics) {
+        if (statistics.getExecutionCount() > 0) {
+            result.add(statistics);
+        }
+    }
+    
+    /**
+     * Collapses whitespace and replaces literals and parameter lists, see the class
+     * comment.
+     */
+    public static String normalize(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        
+        final int length = sql.length();
+        final StringBuilder normalized = new StringBuilder(length);
+        boolean parameters = false;
+        int i = 0;
+        while (i < length) {
+            final char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (normalized.length() > 0 && i < length) {
+                    normalized.append(' ');
+                }
+            }
+            else if (c == '\'') {
+                //String literal, '' is an escaped quote
+                i++;
+                while (i < length) {
+                    if (sql.charAt(i++) == '\'') {
+                        if (i < length && sql.charAt(i) == '\'') {
+                            i++;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                }
+                normalized.append('?');
+                parameters = true;
+            }
+            else if (Character.isDigit(c) && !isIdentifierPart(normalized)) {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                normalized.append('?');
+                parameters = true;
+            }
+            else {
+                normalized.append(c);
+                parameters |= c == '?';
+                i++;
+            }
+        }
+        
+        final String result = normalized.toString();
+        return parameters ? PARAMETER_LIST.matcher(result).replaceAll("(?...)") : result;
+    }
+    
+    private static boolean isIdentifierPart(StringBuilder normalized) {
+        if (normalized.length() == 0) {
+            return false;
+        }
+        final char previous = normalized.charAt(normalized.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$' || previous == '"';
+    }
+    
+    /**
+     * Statistics for one normalized statement.
+     */
+    public static final class Statement {
+        // Sub-buckets per power of two, gives percentiles accurate to within 25%
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // Enough for ~12 days in microseconds
+        private static final int BUCKETS = SUB_BUCKETS * 40;
+        
+        private final String sql;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final LongAdder rows = new LongAdder();
+        private final AtomicLongArray micros = new AtomicLongArray(BUCKETS);
+        
+        private Statement(String sql) {
+            this.sql = sql;
+        }
+        
+        public String getSql() {
+            return this.sql;
+        }
+        
+        public void recordExecution(long nanos, boolean failed) {
+            this.executions.increment();
+            if (failed) {
+                this.failures.increment();
+            }
+            this.totalNanos.add(nanos);
+            
+            long max = this.maxNanos.get();
+            while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+                max = this.maxNanos.get();
+            }
+            
+            this.micros.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        }
+        
+        public void recordRows(long count) {
+            if (count > 0) {
+                this.rows.add(count);
+            }
+        }
+        
+        /**
+         * Zeroes the counters; executions recorded meanwhile may be partly kept.
+         */
+        void reset() {
+            this.executions.reset();
+            this.failures.reset();
+            this.totalNanos.reset();
+            this.maxNanos.set(0);
+            this.rows.reset();
+            for (int i = 0; i < BUCKETS; i++) {
+                this.micros.set(i, 0);
+            }
+        }
+        
+        SqlStatementStatistics snapshot() {
+            final double nanosPerMilli = TimeUnit.MILLISECONDS.toNanos(1);
+            final double maxMillis = this.maxNanos.get() / nanosPerMilli;
+            return new SqlStatementStatistics(this.sql, this.executions.sum(), this.failures.sum(), 
+                    this.totalNanos.sum() / nanosPerMilli, maxMillis, Math.min(maxMillis, percentileMicros(99) / 1000.0), 
+                    this.rows.sum());
+        }
+        
+        private long percentileMicros(int percentile) {
+            final long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = this.micros.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            
+            final long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+        
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int shift = exponent - SUB_BUCKET_BITS;
+            final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return Math.min(BUCKETS - 1, SUB_BUCKETS + shift * SUB_BUCKETS + subBucket);
+        }
+        
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            final int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+        }
+    }
+}
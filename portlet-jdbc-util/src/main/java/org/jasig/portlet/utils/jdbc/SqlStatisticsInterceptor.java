@@ -0,0 +1,211 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.apache.tomcat.jdbc.pool.PooledConnection;
+import org.apache.tomcat.jdbc.pool.interceptor.AbstractCreateStatementInterceptor;
+
+/**
+ * Reports statement executions, and the rows they update or return, to the
+ * {@link SqlStatistics} registered for the pool, if there is one. Prepared statements
+ * are normalized and looked up once, when prepared. Rows read from a result set are
+ * recorded when it is exhausted or closed.
+ */
+public class SqlStatisticsInterceptor extends AbstractCreateStatementInterceptor {
+    
+    private static final String GET_RESULT_SET = "getResultSet";
+    private static final String ADD_BATCH = "addBatch";
+    private static final String NEXT = "next";
+    
+    private SqlStatistics statistics;
+
+    @Override
+    public void reset(ConnectionPool parent, PooledConnection con) {
+        this.statistics = parent != null ? SqlStatistics.getStatistics(parent.getName()) : null;
+    }
+
+    @Override
+    public Object createStatement(Object proxy, Method method, Object[] args, Object statement, long time) {
+        final SqlStatistics statistics = this.statistics;
+        if (statistics == null) {
+            return statement;
+        }
+        
+        final String name = method.getName();
+        final Class<?> type;
+        SqlStatistics.Statement prepared = null;
+        if (compare(CREATE_STATEMENT, name)) {
+            type = Statement.class;
+        }
+        else {
+            type = compare(PREPARE_CALL, name) ? CallableStatement.class : PreparedStatement.class;
+            prepared = statistics.getStatement((String) args[0]);
+        }
+        
+        return Proxy.newProxyInstance(SqlStatisticsInterceptor.class.getClassLoader(), new Class<?>[] { type }, 
+                new StatementHandler(statistics, prepared, statement));
+    }
+
+    @Override
+    public void closeInvoked() {
+        //Nothing to clean up
+    }
+    
+    private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+    
+    private final class StatementHandler implements InvocationHandler {
+        private final SqlStatistics statistics;
+        private final SqlStatistics.Statement prepared;
+        private final Object delegate;
+        private SqlStatistics.Statement last;
+        private String batchSql;
+        
+        public StatementHandler(SqlStatistics statistics, SqlStatistics.Statement prepared, Object delegate) {
+            this.statistics = statistics;
+            this.prepared = prepared;
+            this.delegate = delegate;
+            this.last = prepared;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (isExecute(method, false)) {
+                return execute(method, args);
+            }
+            if (this.prepared == null && compare(ADD_BATCH, name) && this.batchSql == null && args != null) {
+                this.batchSql = (String) args[0];
+            }
+            if (compare(EQUALS_VAL, name)) {
+                return proxy == args[0];
+            }
+            if (compare(HASHCODE_VAL, name)) {
+                return System.identityHashCode(proxy);
+            }
+            
+            final Object result = invokeDelegate(this.delegate, method, args);
+            if (result instanceof ResultSet && compare(GET_RESULT_SET, name) && this.last != null) {
+                return countRows((ResultSet) result, this.last);
+            }
+            return result;
+        }
+        
+        private Object execute(Method method, Object[] args) throws Throwable {
+            final SqlStatistics.Statement statement;
+            if (this.prepared != null) {
+                statement = this.prepared;
+            }
+            else if (args != null && args.length > 0 && args[0] instanceof String) {
+                statement = this.statistics.getStatement((String) args[0]);
+            }
+            else {
+                statement = this.statistics.getStatement(this.batchSql);
+                this.batchSql = null;
+            }
+            this.last = statement;
+            
+            final long start = System.nanoTime();
+            final Object result;
+            try {
+                result = invokeDelegate(this.delegate, method, args);
+            }
+            catch (Throwable t) {
+                statement.recordExecution(System.nanoTime() - start, true);
+                throw t;
+            }
+            statement.recordExecution(System.nanoTime() - start, false);
+            
+            if (result instanceof ResultSet) {
+                return countRows((ResultSet) result, statement);
+            }
+            if (result instanceof Integer) {
+                statement.recordRows((Integer) result);
+            }
+            else if (result instanceof int[]) {
+                for (final int count : (int[]) result) {
+                    statement.recordRows(count);
+                }
+            }
+            return result;
+        }
+        
+        private ResultSet countRows(ResultSet resultSet, SqlStatistics.Statement statement) {
+            return (ResultSet) Proxy.newProxyInstance(SqlStatisticsInterceptor.class.getClassLoader(), 
+                    new Class<?>[] { ResultSet.class }, new ResultSetHandler(resultSet, statement));
+        }
+    }
+    
+    private final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet delegate;
+        private final SqlStatistics.Statement statement;
+        private long rows = 0;
+        
+        public ResultSetHandler(ResultSet delegate, SqlStatistics.Statement statement) {
+            this.delegate = delegate;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String name = method.getName();
+            if (compare(EQUALS_VAL, name)) {
+                return proxy == args[0];
+            }
+            if (compare(HASHCODE_VAL, name)) {
+                return System.identityHashCode(proxy);
+            }
+            
+            final Object result = invokeDelegate(this.delegate, method, args);
+            if (compare(NEXT, name)) {
+                if (Boolean.TRUE.equals(result)) {
+                    this.rows++;
+                }
+                else {
+                    flushRows();
+                }
+            }
+            else if (compare(CLOSE_VAL, name)) {
+                flushRows();
+            }
+            return result;
+        }
+        
+        private void flushRows() {
+            this.statement.recordRows(this.rows);
+            this.rows = 0;
+        }
+    }
+}
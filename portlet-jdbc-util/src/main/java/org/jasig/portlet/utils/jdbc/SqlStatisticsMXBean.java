@@ -0,0 +1,54 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import java.util.List;
+
+/**
+ * Per-statement execution statistics of a connection pool, as recorded by
+ * {@link SqlStatistics}.
+ * 
+ */
+public interface SqlStatisticsMXBean {
+
+    String getPoolName();
+
+    /**
+     * @return Number of distinct normalized statements tracked
+     */
+    int getStatementCount();
+
+    /**
+     * @return Statistics for every tracked statement executed since the last reset,
+     *         highest total time first
+     */
+    List<SqlStatementStatistics> getStatementStatistics();
+
+    /**
+     * @return Statistics for the statements with the highest total time
+     */
+    List<SqlStatementStatistics> getTopStatements(int count);
+
+    /**
+     * Zeroes the statistics of every statement. The statements stay tracked, and count
+     * towards the maximum number of statements.
+     */
+    void reset();
+
+}
@@ -18,7 +18,9 @@
  */
 package org.jasig.portlet.utils.jdbc;
 
+import java.sql.SQLException;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectInstance;
@@ -37,7 +39,13 @@ import org.springframework.beans.factory.config.AbstractFactoryBean;
 /**
  * Factory bean that creates a Tomcat Pooled {@link DataSource} instance. Handles JMX
  * registration via an autowired {@link MBeanServer}. Also supports delayed setting of
- * the validation query via {@link DelayedValidationQueryResolver}.
+ * the validation query via {@link DelayedValidationQueryResolver}. Optionally samples
+ * the health of the pool with a {@link ConnectionPoolHealthSampler}, see
+ * {@link #setHealthSampleInterval(long)}. Common tomcat-jdbc interceptors can be
+ * configured with typed properties or a {@link JdbcInterceptorPreset} instead of the
+ * <code>jdbcInterceptors</code> string. With {@link #setWarmUp(boolean)} the
+ * <code>initialSize</code> connections are opened in parallel before the
+ * {@link DataSource} is returned.
  * 
  * @author Eric Dalquist
  */
@@ -48,9 +56,30 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
     private MBeanServer mBeanServer;
     private String baseObjectName;
     private DelayedValidationQueryResolver delayedValidationQueryResolver;
+    private long healthSampleInterval = 0;
+    private int healthSampleBufferSize = ConnectionPoolHealthSampler.DEFAULT_BUFFER_SIZE;
+    private long leakDetectionThreshold = 0;
+    private boolean leakDetectionBorrowStackTrace = false;
+    private JdbcInterceptorPreset interceptorPreset = JdbcInterceptorPreset.NONE;
+    private int statementCacheMax = 0;
+    private long slowQueryThreshold = 0;
+    private boolean resetAbandonedTimer = false;
+    private boolean warmUp = false;
+    private final ConnectionPoolWarmer warmer = new ConnectionPoolWarmer();
+    private long warmUpTime = -1;
+    private AdaptivePoolSizer adaptivePoolSizer;
+    private boolean sqlStatistics = false;
+    private int sqlStatisticsMaxStatements = SqlStatistics.DEFAULT_MAX_STATEMENTS;
+    private boolean joinConnectionPoolRegistry = false;
+    private int connectionBudget = 0;
 
     private ObjectName objectName;
+    private ObjectName healthObjectName;
     private DataSource dataSource;
+    private ConnectionPoolHealthSampler healthSampler;
+    private ObjectName sizerObjectName;
+    private SqlStatistics statistics;
+    private ObjectName statisticsObjectName;
 
     @Override
     public void setBeanName(String name) {
@@ -71,6 +100,164 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
         this.baseObjectName = baseObjectName;
     }
 
+    /**
+     * @param healthSampleInterval Milliseconds between samples of the pool's active, idle
+     *            and waiting counts, 0 (the default) to disable health sampling. When
+     *            enabled, borrow wait times and held connections are tracked as well, and
+     *            the {@link ConnectionPoolHealthSampler} is registered with the
+     *            {@link MBeanServer} alongside the pool.
+     */
+    public void setHealthSampleInterval(long healthSampleInterval) {
+        this.healthSampleInterval = healthSampleInterval;
+    }
+
+    /**
+     * @param healthSampleBufferSize Number of samples, and of borrow wait times, kept.
+     *            Defaults to {@link ConnectionPoolHealthSampler#DEFAULT_BUFFER_SIZE}.
+     */
+    public void setHealthSampleBufferSize(int healthSampleBufferSize) {
+        this.healthSampleBufferSize = healthSampleBufferSize;
+    }
+
+    /**
+     * @param leakDetectionThreshold Milliseconds a connection may be held before it is
+     *            logged, with the stack of the thread that borrowed it, as a suspected
+     *            leak. 0 (the default) disables leak detection. Requires health sampling.
+     */
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    /**
+     * @param leakDetectionBorrowStackTrace If <code>true</code> suspected leaks are logged
+     *            with the stack trace of the borrow instead, at the cost of capturing it on
+     *            every borrow
+     * @see ConnectionPoolHealthSampler#setCaptureBorrowStackTrace(boolean)
+     */
+    public void setLeakDetectionBorrowStackTrace(boolean leakDetectionBorrowStackTrace) {
+        this.leakDetectionBorrowStackTrace = leakDetectionBorrowStackTrace;
+    }
+
+    /**
+     * @param interceptorPreset Interceptors to add to those configured with
+     *            <code>jdbcInterceptors</code> and the typed interceptor properties, which
+     *            take precedence over the preset's. Defaults to
+     *            {@link JdbcInterceptorPreset#NONE}.
+     */
+    public void setInterceptorPreset(JdbcInterceptorPreset interceptorPreset) {
+        this.interceptorPreset = interceptorPreset != null ? interceptorPreset : JdbcInterceptorPreset.NONE;
+    }
+
+    /**
+     * @param statementCacheMax Maximum number of prepared statements cached across the
+     *            pool by the <code>StatementCache</code> interceptor, 0 (the default) to
+     *            leave it unconfigured
+     */
+    public void setStatementCacheMax(int statementCacheMax) {
+        this.statementCacheMax = statementCacheMax;
+    }
+
+    /**
+     * @param slowQueryThreshold Milliseconds after which the <code>SlowQueryReportJmx</code>
+     *            interceptor reports a query as slow, 0 (the default) to leave it
+     *            unconfigured
+     */
+    public void setSlowQueryThreshold(long slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    /**
+     * @param resetAbandonedTimer If <code>true</code> the <code>ResetAbandonedTimer</code>
+     *            interceptor is added, so connections in active use are not abandoned
+     */
+    public void setResetAbandonedTimer(boolean resetAbandonedTimer) {
+        this.resetAbandonedTimer = resetAbandonedTimer;
+    }
+
+    /**
+     * @param warmUp If <code>true</code> the pool's <code>initialSize</code> connections
+     *            are opened in parallel, instead of one at a time, before the
+     *            {@link DataSource} is returned
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * @param warmUpThreads Number of connections opened at once during warm-up,
+     *            defaults to {@link ConnectionPoolWarmer#DEFAULT_THREADS}
+     */
+    public void setWarmUpThreads(int warmUpThreads) {
+        this.warmer.setThreads(warmUpThreads);
+    }
+
+    /**
+     * @param warmUpConnectionsPerSecond Maximum rate at which connections are opened
+     *            during warm-up, 0 (the default) for no limit
+     */
+    public void setWarmUpConnectionsPerSecond(double warmUpConnectionsPerSecond) {
+        this.warmer.setConnectionsPerSecond(warmUpConnectionsPerSecond);
+    }
+
+    /**
+     * @param warmUpTimeout Milliseconds to wait for warm-up to complete, defaults to
+     *            {@link ConnectionPoolWarmer#DEFAULT_TIMEOUT}
+     */
+    public void setWarmUpTimeout(long warmUpTimeout) {
+        this.warmer.setTimeout(warmUpTimeout);
+    }
+
+    /**
+     * @param adaptivePoolSizer If set, adjusts <code>maxActive</code> and <code>minIdle</code>
+     *            at runtime within the sizer's bounds. Enable health sampling as well
+     *            for the sizer to react to borrow latency, not just waiting threads.
+     */
+    public void setAdaptivePoolSizer(AdaptivePoolSizer adaptivePoolSizer) {
+        this.adaptivePoolSizer = adaptivePoolSizer;
+    }
+
+    /**
+     * @param sqlStatistics If <code>true</code> execution count, time and rows are
+     *            aggregated per normalized SQL statement and the {@link SqlStatistics}
+     *            are registered with the {@link MBeanServer} alongside the pool
+     */
+    public void setSqlStatistics(boolean sqlStatistics) {
+        this.sqlStatistics = sqlStatistics;
+    }
+
+    /**
+     * @param sqlStatisticsMaxStatements Maximum number of distinct statements tracked,
+     *            defaults to {@link SqlStatistics#DEFAULT_MAX_STATEMENTS}
+     */
+    public void setSqlStatisticsMaxStatements(int sqlStatisticsMaxStatements) {
+        this.sqlStatisticsMaxStatements = sqlStatisticsMaxStatements;
+    }
+
+    /**
+     * @param joinConnectionPoolRegistry If <code>true</code> the pool joins the
+     *            {@link ConnectionPoolRegistry}, which enforces the connection budget for
+     *            its URL
+     */
+    public void setJoinConnectionPoolRegistry(boolean joinConnectionPoolRegistry) {
+        this.joinConnectionPoolRegistry = joinConnectionPoolRegistry;
+    }
+
+    /**
+     * @param connectionBudget Maximum total connections for all registry pools using this
+     *            pool's URL, 0 (the default) for no limit. Requires
+     *            <code>joinConnectionPoolRegistry</code>.
+     */
+    public void setConnectionBudget(int connectionBudget) {
+        this.connectionBudget = connectionBudget;
+    }
+
+    /**
+     * @return Milliseconds the warm-up took, -1 if the pool was not warmed up
+     */
+    public long getWarmUpTime() {
+        return this.warmUpTime;
+    }
+
     @Override
     public Class<?> getObjectType() {
         return DataSource.class;
@@ -78,7 +265,46 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
 
     @Override
     protected DataSource createInstance() throws Exception {
-        this.dataSource = new DataSource(this.poolConfiguration);
+        configureJdbcInterceptors();
+        
+        if (this.sqlStatistics) {
+            this.statistics = new SqlStatistics(this.poolConfiguration.getName(), this.sqlStatisticsMaxStatements);
+            this.statistics.register();
+            addJdbcInterceptor(SqlStatisticsInterceptor.class.getName());
+        }
+        
+        if (this.healthSampleInterval > 0) {
+            this.dataSource = createHealthSampledDataSource();
+        }
+        else {
+            if (this.leakDetectionThreshold > 0) {
+                logger.warn("leakDetectionThreshold is ignored without a healthSampleInterval, leaks will not be detected for: " + this.poolConfiguration.getName());
+            }
+            this.dataSource = new DataSource(this.poolConfiguration);
+        }
+        
+        //Before warm-up, so the pool is sized to its share of the budget before it fills
+        if (this.joinConnectionPoolRegistry) {
+            getConnectionPoolRegistry().join(this.poolConfiguration.getName(), this.dataSource, this.connectionBudget);
+        }
+        
+        if (this.warmUp) {
+            try {
+                warmUpPool();
+            }
+            catch (SQLException e) {
+                //No instance was created, so it won't be destroyed; release what was started
+                destroyInstance(this.dataSource);
+                throw e;
+            }
+        }
+        
+        if (this.adaptivePoolSizer != null) {
+            if (this.joinConnectionPoolRegistry) {
+                this.adaptivePoolSizer.setConnectionPoolRegistry(getConnectionPoolRegistry());
+            }
+            this.adaptivePoolSizer.start(this.poolConfiguration.getName(), this.dataSource);
+        }
 
         registerWithMBeanServer();
 
@@ -87,6 +313,105 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
         return this.dataSource;
     }
 
+    protected ConnectionPoolRegistry getConnectionPoolRegistry() {
+        return ConnectionPoolRegistry.getInstance();
+    }
+
+    protected DataSource createHealthSampledDataSource() {
+        addJdbcInterceptor(ConnectionPoolHealthInterceptor.class.getName());
+        
+        final HealthSampledDataSource sampledDataSource = new HealthSampledDataSource(this.poolConfiguration);
+        this.healthSampler = new ConnectionPoolHealthSampler(this.poolConfiguration.getName(), sampledDataSource, this.healthSampleBufferSize);
+        this.healthSampler.setLeakDetectionThreshold(this.leakDetectionThreshold);
+        this.healthSampler.setCaptureBorrowStackTrace(this.leakDetectionBorrowStackTrace);
+        sampledDataSource.setSampler(this.healthSampler);
+        this.healthSampler.start(this.healthSampleInterval);
+        
+        return sampledDataSource;
+    }
+
+    protected void warmUpPool() throws SQLException {
+        final int initialSize = this.poolConfiguration.getInitialSize();
+        
+        //Create the pool empty, then fill it in parallel
+        this.poolConfiguration.setInitialSize(0);
+        try {
+            this.dataSource.createPool();
+        }
+        finally {
+            this.poolConfiguration.setInitialSize(initialSize);
+        }
+        
+        //Holding more than maxActive connections would block, the pool's own preload caps it the same way
+        int connections = initialSize;
+        final int maxActive = this.poolConfiguration.getMaxActive();
+        if (connections > maxActive) {
+            logger.warn("initialSize larger than maxActive, warming up DataSource " + this.poolConfiguration.getName() + " with " + maxActive + " connections");
+            connections = maxActive;
+        }
+        
+        final long start = System.nanoTime();
+        try {
+            final int opened = this.warmer.warmUp(this.poolConfiguration.getName(), this.dataSource, connections);
+            this.warmUpTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            logger.info("Warmed up DataSource " + this.poolConfiguration.getName() + " with " + opened + " connections in " + this.warmUpTime + "ms");
+        }
+        catch (SQLException e) {
+            if (!this.poolConfiguration.isIgnoreExceptionOnPreLoad()) {
+                throw e;
+            }
+            logger.warn("Failed to warm up DataSource " + this.poolConfiguration.getName(), e);
+        }
+    }
+
+    /**
+     * Adds the interceptors from the typed properties, then those of the preset, to the
+     * configured <code>jdbcInterceptors</code>. The first definition of an interceptor wins.
+     */
+    protected void configureJdbcInterceptors() {
+        if (this.statementCacheMax > 0) {
+            addJdbcInterceptor("org.apache.tomcat.jdbc.pool.interceptor.StatementCache(prepared=true,callable=false,max=" + this.statementCacheMax + ")");
+        }
+        if (this.slowQueryThreshold > 0) {
+            addJdbcInterceptor("org.apache.tomcat.jdbc.pool.interceptor.SlowQueryReportJmx(threshold=" + this.slowQueryThreshold + ",logSlow=true,logFailed=true)");
+        }
+        if (this.resetAbandonedTimer) {
+            addJdbcInterceptor("org.apache.tomcat.jdbc.pool.interceptor.ResetAbandonedTimer");
+        }
+        for (final String interceptor : this.interceptorPreset.getInterceptors()) {
+            addJdbcInterceptor(interceptor);
+        }
+    }
+
+    /**
+     * Appends the interceptor to the pool's JDBC interceptors, unless it (or another
+     * definition of the same interceptor) is already there
+     */
+    protected void addJdbcInterceptor(String interceptor) {
+        final String jdbcInterceptors = this.poolConfiguration.getJdbcInterceptors();
+        if (jdbcInterceptors == null || jdbcInterceptors.trim().length() == 0) {
+            this.poolConfiguration.setJdbcInterceptors(interceptor);
+            return;
+        }
+        
+        final String name = getInterceptorSimpleName(interceptor);
+        for (final String existing : jdbcInterceptors.split(";")) {
+            if (name.equals(getInterceptorSimpleName(existing))) {
+                return;
+            }
+        }
+        this.poolConfiguration.setJdbcInterceptors(jdbcInterceptors + ";" + interceptor);
+    }
+    
+    private static String getInterceptorSimpleName(String interceptor) {
+        String name = interceptor.trim();
+        final int paramsStart = name.indexOf('(');
+        if (paramsStart >= 0) {
+            name = name.substring(0, paramsStart).trim();
+        }
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
     protected void registerValidationQueryResolver() {
         if (this.dataSource == null) {
             //Nothing to do yet, no data source
@@ -124,19 +449,39 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
         //Make sure there is nothing already in the mbean server
         unregisterWithMBeanServer();
         
+        final String baseName = this.baseObjectName + this.poolConfiguration.getName();
         try {
             final ConnectionPool pool = dataSource.createPool();
-            final org.apache.tomcat.jdbc.pool.jmx.ConnectionPool jmxPool = pool.getJmxPool();
-            
-            this.objectName = ObjectName.getInstance(this.baseObjectName + this.poolConfiguration.getName());
-            logger.info("Registering DataSource " + this.poolConfiguration.getName() + " in MBeanServer under name: " + this.objectName);
-            
-            final ObjectInstance instance = this.mBeanServer.registerMBean(
-                    jmxPool, this.objectName);
-            this.objectName = instance.getObjectName();
+            logger.info("Registering DataSource " + this.poolConfiguration.getName() + " in MBeanServer under name: " + baseName);
+            this.objectName = registerMBean(baseName, pool.getJmxPool(), "connection pool");
+        }
+        catch (SQLException e) {
+            logger.warn("Failed to create connection pool. JMX information will not be available for: " + this.poolConfiguration.getName(), e);
+        }
+        
+        if (this.healthSampler != null) {
+            this.healthObjectName = registerMBean(baseName + ",component=HealthSampler", this.healthSampler, "connection pool health sampler");
+        }
+        if (this.adaptivePoolSizer != null) {
+            this.sizerObjectName = registerMBean(baseName + ",component=AdaptivePoolSizer", this.adaptivePoolSizer, "adaptive pool sizer");
+        }
+        if (this.statistics != null) {
+            this.statisticsObjectName = registerMBean(baseName + ",component=SqlStatistics", this.statistics, "SQL statistics");
+        }
+    }
+    
+    /**
+     * @return The name the bean was registered under, <code>null</code> if it could not
+     *         be registered
+     */
+    private ObjectName registerMBean(String name, Object bean, String description) {
+        try {
+            final ObjectInstance instance = this.mBeanServer.registerMBean(bean, ObjectName.getInstance(name));
+            return instance.getObjectName();
         }
         catch (Exception e) {
-            logger.warn("Failed to register connection pool with MBeanServer. JMX information will not be available for: " + this.poolConfiguration.getName(), e);
+            logger.warn("Failed to register " + description + " with MBeanServer. JMX information will not be available for: " + this.poolConfiguration.getName(), e);
+            return null;
         }
     }
 
@@ -148,15 +493,42 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
         //Clear the mbean server reference
         unregisterWithMBeanServer();
         
-        //Shut down the DataSource
-        instance.close();
+        //Leave the registry, stop resizing, sampling and collecting statistics
+        if (this.joinConnectionPoolRegistry) {
+            getConnectionPoolRegistry().leave(this.poolConfiguration.getName());
+        }
+        if (this.adaptivePoolSizer != null) {
+            this.adaptivePoolSizer.stop();
+        }
+        if (this.healthSampler != null) {
+            this.healthSampler.stop();
+            this.healthSampler = null;
+        }
+        if (this.statistics != null) {
+            this.statistics.unregister();
+            this.statistics = null;
+        }
+        
+        //Shut down the DataSource, if it was created
+        if (instance != null) {
+            instance.close();
+        }
     }
 
     protected void unregisterWithMBeanServer() {
-        final ObjectName name = this.objectName;
+        unregisterMBean(this.statisticsObjectName, "SQL statistics");
+        this.statisticsObjectName = null;
+        unregisterMBean(this.sizerObjectName, "adaptive pool sizer");
+        this.sizerObjectName = null;
+        unregisterMBean(this.healthObjectName, "connection pool health sampler");
+        this.healthObjectName = null;
+        unregisterMBean(this.objectName, "connection pool");
         this.objectName = null;
+    }
+    
+    private void unregisterMBean(ObjectName name, String description) {
         if (name == null) {
-            //No object currently registered, nothing to do
+            //Nothing currently registered, nothing to do
             return;
         }
         
@@ -164,7 +536,7 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
             this.mBeanServer.unregisterMBean(name);
         }
         catch (Exception e) {
-            logger.warn("Failed to unregister connection pool with MBeanServer for: " + this.poolConfiguration.getName(), e);
+            logger.warn("Failed to unregister " + description + " with MBeanServer for: " + this.poolConfiguration.getName(), e);
         }
     }
 
@@ -483,13 +855,12 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
 
     @Override
     public int getValidationQueryTimeout() {
-        // TODO: Implement this when needed.
-        return 0;
+        return this.poolConfiguration.getValidationQueryTimeout();
     }
 
     @Override
-    public void setValidationQueryTimeout(int i) {
-        // TODO: Implement this when needed.
+    public void setValidationQueryTimeout(int validationQueryTimeout) {
+        this.poolConfiguration.setValidationQueryTimeout(validationQueryTimeout);
     }
 
     @Override
@@ -697,25 +1068,23 @@ public class TomcatDataSourceFactory extends AbstractFactoryBean<DataSource>
     }
 
     @Override
-    public void setIgnoreExceptionOnPreLoad(boolean b) {
-        // TODO: Implement this when needed.
+    public void setIgnoreExceptionOnPreLoad(boolean ignoreExceptionOnPreLoad) {
+        this.poolConfiguration.setIgnoreExceptionOnPreLoad(ignoreExceptionOnPreLoad);
     }
 
     @Override
     public boolean isIgnoreExceptionOnPreLoad() {
-        // TODO: Implement this when needed.
-        return false;
+        return this.poolConfiguration.isIgnoreExceptionOnPreLoad();
     }
 
     @Override
-    public void setUseStatementFacade(boolean b) {
-        // TODO: Implement this when needed.
+    public void setUseStatementFacade(boolean useStatementFacade) {
+        this.poolConfiguration.setUseStatementFacade(useStatementFacade);
     }
 
     @Override
     public boolean getUseStatementFacade() {
-        // TODO: Implement this when needed.
-        return false;
+        return this.poolConfiguration.getUseStatementFacade();
     }
 
 }
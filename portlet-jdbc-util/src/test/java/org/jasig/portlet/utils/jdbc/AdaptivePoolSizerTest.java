@@ -0,0 +1,159 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptivePoolSizerTest {
+    
+    private DataSource dataSource;
+    private ConnectionPoolHealthSampler sampler;
+    private AdaptivePoolSizer sizer;
+    
+    @Before
+    public void setup() throws Exception {
+        final PoolProperties properties = new PoolProperties();
+        properties.setName("sized");
+        properties.setDriverClassName(TomcatDataSourceFactoryTest.StallingDriver.class.getName());
+        properties.setUrl("jdbc:stalling:test");
+        properties.setInitialSize(0);
+        properties.setMaxActive(8);
+        properties.setMaxIdle(8);
+        properties.setMinIdle(0);
+        dataSource = new DataSource(properties);
+        dataSource.createPool();
+        
+        sampler = new ConnectionPoolHealthSampler("sized", dataSource, 10);
+        sampler.start(TimeUnit.HOURS.toMillis(1));
+        
+        //Adjusted by hand, not on its own thread
+        sizer = new AdaptivePoolSizer();
+        sizer.setSampleInterval(TimeUnit.HOURS.toMillis(1));
+        sizer.setAdjustInterval(TimeUnit.HOURS.toMillis(1));
+        sizer.setBorrowWaitThreshold(50);
+        sizer.setShrinkAfter(2);
+        sizer.setMaxActiveLowerBound(2);
+    }
+    
+    @After
+    public void teardown() {
+        sizer.stop();
+        sampler.stop();
+        dataSource.close(true);
+    }
+    
+    @Test
+    public void testUpperBoundsDefaultToConfiguredMaxActive() {
+        sizer.start("sized", dataSource);
+        assertEquals(8, sizer.getMaxActiveUpperBound());
+        assertEquals(8, sizer.getMinIdleUpperBound());
+        
+        recordBorrowWaits(10, 200);
+        sizer.adjust();
+        assertEquals(8, sizer.getMaxActive());
+        assertEquals(0, sizer.getGrowCount());
+    }
+    
+    @Test
+    public void testRunsOnSharedScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = (ScheduledThreadPoolExecutor) ConnectionPoolRegistry.getInstance().getScheduler();
+        final int queued = scheduler.getQueue().size();
+        
+        sizer.start("sized", dataSource);
+        assertEquals(queued + 2, scheduler.getQueue().size());
+        
+        //Only the sizer's own tasks are stopped
+        sizer.stop();
+        assertEquals(queued, scheduler.getQueue().size());
+        assertFalse(scheduler.isShutdown());
+    }
+    
+    @Test
+    public void testGrowsOnSlowBorrows() {
+        sizer.setMaxActiveUpperBound(20);
+        sizer.start("sized", dataSource);
+        
+        recordBorrowWaits(10, 200);
+        sizer.adjust();
+        assertEquals(10, sizer.getMaxActive());
+        assertEquals(1, sizer.getGrowCount());
+    }
+    
+    @Test
+    public void testOnlyCurrentIntervalBorrowsCount() {
+        sizer.setMaxActiveUpperBound(20);
+        sizer.setShrinkAfter(10);
+        sizer.start("sized", dataSource);
+        
+        recordBorrowWaits(10, 200);
+        sizer.adjust();
+        assertEquals(10, sizer.getMaxActive());
+        
+        //The slow borrows are still in the sampler's buffer, but were already acted on
+        sizer.adjust();
+        assertEquals(10, sizer.getMaxActive());
+        
+        //Fast borrows since then
+        recordBorrowWaits(5, 1);
+        sizer.adjust();
+        assertEquals(10, sizer.getMaxActive());
+        assertEquals(1, sizer.getGrowCount());
+    }
+    
+    @Test
+    public void testShrinksAfterQuietIntervals() {
+        sizer.start("sized", dataSource);
+        
+        sizer.adjust();
+        assertEquals(8, sizer.getMaxActive());
+        sizer.adjust();
+        assertEquals(6, sizer.getMaxActive());
+        assertEquals(1, sizer.getShrinkCount());
+    }
+    
+    @Test
+    public void testBorrowWaitPercentileBetweenMarks() {
+        recordBorrowWaits(4, 100);
+        final long mark = sampler.getBorrowWaitMark();
+        recordBorrowWaits(2, 10);
+        assertEquals(10.0, sampler.getBorrowWaitPercentileMillis(mark, sampler.getBorrowWaitMark(), 95), 0.001);
+        assertEquals(100.0, sampler.getBorrowWaitPercentileMillis(0, mark, 95), 0.001);
+        
+        //Only the last 10 are kept
+        recordBorrowWaits(10, 1);
+        assertEquals(1.0, sampler.getBorrowWaitPercentileMillis(0, sampler.getBorrowWaitMark(), 100), 0.001);
+        assertEquals(0.0, sampler.getBorrowWaitPercentileMillis(mark, mark, 95), 0.001);
+    }
+    
+    private void recordBorrowWaits(int count, long millis) {
+        for (int i = 0; i < count; i++) {
+            sampler.recordBorrowWait(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolHealthSamplerTest {
+    
+    private TomcatDataSourceFactory factory;
+    
+    @Before
+    public void setup() {
+        factory = new TomcatDataSourceFactory();
+        factory.setBeanName("sampled");
+        factory.setDriverClassName(TomcatDataSourceFactoryTest.StallingDriver.class.getName());
+        factory.setUrl("jdbc:stalling:test");
+        factory.setMaxActive(1);
+        factory.setInitialSize(0);
+        factory.setMaxWait(100);
+        factory.setHealthSampleInterval(60000);
+    }
+    
+    @After
+    public void teardown() throws Exception {
+        factory.destroy();
+    }
+    
+    @Test(timeout = 10000)
+    public void testLeakReportsHoldingThread() throws Exception {
+        factory.setLeakDetectionThreshold(1);
+        factory.afterPropertiesSet();
+        final ConnectionPoolHealthSampler sampler = ConnectionPoolHealthSampler.getSampler("sampled");
+        
+        final CountDownLatch borrowed = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread holder = new Thread("leaking-thread") {
+            @Override
+            public void run() {
+                try {
+                    holdConnection(factory.getObject(), borrowed, release);
+                }
+                catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        holder.start();
+        try {
+            borrowed.await();
+            Thread.sleep(10);
+            sampler.sample();
+            
+            //Stack of the holding thread when the leak was detected, not of the borrow
+            assertEquals(1, sampler.getSuspectedLeakCount());
+            final String leak = sampler.getSuspectedLeaks()[0];
+            assertTrue(leak, leak.contains("leaking-thread"));
+            assertTrue(leak, leak.contains("holdConnection"));
+        }
+        finally {
+            release.countDown();
+            holder.join();
+        }
+        assertEquals(0, sampler.getSuspectedLeakCount());
+    }
+    
+    @Test
+    public void testLeakReportsWhereConnectionWasBorrowed() throws Exception {
+        factory.setLeakDetectionThreshold(1);
+        factory.setLeakDetectionBorrowStackTrace(true);
+        factory.afterPropertiesSet();
+        final ConnectionPoolHealthSampler sampler = ConnectionPoolHealthSampler.getSampler("sampled");
+        
+        final Connection connection = borrowAndForget(factory.getObject());
+        try {
+            Thread.sleep(10);
+            sampler.sample();
+            
+            assertEquals(1, sampler.getSuspectedLeakCount());
+            final String leak = sampler.getSuspectedLeaks()[0];
+            assertTrue(leak, leak.contains("borrowAndForget"));
+        }
+        finally {
+            connection.close();
+        }
+        assertEquals(0, sampler.getSuspectedLeakCount());
+    }
+    
+    @Test
+    public void testNoLeakDetectionByDefault() throws Exception {
+        factory.afterPropertiesSet();
+        final ConnectionPoolHealthSampler sampler = ConnectionPoolHealthSampler.getSampler("sampled");
+        
+        final Connection connection = factory.getObject().getConnection();
+        try {
+            Thread.sleep(10);
+            sampler.sample();
+            assertEquals(0, sampler.getSuspectedLeakCount());
+        }
+        finally {
+            connection.close();
+        }
+    }
+    
+    @Test
+    public void testSamplesOnSharedScheduler() throws Exception {
+        final ScheduledThreadPoolExecutor scheduler = (ScheduledThreadPoolExecutor) ConnectionPoolRegistry.getInstance().getScheduler();
+        final int queued = scheduler.getQueue().size();
+        
+        factory.afterPropertiesSet();
+        assertEquals(queued + 1, scheduler.getQueue().size());
+        
+        factory.destroy();
+        assertEquals(queued, scheduler.getQueue().size());
+        assertFalse(scheduler.isShutdown());
+    }
+    
+    @Test(timeout = 10000)
+    public void testTimedOutBorrowRecorded() throws Exception {
+        factory.afterPropertiesSet();
+        final DataSource dataSource = factory.getObject();
+        final ConnectionPoolHealthSampler sampler = ConnectionPoolHealthSampler.getSampler("sampled");
+        
+        final Connection connection = dataSource.getConnection();
+        try {
+            dataSource.getConnection().close();
+            fail("The pool is exhausted");
+        }
+        catch (SQLException e) {
+            //Expected
+        }
+        finally {
+            connection.close();
+        }
+        
+        assertTrue("Max wait " + sampler.getMaxBorrowWaitMillis() + "ms", sampler.getMaxBorrowWaitMillis() >= 100);
+    }
+    
+    private static void holdConnection(DataSource dataSource, CountDownLatch borrowed, CountDownLatch release) 
+            throws SQLException, InterruptedException {
+        final Connection connection = dataSource.getConnection();
+        try {
+            borrowed.countDown();
+            release.await();
+        }
+        finally {
+            connection.close();
+        }
+    }
+    
+    private static Connection borrowAndForget(DataSource dataSource) throws SQLException {
+        return dataSource.getConnection();
+    }
+}
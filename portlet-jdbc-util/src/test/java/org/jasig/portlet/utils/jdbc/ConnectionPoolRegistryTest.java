@@ -0,0 +1,116 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.PoolProperties;
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectionPoolRegistryTest {
+    
+    private final ConnectionPoolRegistry registry = new ConnectionPoolRegistry();
+    private TomcatDataSourceFactory factory;
+    
+    @After
+    public void teardown() throws Exception {
+        if (factory != null) {
+            factory.destroy();
+        }
+    }
+    
+    @Test
+    public void testSharesOfBudget() {
+        final DataSource a = dataSource("jdbc:stalling:shared", 30, 10);
+        final DataSource b = dataSource("jdbc:stalling:shared", 10, 10);
+        final DataSource other = dataSource("jdbc:stalling:other", 50, 10);
+        
+        registry.join("a", a, 20);
+        assertEquals(20, a.getMaxActive());
+        assertEquals(10, a.getInitialSize());
+        assertEquals(0, registry.getAvailableConnections("jdbc:stalling:shared"));
+        
+        registry.join("b", b, 0);
+        assertEquals(15, a.getMaxActive());
+        assertEquals(5, b.getMaxActive());
+        assertEquals(5, b.getInitialSize());
+        assertTrue(b.getMaxIdle() <= 5);
+        
+        //Budgets are per URL
+        registry.join("other", other, 0);
+        assertEquals(50, other.getMaxActive());
+        assertEquals(Integer.MAX_VALUE, registry.getAvailableConnections("jdbc:stalling:other"));
+        
+        //The remaining pool gets its configured maxActive back
+        registry.leave("b");
+        assertEquals(20, a.getMaxActive());
+        registry.leave("a");
+        assertEquals(0, registry.getConnectionBudget("jdbc:stalling:shared"));
+    }
+    
+    @Test
+    public void testNoBudget() {
+        final DataSource a = dataSource("jdbc:stalling:shared", 30, 10);
+        registry.join("a", a, 0);
+        assertEquals(30, a.getMaxActive());
+        assertEquals(Integer.MAX_VALUE, registry.getAvailableConnections("jdbc:stalling:shared"));
+    }
+    
+    @Test(timeout = 10000)
+    public void testBudgetAppliedBeforeWarmUp() throws Exception {
+        factory = new TomcatDataSourceFactory() {
+            @Override
+            protected ConnectionPoolRegistry getConnectionPoolRegistry() {
+                return registry;
+            }
+        };
+        factory.setBeanName("budgeted");
+        factory.setDriverClassName(TomcatDataSourceFactoryTest.StallingDriver.class.getName());
+        factory.setUrl("jdbc:stalling:test");
+        factory.setMaxActive(10);
+        factory.setMaxIdle(10);
+        factory.setInitialSize(8);
+        factory.setMaxWait(100);
+        factory.setWarmUp(true);
+        factory.setJoinConnectionPoolRegistry(true);
+        factory.setConnectionBudget(4);
+        factory.afterPropertiesSet();
+        
+        final DataSource dataSource = factory.getObject();
+        assertEquals(4, dataSource.getMaxActive());
+        assertEquals(4, dataSource.getPool().getSize());
+        assertEquals(4, dataSource.getPool().getIdle());
+        
+        factory.destroy();
+        factory = null;
+        assertTrue(registry.getPoolNames().isEmpty());
+    }
+    
+    private static DataSource dataSource(String url, int maxActive, int initialSize) {
+        final PoolProperties properties = new PoolProperties();
+        properties.setUrl(url);
+        properties.setMaxActive(maxActive);
+        properties.setMaxIdle(maxActive);
+        properties.setInitialSize(initialSize);
+        return new DataSource(properties);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolWarmerTest {
+    
+    private TomcatDataSourceFactory factory;
+    
+    @Before
+    public void setup() {
+        factory = new TomcatDataSourceFactory();
+        factory.setBeanName("warmed");
+        factory.setDriverClassName(TomcatDataSourceFactoryTest.StallingDriver.class.getName());
+        factory.setUrl("jdbc:stalling:test");
+        factory.setMaxActive(8);
+        factory.setMaxIdle(8);
+        factory.setInitialSize(6);
+        factory.setWarmUp(true);
+    }
+    
+    @After
+    public void teardown() throws Exception {
+        factory.destroy();
+    }
+    
+    @Test(timeout = 10000)
+    public void testPoolFilled() throws Exception {
+        factory.afterPropertiesSet();
+        final DataSource dataSource = factory.getObject();
+        
+        assertEquals(6, dataSource.getPool().getIdle());
+        assertEquals(0, dataSource.getPool().getActive());
+        assertTrue(factory.getWarmUpTime() >= 0);
+        //The pool's own preload was skipped, it was restored afterwards
+        assertEquals(6, dataSource.getInitialSize());
+    }
+    
+    @Test(timeout = 10000)
+    public void testInitialSizeCappedAtMaxActive() throws Exception {
+        //Warming up more connections than the pool can hold would block until maxWait
+        factory.setInitialSize(12);
+        factory.setMaxWait(30000);
+        factory.afterPropertiesSet();
+        final DataSource dataSource = factory.getObject();
+        
+        assertEquals(8, dataSource.getPool().getIdle());
+        assertEquals(0, dataSource.getPool().getActive());
+    }
+    
+    @Test(timeout = 10000)
+    public void testRateLimited() throws Exception {
+        factory.setWarmUpConnectionsPerSecond(50);
+        final long start = System.nanoTime();
+        factory.afterPropertiesSet();
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        //Six connections at 50/s start over at least 100ms
+        assertTrue("Warm-up took " + elapsed + "ms", elapsed >= 90);
+        assertEquals(6, factory.getObject().getPool().getIdle());
+    }
+    
+    @Test(timeout = 10000)
+    public void testFailure() throws Exception {
+        factory.setUrl("jdbc:stalling:unreachable");
+        try {
+            factory.afterPropertiesSet();
+            fail("No connection could be opened");
+        }
+        catch (SQLException e) {
+            //Expected
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void testFailureIgnored() throws Exception {
+        factory.setUrl("jdbc:stalling:unreachable");
+        factory.setIgnoreExceptionOnPreLoad(true);
+        factory.afterPropertiesSet();
+        
+        assertEquals(0, factory.getObject().getPool().getIdle());
+    }
+}
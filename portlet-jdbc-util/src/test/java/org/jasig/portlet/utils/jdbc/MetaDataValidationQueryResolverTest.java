@@ -0,0 +1,202 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.jasig.portlet.utils.jdbc.DelayedValidationQueryResolver.ValidationQueryRegistrationHandler;
+import org.junit.After;
+import org.junit.Test;
+
+public class MetaDataValidationQueryResolverTest {
+    
+    private final MetaDataValidationQueryResolver resolver = new MetaDataValidationQueryResolver();
+    private final List<String> executed = new ArrayList<String>();
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private volatile String validationQuery;
+    private volatile String productName = "Oracle";
+    private volatile boolean isValidSupported = false;
+    private volatile boolean queryFails = false;
+    private volatile int connectFailures = 0;
+    private volatile int closed = 0;
+    
+    private final ValidationQueryRegistrationHandler handler = new ValidationQueryRegistrationHandler() {
+        @Override
+        public void setValidationQuery(String query) {
+            validationQuery = query;
+            registered.countDown();
+        }
+    };
+    
+    @After
+    public void teardown() {
+        resolver.destroy();
+    }
+    
+    @Test
+    public void testIsValidPreferred() {
+        isValidSupported = true;
+        resolver.registerValidationQueryCallback(dataSource(), handler);
+        
+        assertNull(validationQuery);
+        assertTrue(executed.isEmpty());
+        assertEquals(1, closed);
+    }
+    
+    @Test
+    public void testQueryForProduct() {
+        resolver.registerValidationQueryCallback(dataSource(), handler);
+        
+        assertEquals("SELECT 1 FROM DUAL", validationQuery);
+        //Checked before it was registered
+        assertEquals(1, executed.size());
+        assertEquals(1, closed);
+    }
+    
+    @Test
+    public void testQueryWhenIsValidNotPreferred() {
+        isValidSupported = true;
+        productName = "MySQL";
+        resolver.setPreferIsValid(false);
+        resolver.registerValidationQueryCallback(dataSource(), handler);
+        
+        assertEquals("/* ping */ SELECT 1", validationQuery);
+    }
+    
+    @Test
+    public void testUnknownProduct() {
+        productName = "SomeDB";
+        resolver.registerValidationQueryCallback(dataSource(), handler);
+        
+        assertNull(validationQuery);
+        assertTrue(executed.isEmpty());
+    }
+    
+    @Test
+    public void testFailingQueryNotRegistered() {
+        queryFails = true;
+        resolver.registerValidationQueryCallback(dataSource(), handler);
+        
+        assertNull(validationQuery);
+        assertEquals(1, executed.size());
+    }
+    
+    @Test(timeout = 10000)
+    public void testRetriedUntilReachable() throws InterruptedException {
+        connectFailures = 2;
+        resolver.setRetryInterval(10);
+        resolver.registerValidationQueryCallback(dataSource(), handler);
+        assertNull(validationQuery);
+        
+        assertTrue(registered.await(5, TimeUnit.SECONDS));
+        assertEquals("SELECT 1 FROM DUAL", validationQuery);
+    }
+    
+    private DataSource dataSource() {
+        return proxy(DataSource.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getConnection".equals(method.getName())) {
+                    if (connectFailures > 0) {
+                        connectFailures--;
+                        throw new SQLException("Connection refused");
+                    }
+                    return connection();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+    
+    private Connection connection() {
+        return proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final String name = method.getName();
+                if ("getMetaData".equals(name)) {
+                    return metaData();
+                }
+                if ("isValid".equals(name)) {
+                    if (!isValidSupported) {
+                        throw new SQLFeatureNotSupportedException();
+                    }
+                    return true;
+                }
+                if ("createStatement".equals(name)) {
+                    return statement();
+                }
+                if ("close".equals(name)) {
+                    closed++;
+                    return null;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+    
+    private DatabaseMetaData metaData() {
+        return proxy(DatabaseMetaData.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getDatabaseProductName".equals(method.getName())) {
+                    return productName;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+    
+    private Statement statement() {
+        return proxy(Statement.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final String name = method.getName();
+                if ("execute".equals(name)) {
+                    executed.add((String) args[0]);
+                    if (queryFails) {
+                        throw new SQLException("Syntax error");
+                    }
+                    return true;
+                }
+                return null;
+            }
+        });
+    }
+    
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(MetaDataValidationQueryResolverTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+}
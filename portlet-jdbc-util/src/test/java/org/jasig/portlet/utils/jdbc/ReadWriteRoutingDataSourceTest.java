@@ -0,0 +1,192 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class ReadWriteRoutingDataSourceTest {
+    
+    private final StubDataSource primary = new StubDataSource("primary");
+    private final StubDataSource replica1 = new StubDataSource("replica1");
+    private final StubDataSource replica2 = new StubDataSource("replica2");
+    private final ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource(primary, 
+            Arrays.<DataSource>asList(replica1, replica2));
+    
+    @Test
+    public void testWritesGoToPrimary() throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        connection.createStatement();
+        connection.close();
+        
+        assertEquals(Arrays.asList("createStatement", "close"), primary.calls);
+        assertTrue(replica1.calls.isEmpty());
+        assertTrue(replica2.calls.isEmpty());
+    }
+    
+    @Test
+    public void testNothingBorrowedUntilUsed() throws SQLException {
+        final Connection connection = dataSource.getConnection();
+        connection.setReadOnly(true);
+        connection.setAutoCommit(false);
+        assertTrue(connection.isReadOnly());
+        assertFalse(connection.getAutoCommit());
+        connection.commit();
+        connection.close();
+        assertTrue(connection.isClosed());
+        
+        assertEquals(0, primary.borrowed + replica1.borrowed + replica2.borrowed);
+    }
+    
+    @Test
+    public void testReadOnlyGoesToLeastLoadedReplica() throws SQLException {
+        replica1.load = 3;
+        replica2.load = 1;
+        final Connection connection = dataSource.getConnection();
+        connection.setReadOnly(true);
+        connection.prepareStatement("SELECT 1");
+        
+        assertEquals(0, primary.borrowed);
+        assertEquals(0, replica1.borrowed);
+        assertEquals(Arrays.asList("setReadOnly(true)", "prepareStatement"), replica2.calls);
+        
+        //Routing set read-only on the pooled connection, so it is undone before return
+        connection.close();
+        assertEquals(Arrays.asList("setReadOnly(true)", "prepareStatement", "setReadOnly(false)", "close"), replica2.calls);
+    }
+    
+    @Test
+    public void testEquallyLoadedReplicasRotate() throws SQLException {
+        for (int i = 0; i < 4; i++) {
+            final Connection connection = dataSource.getConnection();
+            connection.setReadOnly(true);
+            connection.createStatement();
+            connection.close();
+        }
+        
+        assertEquals(2, replica1.borrowed);
+        assertEquals(2, replica2.borrowed);
+    }
+    
+    @Test
+    public void testReadOnlyTransactionGoesToReplica() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        try {
+            dataSource.getConnection().createStatement();
+        }
+        finally {
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        }
+        
+        assertEquals(0, primary.borrowed);
+        assertEquals(1, replica1.borrowed + replica2.borrowed);
+    }
+    
+    @Test
+    public void testFallBackToPrimary() throws SQLException {
+        replica1.unavailable = true;
+        replica2.load = 1;
+        final Connection connection = dataSource.getConnection();
+        connection.setReadOnly(true);
+        connection.createStatement();
+        connection.close();
+        
+        assertEquals(Arrays.asList("setReadOnly(true)", "createStatement", "setReadOnly(false)", "close"), primary.calls);
+    }
+    
+    @Test
+    public void testNoReplicas() throws SQLException {
+        final ReadWriteRoutingDataSource primaryOnly = new ReadWriteRoutingDataSource(primary, 
+                Collections.<DataSource>emptyList());
+        final Connection connection = primaryOnly.getConnection();
+        connection.setReadOnly(true);
+        connection.createStatement();
+        
+        assertEquals(1, primary.borrowed);
+    }
+    
+    /**
+     * Pool that hands out connections recording the calls made on them.
+     */
+    private static final class StubDataSource extends DataSource {
+        private final String name;
+        private final List<String> calls = new ArrayList<String>();
+        private int borrowed = 0;
+        private int load = 0;
+        private boolean unavailable = false;
+        
+        public StubDataSource(String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public String getPoolName() {
+            return this.name;
+        }
+        
+        @Override
+        public int getActive() {
+            return this.load;
+        }
+        
+        @Override
+        public int getWaitCount() {
+            return 0;
+        }
+        
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (this.unavailable) {
+                throw new SQLException(this.name + " is unavailable");
+            }
+            this.borrowed++;
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, 
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            final String name = method.getName();
+                            if ("setReadOnly".equals(name)) {
+                                calls.add(name + "(" + args[0] + ")");
+                                return null;
+                            }
+                            if ("getAutoCommit".equals(name)) {
+                                return true;
+                            }
+                            calls.add(name);
+                            return null;
+                        }
+                    });
+        }
+    }
+}
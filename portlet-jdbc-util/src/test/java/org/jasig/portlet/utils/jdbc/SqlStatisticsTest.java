@@ -0,0 +1,122 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SqlStatisticsTest {
+    
+    @Test
+    public void testNormalize() {
+        assertEquals("SELECT * FROM t WHERE a = ? AND b = ?", 
+                SqlStatistics.normalize("SELECT *\n  FROM t   WHERE a = 'it''s' AND b = 42 "));
+        assertEquals("SELECT * FROM t WHERE id IN (?...)", SqlStatistics.normalize("SELECT * FROM t WHERE id IN (1, 2, 3)"));
+        assertEquals("SELECT * FROM t WHERE id IN (?...)", SqlStatistics.normalize("SELECT * FROM t WHERE id IN (?,?)"));
+        assertEquals("SELECT col1 FROM t2 WHERE x = ?", SqlStatistics.normalize("SELECT col1 FROM t2 WHERE x = 1.5e3"));
+        assertEquals("", SqlStatistics.normalize(null));
+    }
+    
+    @Test
+    public void testSameStatementDifferentLiterals() {
+        final SqlStatistics statistics = new SqlStatistics("test");
+        assertSame(statistics.getStatement("SELECT * FROM t WHERE id = 1"), 
+                statistics.getStatement("SELECT * FROM t WHERE id = 2"));
+        assertEquals(1, statistics.getStatementCount());
+    }
+    
+    @Test
+    public void testOverflowSharesOneBucket() {
+        final SqlStatistics statistics = new SqlStatistics("test", 2);
+        statistics.getStatement("SELECT a FROM t").recordExecution(1000, false);
+        statistics.getStatement("SELECT b FROM t").recordExecution(1000, false);
+        
+        final SqlStatistics.Statement other = statistics.getStatement("SELECT c FROM t");
+        assertEquals(SqlStatistics.OTHER_STATEMENTS, other.getSql());
+        assertSame(other, statistics.getStatement("SELECT d FROM t"));
+        other.recordExecution(1000, false);
+        statistics.getStatement("SELECT d FROM t").recordExecution(1000, true);
+        
+        assertEquals(2, statistics.getStatementCount());
+        final List<SqlStatementStatistics> all = statistics.getStatementStatistics();
+        assertEquals(3, all.size());
+        for (final SqlStatementStatistics statement : all) {
+            if (SqlStatistics.OTHER_STATEMENTS.equals(statement.getSql())) {
+                assertEquals(2, statement.getExecutionCount());
+                assertEquals(1, statement.getFailureCount());
+            }
+        }
+    }
+    
+    @Test
+    public void testResetKeepsStatementsHeldByInterceptors() {
+        final SqlStatistics statistics = new SqlStatistics("test");
+        final SqlStatistics.Statement held = statistics.getStatement("SELECT a FROM t");
+        held.recordExecution(TimeUnit.MILLISECONDS.toNanos(5), false);
+        held.recordRows(10);
+        
+        statistics.reset();
+        assertTrue(statistics.getStatementStatistics().isEmpty());
+        
+        held.recordExecution(TimeUnit.MILLISECONDS.toNanos(2), false);
+        final List<SqlStatementStatistics> all = statistics.getStatementStatistics();
+        assertEquals(1, all.size());
+        assertEquals(1, all.get(0).getExecutionCount());
+        assertEquals(0, all.get(0).getRowCount());
+        assertEquals(2.0, all.get(0).getMaxTime(), 0.001);
+        assertEquals(2.0, all.get(0).getTotalTime(), 0.001);
+    }
+    
+    @Test
+    public void testTimes() {
+        final SqlStatistics statistics = new SqlStatistics("test");
+        final SqlStatistics.Statement statement = statistics.getStatement("SELECT a FROM t");
+        for (int i = 0; i < 99; i++) {
+            statement.recordExecution(TimeUnit.MILLISECONDS.toNanos(1), false);
+        }
+        statement.recordExecution(TimeUnit.MILLISECONDS.toNanos(100), false);
+        
+        final SqlStatementStatistics snapshot = statistics.getStatementStatistics().get(0);
+        assertEquals(100, snapshot.getExecutionCount());
+        assertEquals(199.0, snapshot.getTotalTime(), 0.001);
+        assertEquals(100.0, snapshot.getMaxTime(), 0.001);
+        //Within the 25% accuracy of the histogram
+        assertTrue("99th percentile " + snapshot.getPercentile99Time(), 
+                snapshot.getPercentile99Time() >= 1.0 && snapshot.getPercentile99Time() <= 1.25);
+    }
+    
+    @Test
+    public void testTopStatements() {
+        final SqlStatistics statistics = new SqlStatistics("test");
+        statistics.getStatement("SELECT a FROM t").recordExecution(1000, false);
+        statistics.getStatement("SELECT b FROM t").recordExecution(3000, false);
+        statistics.getStatement("SELECT c FROM t").recordExecution(2000, false);
+        
+        final List<SqlStatementStatistics> top = statistics.getTopStatements(2);
+        assertEquals(2, top.size());
+        assertEquals("SELECT b FROM t", top.get(0).getSql());
+        assertEquals("SELECT c FROM t", top.get(1).getSql());
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.utils.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TomcatDataSourceFactoryTest {
+    private static volatile boolean stalled;
+    private static volatile int lastQueryTimeout;
+    
+    private TomcatDataSourceFactory factory;
+    
+    @Before
+    public void setup() {
+        stalled = false;
+        lastQueryTimeout = -1;
+        
+        factory = new TomcatDataSourceFactory();
+        factory.setBeanName("test");
+        factory.setDriverClassName(StallingDriver.class.getName());
+        factory.setUrl("jdbc:stalling:test");
+        factory.setMaxActive(1);
+        factory.setInitialSize(0);
+        factory.setTestOnBorrow(true);
+        factory.setValidationQuery("SELECT 1");
+        factory.setValidationInterval(0);
+    }
+    
+    @After
+    public void teardown() throws Exception {
+        stalled = false;
+        factory.destroy();
+    }
+    
+    @Test
+    public void testPropertiesPassedToPool() throws Exception {
+        factory.setValidationQueryTimeout(7);
+        factory.setIgnoreExceptionOnPreLoad(true);
+        factory.setUseStatementFacade(false);
+        factory.afterPropertiesSet();
+        
+        final DataSource dataSource = factory.getObject();
+        assertEquals(7, dataSource.getPoolProperties().getValidationQueryTimeout());
+        assertTrue(dataSource.getPoolProperties().isIgnoreExceptionOnPreLoad());
+        assertFalse(dataSource.getPoolProperties().getUseStatementFacade());
+    }
+    
+    @Test(timeout = 10000)
+    public void testBorrowBoundedByValidationQueryTimeout() throws Exception {
+        factory.setValidationQueryTimeout(1);
+        factory.afterPropertiesSet();
+        final DataSource dataSource = factory.getObject();
+        
+        //Create the connection while the database is responsive
+        dataSource.getConnection().close();
+        
+        //The pool validates the idle connection, reconnects and validates again, so
+        //the borrower gets an error after about twice the timeout instead of hanging
+        stalled = true;
+        final long start = System.nanoTime();
+        try {
+            dataSource.getConnection().close();
+            fail("Validation should have failed");
+        }
+        catch (SQLException e) {
+            //Expected
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        assertEquals(1, lastQueryTimeout);
+        assertTrue("Borrow took " + elapsed + "ms", elapsed < 5000);
+    }
+    
+    @Test(timeout = 10000)
+    public void testPreLoadFailureIgnored() throws Exception {
+        factory.setInitialSize(1);
+        factory.setIgnoreExceptionOnPreLoad(true);
+        factory.setUrl("jdbc:stalling:unreachable");
+        factory.afterPropertiesSet();
+        
+        //Without ignoreExceptionOnPreLoad creating the pool would fail
+        assertNotNull(factory.getObject().createPool());
+    }
+    
+    @Test
+    public void testInterceptorPresetCombinedWithTypedProperties() throws Exception {
+        factory.setJdbcInterceptors("ConnectionState");
+        factory.setStatementCacheMax(42);
+        factory.setInterceptorPreset(JdbcInterceptorPreset.HIGH_THROUGHPUT);
+        factory.afterPropertiesSet();
+        
+        assertEquals("ConnectionState;org.apache.tomcat.jdbc.pool.interceptor.StatementCache(prepared=true,callable=false,max=42)", 
+                factory.getObject().getJdbcInterceptors());
+        factory.getObject().getConnection().close();
+    }
+    
+    /**
+     * Driver whose statements, while {@link #stalled}, hang until their query timeout
+     * (if any) expires, as a driver talking to an unresponsive database would.
+     */
+    public static class StallingDriver implements Driver {
+        
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            if (url.endsWith("unreachable")) {
+                throw new SQLException("Connection refused");
+            }
+            return proxy(Connection.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("createStatement".equals(method.getName())) {
+                        return createStatement();
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+        }
+        
+        private Statement createStatement() {
+            return proxy(Statement.class, new InvocationHandler() {
+                private int queryTimeout = 0;
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    final String name = method.getName();
+                    if ("setQueryTimeout".equals(name)) {
+                        queryTimeout = (Integer) args[0];
+                        lastQueryTimeout = queryTimeout;
+                        return null;
+                    }
+                    if (name.startsWith("execute") && stalled) {
+                        if (queryTimeout == 0) {
+                            //Wait for the database that never answers
+                            Thread.sleep(Long.MAX_VALUE);
+                        }
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(queryTimeout));
+                        throw new SQLTimeoutException("Query timed out");
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:stalling:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+        
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(StallingDriver.class.getClassLoader(), new Class<?>[] { type }, handler));
+        }
+        
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        }
+    }
+}
@@ -18,58 +18,213 @@
  */
 package org.jasig.portlet.data;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.lang.reflect.Method;
-import java.util.List;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.namespace.QName;
-import org.hibernate.LockMode;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.jasig.portlet.spring.PortletApplicationContextLocator;
 import org.springframework.context.ApplicationContext;
 
+/**
+ * Exports every entity of a model class to a single XML document, which {@link Importer}
+ * reads back. Entities are streamed from a forward-only {@link ScrollableResults} and
+ * marshalled one at a time with a single {@link Marshaller}; the session is cleared after
+ * every chunk, so memory use doesn't grow with the table size. Output goes through a
+ * buffered {@link FileChannel}, gzip compressed when the file name ends with
+ * <code>.gz</code>, into a temporary file that only replaces the output once the export
+ * is complete.
+ * <p>
+ * Usage: <code>Exporter output importExportContext sessionFactoryBeanName modelClassName [chunkSize]</code>
+ * <br>
+ * If <code>output</code> is a directory the export is written to
+ * <code>&lt;modelclass&gt;.xml</code> in it. The document has an {@link #ROOT_ELEMENT}
+ * root with one element, named after the model class, per entity. Every entity is
+ * exported, the service bean and method that used to select them are rejected.
+ */
 public class Exporter {
+    private static final Log logger = LogFactory.getLog(Exporter.class);
+
+    public static final String ROOT_ELEMENT = "export";
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    static final String USAGE = "Usage: Exporter output importExportContext sessionFactoryBeanName modelClassName [chunkSize]";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SessionFactory sessionFactory;
+    private final Class<?> modelClass;
+    private final int chunkSize;
+
+    public Exporter(SessionFactory sessionFactory, Class<?> modelClass, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1: " + chunkSize);
+        }
+        this.sessionFactory = sessionFactory;
+        this.modelClass = modelClass;
+        this.chunkSize = chunkSize;
+    }
+
     public static void main(String[] args) throws Exception
     {
-        String dir = args[0];
+        if (args.length < 4 || args.length > 5) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        String output = args[0];
         String importExportContext = args[1];
         String sessionFactoryBeanName = args[2];
         String modelClassName = args[3];
-        String serviceBeanName = args[4];
-        String serviceBeanMethodName = args[5];
+        int chunkSize = DEFAULT_CHUNK_SIZE;
+        if (args.length > 4) {
+            try {
+                chunkSize = Integer.parseInt(args[4]);
+            } catch (NumberFormatException e) {
+                //Exports used to be read through a service bean and method, now every entity is queried directly
+                throw new IllegalArgumentException("chunkSize must be a number, exports no longer use a service bean: "
+                        + args[4] + "\n" + USAGE, e);
+            }
+        }
 
         ApplicationContext context = PortletApplicationContextLocator.getApplicationContext(importExportContext);
         SessionFactory sessionFactory = context.getBean(sessionFactoryBeanName, SessionFactory.class);
         Class<?> modelClass = Class.forName(modelClassName);
 
-        Object service = context.getBean(serviceBeanName);
-        Session session = sessionFactory.getCurrentSession();
-        Transaction transaction = session.beginTransaction();
+        File file = getOutputFile(new File(output), modelClass);
+        long count = new Exporter(sessionFactory, modelClass, chunkSize).export(file);
+        logger.info("Exported " + count + " " + modelClassName + " to " + file);
+    }
+
+    /**
+     * Exports to the file, replacing it if it exists, gzip compressed if its name ends with <code>.gz</code>.
+     * The export is written to a temporary file next to it, which is deleted if the export fails.
+     *
+     * @return The number of entities exported
+     */
+    public long export(File file) throws IOException, JAXBException, XMLStreamException {
+        final Path target = file.toPath().toAbsolutePath();
+        final Path temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        boolean complete = false;
+        try {
+            final long count;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+                if (file.getName().endsWith(".gz")) {
+                    out = new GZIPOutputStream(out, BUFFER_SIZE);
+                }
+                try {
+                    count = export(out);
+                } finally {
+                    out.close();
+                }
+            }
 
-        JAXBContext jc = JAXBContext.newInstance(modelClass);
-        Marshaller marshaller = jc.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            complete = true;
+            return count;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
 
-        Method method = service.getClass().getMethod(serviceBeanMethodName);
-        List<?> objects = (List<?>)method.invoke(service,null);
+    /**
+     * Writes the export document to the stream, which is flushed after each chunk but not closed.
+     *
+     * @return The number of entities exported
+     */
+    public long export(OutputStream out) throws JAXBException, XMLStreamException {
+        final Marshaller marshaller = JAXBContext.newInstance(this.modelClass).createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        final QName elementName = new QName(getElementName(this.modelClass));
 
-        for(Object o : objects)
-        {
-            session.lock(o, LockMode.NONE);
-            JAXBElement je2 = new JAXBElement(new QName(modelClass.getSimpleName().toLowerCase()), modelClass, o);
-            String output = dir + File.separator + UUID.randomUUID().toString() + ".xml";
+        final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        long count = 0;
+        try {
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(ROOT_ELEMENT);
+
+            final Session session = this.sessionFactory.openSession();
             try {
-                marshaller.marshal(je2,new FileOutputStream(output));
-            } catch(Exception exception) {
-                exception.printStackTrace();
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+                session.setCacheMode(CacheMode.IGNORE);
+                final Transaction transaction = session.beginTransaction();
+                try {
+                    final ScrollableResults results = session.createQuery("from " + this.modelClass.getName())
+                        .setFetchSize(this.chunkSize)
+                        .setReadOnly(true)
+                        .scroll(ScrollMode.FORWARD_ONLY);
+                    try {
+                        while (results.next()) {
+                            marshaller.marshal(new JAXBElement(elementName, this.modelClass, results.get(0)), writer);
+                            count++;
+
+                            if (count % this.chunkSize == 0) {
+                                //Detach the marshalled chunk so it can be garbage collected
+                                session.clear();
+                                writer.flush();
+                            }
+                        }
+                    } finally {
+                        results.close();
+                    }
+                } finally {
+                    //Nothing was changed, the transaction only scopes the cursor
+                    transaction.rollback();
+                }
+            } finally {
+                session.close();
             }
+
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } finally {
+            //Doesn't close the stream
+            writer.close();
         }
-        transaction.commit();
+        return count;
+    }
+
+    /**
+     * @return The file to export to, <code>&lt;modelclass&gt;.xml</code> in <code>output</code> if it is a directory
+     */
+    static File getOutputFile(File output, Class<?> modelClass) {
+        return output.isDirectory() ? new File(output, getElementName(modelClass) + ".xml") : output;
+    }
+
+    static String getElementName(Class<?> modelClass) {
+        return modelClass.getSimpleName().toLowerCase();
     }
 }
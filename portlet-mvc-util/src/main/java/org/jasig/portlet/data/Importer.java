@@ -18,19 +18,31 @@
  */
 package org.jasig.portlet.data;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
 import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Unmarshaller;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.jasig.portlet.spring.PortletApplicationContextLocator;
 import org.springframework.context.ApplicationContext;
 
+/**
+ * Imports entities by passing each to a service bean method. <code>dir</code> is either a
+ * document written by {@link Exporter}, optionally gzip compressed, which is read one
+ * entity at a time, or a directory of XML files, each either such a document or a single
+ * entity as older exports wrote them.
+ */
 public class Importer {
     public static void main(String[] args) throws Exception
     {
@@ -45,26 +57,74 @@ public class Importer {
         SessionFactory sessionFactory = context.getBean(sessionFactoryBeanName, SessionFactory.class);
         Class<?> modelClass = Class.forName(modelClassName);
         Object service = context.getBean(serviceBeanName);
+        Method method = service.getClass().getMethod(serviceBeanMethodName,modelClass);
+
+        importAll(new File(dir), modelClass, sessionFactory, service, method);
+    }
 
+    /**
+     * Imports the export document, or every XML file in the directory.
+     */
+    static void importAll(File dir, Class<?> modelClass, SessionFactory sessionFactory, Object service, Method method)
+            throws Exception {
         JAXBContext jc = JAXBContext.newInstance(modelClass);
+        Unmarshaller unmarshaller = jc.createUnmarshaller();
+
+        if (!dir.isDirectory()) {
+            importFile(dir, unmarshaller, modelClass, sessionFactory, service, method);
+            return;
+        }
 
-        File folder = new File(dir);
-        File[] files = folder.listFiles(new ImportFileFilter());
+        File[] files = dir.listFiles(new ImportFileFilter());
 
         for(File f : files) {
-            StreamSource xml = new StreamSource(f.getAbsoluteFile());
-            Unmarshaller unmarshaller = jc.createUnmarshaller();
-            JAXBElement je1 = unmarshaller.unmarshal(xml, modelClass);
-            Object object = je1.getValue();
-            Session session = sessionFactory.getCurrentSession();
-            Transaction transaction = session.beginTransaction();
+            importFile(f, unmarshaller, modelClass, sessionFactory, service, method);
+        }
+    }
+
+    private static void importFile(File file, Unmarshaller unmarshaller, Class<?> modelClass,
+            SessionFactory sessionFactory, Object service, Method method) throws Exception {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
 
-            Method method = service.getClass().getMethod(serviceBeanMethodName,modelClass);
-            method.invoke(service,object);
-            transaction.commit();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel), Exporter.BUFFER_SIZE);
+            if (file.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, Exporter.BUFFER_SIZE);
+            }
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            try {
+                reader.nextTag();
+                if (!Exporter.ROOT_ELEMENT.equals(reader.getLocalName())) {
+                    //A single entity, as older exports wrote them
+                    importObject(unmarshaller.unmarshal(reader, modelClass).getValue(), sessionFactory, service, method);
+                    return;
+                }
+
+                //Skip the root element, unmarshalling an entity consumes all of its element
+                reader.next();
+                while (reader.hasNext()) {
+                    if (reader.isStartElement()) {
+                        importObject(unmarshaller.unmarshal(reader, modelClass).getValue(), sessionFactory, service, method);
+                    } else {
+                        reader.next();
+                    }
+                }
+            } finally {
+                reader.close();
+                in.close();
+            }
         }
     }
 
+    private static void importObject(Object object, SessionFactory sessionFactory, Object service, Method method)
+            throws Exception {
+        Session session = sessionFactory.getCurrentSession();
+        Transaction transaction = session.beginTransaction();
+        method.invoke(service,object);
+        transaction.commit();
+    }
+
     private static class ImportFileFilter implements FileFilter {
         public boolean accept(File pathname) {
             return (pathname.isFile() && pathname.getName().toLowerCase().endsWith(".xml"));
@@ -0,0 +1,199 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portlet.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.namespace.QName;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExporterTest {
+    private static final int ITEMS = 5;
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private SessionFactory sessionFactory;
+    private ItemService service;
+    
+    @Before
+    public void setup() {
+        final StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+            .applySetting(AvailableSettings.URL, "jdbc:h2:mem:ExporterTest")
+            .applySetting(AvailableSettings.USER, "sa")
+            .applySetting(AvailableSettings.DIALECT, org.hibernate.dialect.H2Dialect.class.getName())
+            .applySetting(AvailableSettings.HBM2DDL_AUTO, "create")
+            .applySetting(AvailableSettings.CURRENT_SESSION_CONTEXT_CLASS, "thread")
+            .build();
+        sessionFactory = new MetadataSources(registry)
+            .addAnnotatedClass(Item.class)
+            .buildMetadata()
+            .buildSessionFactory();
+        
+        final Session session = sessionFactory.openSession();
+        session.getTransaction().begin();
+        for (int i = 0; i < ITEMS; i++) {
+            session.persist(new Item(i, "value-" + i));
+        }
+        session.getTransaction().commit();
+        session.close();
+        
+        service = new ItemService();
+    }
+    
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        final File file = folder.newFile("items.xml");
+        assertEquals(ITEMS, exporter().export(file));
+        
+        importAll(file);
+        assertImported(ITEMS);
+    }
+    
+    @Test
+    public void testRoundTripCompressed() throws Exception {
+        final File file = new File(folder.getRoot(), "items.xml.gz");
+        assertEquals(ITEMS, exporter().export(file));
+        
+        importAll(file);
+        assertImported(ITEMS);
+    }
+    
+    @Test
+    public void testRoundTripDirectory() throws Exception {
+        //An entity per file, as older exports wrote them, next to the export document
+        final File dir = folder.newFolder("export");
+        final OutputStream legacy = new FileOutputStream(new File(dir, "legacy.xml"));
+        try {
+            JAXBContext.newInstance(Item.class).createMarshaller().marshal(
+                    new JAXBElement<Item>(new QName("item"), Item.class, new Item(ITEMS, "value-" + ITEMS)), legacy);
+        }
+        finally {
+            legacy.close();
+        }
+        
+        final File file = Exporter.getOutputFile(dir, Item.class);
+        assertEquals(new File(dir, "item.xml"), file);
+        assertEquals(ITEMS, exporter().export(file));
+        
+        importAll(dir);
+        assertImported(ITEMS + 1);
+    }
+    
+    @Test
+    public void testFailedExportKeepsFile() throws Exception {
+        final File file = folder.newFile("items.xml");
+        Files.write(file.toPath(), "previous".getBytes(StandardCharsets.UTF_8));
+        
+        //Not an entity, the query fails once the document has been started
+        try {
+            new Exporter(sessionFactory, ItemService.class, 2).export(file);
+            fail("Expected the export to fail");
+        }
+        catch (RuntimeException e) {
+            //Expected
+        }
+        
+        assertArrayEquals(new String[] { "items.xml" }, folder.getRoot().list());
+        assertEquals("previous", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+    
+    private Exporter exporter() {
+        //Smaller than the table, so the export spans several chunks
+        return new Exporter(sessionFactory, Item.class, 2);
+    }
+    
+    private void importAll(File dir) throws Exception {
+        Importer.importAll(dir, Item.class, sessionFactory, service, ItemService.class.getMethod("save", Item.class));
+    }
+    
+    private void assertImported(int count) {
+        assertEquals(count, service.items.size());
+        for (int i = 0; i < count; i++) {
+            final Item item = service.find(i);
+            assertEquals("value-" + i, item.data);
+        }
+    }
+    
+    @Entity(name = "Item")
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class Item {
+        @Id
+        private int id;
+        
+        private String data;
+        
+        public Item() {
+        }
+        
+        public Item(int id, String data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+    
+    public static class ItemService {
+        private final List<Item> items = new ArrayList<Item>();
+        
+        public void save(Item item) {
+            items.add(item);
+        }
+        
+        public Item find(int id) {
+            for (final Item item : items) {
+                if (item.id == id) {
+                    return item;
+                }
+            }
+            throw new AssertionError("Item " + id + " was not imported");
+        }
+    }
+}